@@ -21,6 +21,8 @@ module org.leadpony.pandora {
 
     requires java.desktop;
     requires java.logging;
+    requires java.management;
+    requires jdk.jfr;
 
     requires info.picocli;
     requires org.apache.pdfbox;
@@ -21,8 +21,13 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.function.IntPredicate;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
 
@@ -36,13 +41,23 @@ import picocli.CommandLine.Parameters;
  */
 abstract class AbstractCommand implements Callable<Integer> {
 
+    private static final Logger LOG = Logger.getLogger(AbstractCommand.class.getName());
+
     private static final IntPredicate EVEN_ONLY = page -> (page % 2) == 0;
     private static final IntPredicate ODD_ONLY = page -> (page % 2) != 0;
 
-    @Parameters(index = "0", description = "Path to the original PDF document.")
-    private Path input;
+    private static final long PROGRESS_INTERVAL_MILLIS = 1000;
 
-    @Option(names = { "-o", "--output" }, description = "Path to the converted PDF document.")
+    @Parameters(arity = "1..*",
+            paramLabel = "<input>",
+            description = "Paths to the original PDF documents.")
+    private List<Path> inputs;
+
+    @Option(names = { "-o", "--output" },
+            description = {
+                "Path to the converted PDF document,",
+                "or the directory where the converted documents are written."
+            })
     private Path output;
 
     @Option(names = "--pages",
@@ -65,22 +80,118 @@ abstract class AbstractCommand implements Callable<Integer> {
             description = "Process only odd pages.")
     private boolean odd = false;
 
+    @Option(names = "--progress",
+            description = "Print the progress to the standard error every second.")
+    private boolean progress = false;
+
+    @Option(names = "--progress-format",
+            paramLabel = "text|json",
+            description = {
+                "Format of the progress, which implies --progress.",
+                "(default value: text)"
+            })
+    private ProgressReporter.Format progressFormat;
+
+    @Option(names = "--in-flight",
+            paramLabel = "<documents>",
+            description = {
+                "Maximum number of documents loaded ahead, processed",
+                "and saved behind at the same time.",
+                "(default value: 4)"
+            })
+    private int inFlight = DocumentPipeline.DEFAULT_MAX_IN_FLIGHT;
+
+    // The reporter of the progress, or null if not requested.
+    private ProgressReporter progressReporter;
+    // The document being processed.
+    private Path input;
+    // The savings deferred to the last stage of the pipeline.
+    private final List<DocumentPipeline.Saver> savers = new ArrayList<>();
+
     /**
      * Executes this command.
      *
+     * <p>
+     * The documents are loaded, processed and saved in the pipeline,
+     * so that loading and saving of a document overlap processing of another.
+     * </p>
+     *
      * @return the exit code of this command.
      * @exception Exception if this command fails.
      */
     @Override
     public Integer call() throws Exception {
-        try (PDDocument doc = load(input)) {
-            processDoc(doc);
-            save(doc);
-        } catch (Exception e) {
-            e.printStackTrace(System.err);
+        try {
+            checkOptions();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return 1;
+        }
+        if (inFlight <= 0) {
+            System.err.println("--in-flight must be positive: " + inFlight);
             return 1;
         }
-        return 0;
+        if (output != null) {
+            try {
+                checkOutput(output);
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                return 1;
+            }
+        }
+        if (progress || progressFormat != null) {
+            ProgressReporter.Format format = (progressFormat != null) ? progressFormat : ProgressReporter.Format.TEXT;
+            progressReporter = new ProgressReporter(format, System.err, inputs.size(), System.nanoTime());
+            progressReporter.start(PROGRESS_INTERVAL_MILLIS);
+        }
+        int failures;
+        try {
+            failures = new DocumentPipeline(AbstractCommand::load, this::process, inFlight).run(inputs);
+        } finally {
+            if (progressReporter != null) {
+                progressReporter.stop();
+            }
+        }
+        return (failures > 0) ? 1 : 0;
+    }
+
+    /**
+     * Checks the combination of the options before any document is processed.
+     * By default, this method does nothing.
+     *
+     * @throws IllegalArgumentException if the options are not valid.
+     */
+    protected void checkOptions() {
+    }
+
+    /**
+     * Checks the output specified explicitly.
+     * By default, the output must be a directory when multiple documents are specified.
+     *
+     * @param output the path of the output, never be {@code null}.
+     * @throws IllegalArgumentException if the output is not valid.
+     */
+    protected void checkOutput(Path output) {
+        if (inputs.size() > 1 && !Files.isDirectory(output)) {
+            throw new IllegalArgumentException(
+                    "Output must be a directory when multiple documents are specified: " + output);
+        }
+    }
+
+    private DocumentPipeline.Saver process(Path input, PDDocument doc) throws IOException {
+        this.input = input;
+        this.savers.clear();
+        processDoc(doc);
+        endProcessing(doc);
+        if (savers.size() <= 1) {
+            return savers.isEmpty() ? null : savers.get(0);
+        }
+        final List<DocumentPipeline.Saver> scheduled = List.copyOf(savers);
+        return () -> {
+            for (DocumentPipeline.Saver saver : scheduled) {
+                saver.save();
+            }
+        };
     }
 
     /**
@@ -93,15 +204,61 @@ abstract class AbstractCommand implements Callable<Integer> {
         beginProcessing(doc);
         final int totalPages = doc.getNumberOfPages();
         IntPredicate predicate = getPagePredicate(totalPages);
+        final ProgressReporter reporter = this.progressReporter;
+        if (reporter != null) {
+            reporter.beginDocument((int) IntStream.rangeClosed(1, totalPages).filter(predicate).count());
+        }
         for (int i = 0; i < totalPages; i++) {
             if (predicate.test(i + 1)) {
+                long start = System.nanoTime();
                 processPage(doc, i);
+                if (reporter != null) {
+                    reporter.pageDone(System.nanoTime() - start);
+                }
             }
         }
     }
 
     protected abstract void beginProcessing(PDDocument doc);
 
+    /**
+     * Ends processing of the PDF document.
+     * By default, this method schedules saving of the processed document,
+     * which will be done by another thread after this method returns.
+     *
+     * @param doc the PDF document processed.
+     * @throws IOException if an I/O error occurred while ending the processing.
+     */
+    protected void endProcessing(PDDocument doc) throws IOException {
+        schedule(createSaver(doc, getOutput(), isModified()));
+    }
+
+    /**
+     * Creates the saving of the processed document into the output.
+     * The original document is copied instead if it need not be saved.
+     *
+     * @param doc the PDF document processed.
+     * @param output the path of the output.
+     * @param modified {@code true} if the document was modified for the output.
+     * @return the saving created.
+     */
+    protected DocumentPipeline.Saver createSaver(PDDocument doc, Path output, boolean modified) {
+        final Path input = this.input;
+        final boolean needsSave = needsSave(doc, modified);
+        return () -> save(doc, input, output, needsSave);
+    }
+
+    /**
+     * Schedules the saving of the document being processed.
+     * The savings scheduled for a document are done in order
+     * by another thread after {@link #endProcessing(PDDocument)} returns.
+     *
+     * @param saver the saving to schedule.
+     */
+    protected void schedule(DocumentPipeline.Saver saver) {
+        savers.add(saver);
+    }
+
     /**
      * Processes a page of the PDF document.
      *
@@ -114,18 +271,141 @@ abstract class AbstractCommand implements Callable<Integer> {
         return "converted";
     }
 
-    private static PDDocument load(Path path) throws IOException {
+    /**
+     * Loads a PDF document from the file.
+     *
+     * @param path the path of the file.
+     * @return the document loaded.
+     * @throws IOException if an I/O error occurred while loading the document.
+     */
+    static PDDocument load(Path path) throws IOException {
+        var event = new PandoraEvents.DocumentLoadEvent();
+        event.begin();
+        PDDocument doc;
         try (InputStream input = Files.newInputStream(path)) {
-            return PDDocument.load(input);
+            doc = PDDocument.load(input);
+        }
+        if (event.shouldCommit()) {
+            event.path = path.toString();
+            event.size = Files.size(path);
+            event.pages = doc.getNumberOfPages();
+            event.commit();
+        }
+        return doc;
+    }
+
+    /**
+     * Checks if the document was modified by this command.
+     * By default, this method always returns {@code true}.
+     *
+     * @return {@code true} if the document was modified, {@code false} otherwise.
+     */
+    protected boolean isModified() {
+        return true;
+    }
+
+    /**
+     * Configures the options of this command from the options of the API.
+     *
+     * @param options the options of the API.
+     */
+    void configure(CropOptions options) {
+        this.pages = options.getPages();
+    }
+
+    /**
+     * Saves the processed document into the output,
+     * or copies the original document if the document need not be saved.
+     *
+     * @param doc the PDF document processed.
+     * @param input the path of the original document.
+     * @param output the path of the output.
+     * @param needsSave {@code true} if the document needs to be saved.
+     * @throws IOException if an I/O error occurred while saving the document.
+     */
+    void save(PDDocument doc, Path input, Path output, boolean needsSave) throws IOException {
+        var event = new PandoraEvents.DocumentSaveEvent();
+        event.begin();
+        if (needsSave) {
+            try (OutputStream out = Files.newOutputStream(output)) {
+                write(doc, out);
+            }
+        } else {
+            copyInput(input, output);
+            event.copied = true;
+        }
+        if (event.shouldCommit()) {
+            event.path = output.toString();
+            event.size = Files.size(output);
+            describeOutput(event);
+            event.commit();
         }
     }
 
-    private void save(PDDocument doc) throws IOException {
-        try (OutputStream output = Files.newOutputStream(getOutput())) {
-            doc.save(output);
+    /**
+     * Writes the document.
+     * By default, this method saves the document in the way of PDFBox.
+     *
+     * @param doc the PDF document to write.
+     * @param out the output stream.
+     * @throws IOException if an I/O error occurred while writing the document.
+     */
+    protected void write(PDDocument doc, OutputStream out) throws IOException {
+        doc.save(out);
+    }
+
+    /*
+     * The unmodified document must be saved anyway when it was encrypted.
+     */
+    boolean needsSave(PDDocument doc, boolean modified) {
+        return modified || doc.isEncrypted();
+    }
+
+    /**
+     * Describes the form of the output in the event of saving.
+     * By default, this method does nothing.
+     *
+     * @param event the event of saving the document.
+     */
+    void describeOutput(PandoraEvents.DocumentSaveEvent event) {
+    }
+
+    private static void copyInput(Path input, Path output) throws IOException {
+        if (Files.exists(output) && Files.isSameFile(input, output)) {
+            LOG.fine(() -> "Nothing changed in " + input);
+        } else {
+            Files.copy(input, output, StandardCopyOption.REPLACE_EXISTING);
+            LOG.fine(() -> "Nothing changed in " + input + ", copied to " + output);
         }
     }
 
+    /**
+     * Returns the paths of all documents to process.
+     *
+     * @return the paths of the original documents.
+     */
+    protected List<Path> getInputs() {
+        return inputs;
+    }
+
+    /**
+     * Returns the path of the document being processed.
+     *
+     * @return the path of the original document.
+     */
+    protected Path getInput() {
+        return input;
+    }
+
+    /**
+     * Returns the path of the output specified explicitly.
+     *
+     * @return the path of the output, or {@code null} if not specified.
+     */
+    protected Path getSpecifiedOutput() {
+        return output;
+    }
+
     private IntPredicate getPagePredicate(int totalPages) {
         IntPredicate p = pages.testing(totalPages);
         if (even) {
@@ -137,8 +417,28 @@ abstract class AbstractCommand implements Callable<Integer> {
         return p;
     }
 
+    /**
+     * Returns the path of the output for a variant,
+     * which has the name of the variant appended to the name of the output.
+     *
+     * @param variant the name of the variant.
+     * @return the path of the output for the variant.
+     */
+    protected Path getOutput(String variant) {
+        Path output = getOutput();
+        String fileName = output.getFileName().toString();
+        int index = fileName.lastIndexOf('.');
+        if (index < 0) {
+            return output.resolveSibling(fileName + '-' + variant);
+        }
+        return output.resolveSibling(fileName.substring(0, index) + '-' + variant + fileName.substring(index));
+    }
+
     private Path getOutput() {
         if (this.output != null) {
+            if (Files.isDirectory(this.output)) {
+                return this.output.resolve(this.input.getFileName());
+            }
             return this.output;
         }
         StringBuilder builder = new StringBuilder();
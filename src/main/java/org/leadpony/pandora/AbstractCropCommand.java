@@ -0,0 +1,353 @@
+/*
+ * Copyright 2020-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.leadpony.pandora;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+import picocli.CommandLine.Option;
+
+/**
+ * A skeletal implementation of the commands which calculate the crop boxes of the pages.
+ *
+ * <p>
+ * This class has the options to calculate the crop boxes,
+ * while the options to write the cropped documents belong to {@link CropCommand}.
+ * </p>
+ *
+ * @author leadpony
+ */
+abstract class AbstractCropCommand extends AbstractCommand implements CroppingContext {
+
+    @Option(names = { "-m", "--margin" },
+            paramLabel = "<top,right,bottom,left>, \"bbox\", \"fast-bbox\", \"hybrid-bbox\", "
+                    + "\"text-bbox\", or <file>.json|.csv",
+            description = {
+                "Each margin can be specified in 1/72 inch or %% unit.",
+                "Special value \"bbox\" calculates bounding box for each page.",
+                "\"fast-bbox\" produces approximate bounding box for each page.",
+                "\"hybrid-bbox\" calculates bounding box only for pages",
+                "which \"fast-bbox\" cannot handle precisely.",
+                "\"text-bbox\" produces bounding box only from texts in each page.",
+                "A JSON or CSV file provides precomputed crop box for each page.",
+                "(default value: \"bbox\")"
+            },
+            defaultValue = "bbox")
+    private List<Margin> margin;
+
+    @Option(names = "--preserve-aspect",
+            description = "Preserve the original aspect ratio of pages.")
+    private boolean preserveAspect;
+
+    @Option(names = "--flip",
+            description = "Flip the margin, page by page.")
+    private boolean flip;
+
+    @Option(names = "--padding",
+            description = {
+                    "Padding size in 1/72 inch added to bounding boxes.",
+                    "(default value: 5)"
+            },
+            defaultValue = "5")
+    private int padding = 5;
+
+    @Option(names = {"-a", "--aspect"},
+            paramLabel = "<numeric value or paper size name>",
+            description = {
+                    "Page aspect ratio to be forced.",
+                    "e.g. 0.75, \"3:4\", \"a4\""
+            },
+            converter = AspectConverter.class)
+    private Float aspect;
+
+    @Option(names = "--ignore-annotations",
+            description = "Ignore annotations when calculating bounding boxes.")
+    private boolean ignoreAnnotations;
+
+    @Option(names = "--dpi",
+            description = {
+                    "Resolution in dots per inch for rendering pages",
+                    "to calculate bounding boxes.",
+                    "(default value: 72)"
+            },
+            defaultValue = "72")
+    private int resolution = 72;
+
+    @Option(names = "--draft",
+            description = {
+                    "Render pages in draft mode, which fills the extents",
+                    "of images and glyphs instead of drawing them."
+            })
+    private boolean draft;
+
+    @Option(names = "--memory-budget",
+            paramLabel = "<MiB>",
+            description = {
+                    "Memory in mebibytes for rendering pages at the same time.",
+                    "(default value: half of the maximum heap size)"
+            })
+    private Integer memoryBudget;
+
+    @Option(names = "--reuse-rasters",
+            description = {
+                    "Reuse the buffers of the rendered pages",
+                    "instead of allocating new ones page by page."
+            })
+    private boolean reuseRasters;
+
+    @Option(names = "--tile-size",
+            paramLabel = "<pixels>",
+            description = {
+                    "Render pages larger than the size in square tiles",
+                    "of the size, which bounds the memory for each page."
+            })
+    private Integer tileSize;
+
+    private MemoryGovernor governor;
+    private RasterPool rasterPool;
+    private CropStrategy strategy;
+
+    @Override
+    public Path getInput() {
+        return super.getInput();
+    }
+
+    @Override
+    public int getPadding() {
+        return padding;
+    }
+
+    @Override
+    public boolean includesAnnotations() {
+        return !ignoreAnnotations;
+    }
+
+    @Override
+    public int getResolution() {
+        return resolution;
+    }
+
+    @Override
+    public boolean rendersDraft() {
+        return draft;
+    }
+
+    @Override
+    public MemoryGovernor getMemoryGovernor() {
+        if (governor == null) {
+            governor = MemoryGovernor.ofMebibytes(memoryBudget);
+        }
+        return governor;
+    }
+
+    @Override
+    public RasterPool getRasterPool() {
+        if (rasterPool == null) {
+            rasterPool = reuseRasters ? RasterPool.ofProcessors() : RasterPool.NONE;
+        }
+        return rasterPool;
+    }
+
+    @Override
+    public int getTileSize() {
+        return (tileSize != null) ? tileSize : 0;
+    }
+
+    @Override
+    void configure(CropOptions options) {
+        super.configure(options);
+        this.margin = options.getMargins();
+        this.flip = options.flips();
+        this.padding = options.getPadding();
+        this.aspect = options.getAspect();
+        this.preserveAspect = options.preservesAspect();
+        this.ignoreAnnotations = options.ignoresAnnotations();
+        this.resolution = options.getResolution();
+        this.draft = options.rendersDraft();
+        this.memoryBudget = options.getMemoryBudget();
+        this.reuseRasters = options.reusesRasters();
+        this.tileSize = options.getTileSize();
+    }
+
+    @Override
+    protected void beginProcessing(PDDocument doc) {
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("Resolution must be positive: " + resolution);
+        }
+        if (memoryBudget != null && memoryBudget <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive: " + memoryBudget);
+        }
+        if (tileSize != null && (tileSize < ImageBasedBoundingBoxFinder.MIN_TILE_SIZE
+                || tileSize > ImageBasedBoundingBoxFinder.MAX_TILE_SIZE)) {
+            throw new IllegalArgumentException("Tile size must be between "
+                    + ImageBasedBoundingBoxFinder.MIN_TILE_SIZE + " and "
+                    + ImageBasedBoundingBoxFinder.MAX_TILE_SIZE + ": " + tileSize);
+        }
+        List<Margin> margins = new ArrayList<>(this.margin);
+        if (margins.size() == 1 && this.flip) {
+            margins.add(margins.get(0).flip());
+        }
+
+        List<CropStrategy> strategies = margins.stream()
+                .map(margin -> margin.createStrategy(doc, this))
+                .collect(Collectors.toList());
+
+        if (strategies.size() == 1) {
+            this.strategy = strategies.get(0);
+        } else {
+            this.strategy = new FlippingCropStrategy(strategies);
+        }
+    }
+
+    @Override
+    protected void processPage(PDDocument doc, int pageIndex) {
+        PDPage page = doc.getPage(pageIndex);
+        PDRectangle originalCropBox = page.getCropBox();
+        COSBase originalItem = page.getCOSObject().getItem(COSName.CROP_BOX);
+        resetCropBox(page);
+        PDRectangle boundingBox = strategy.getCropBox(doc, pageIndex);
+        PDRectangle cropBox = adjustCropBox(boundingBox, page.getMediaBox(), preserveAspect, aspect);
+        pageCropped(pageIndex, page, boundingBox, cropBox);
+        assignCropBox(doc, pageIndex, cropBox, originalCropBox, originalItem);
+    }
+
+    /**
+     * Is called when a page was cropped.
+     *
+     * @param pageIndex the page index starting from zero.
+     * @param page the page cropped.
+     * @param boundingBox the box provided by the cropping strategy.
+     * @param cropBox the final crop box assigned to the page.
+     */
+    protected void pageCropped(int pageIndex, PDPage page, PDRectangle boundingBox, PDRectangle cropBox) {
+    }
+
+    /**
+     * Assigns the crop box calculated to the page.
+     * By default, this method leaves the page exactly as it was.
+     *
+     * @param doc the PDF document being processed.
+     * @param pageIndex the page index starting from zero.
+     * @param cropBox the crop box calculated.
+     * @param originalCropBox the crop box of the page before it was calculated.
+     * @param originalItem the original crop box item of the page, {@code null} if the page had no crop box.
+     */
+    protected void assignCropBox(PDDocument doc, int pageIndex, PDRectangle cropBox,
+            PDRectangle originalCropBox, COSBase originalItem) {
+        doc.getPage(pageIndex).getCOSObject().setItem(COSName.CROP_BOX, originalItem);
+    }
+
+    /**
+     * Returns the cropping strategy for the document being processed.
+     *
+     * @return the cropping strategy.
+     */
+    protected CropStrategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Checks if the original aspect ratio of the pages is preserved.
+     *
+     * @return {@code true} if the aspect ratio is preserved.
+     */
+    protected boolean preservesAspect() {
+        return preserveAspect;
+    }
+
+    /**
+     * Returns the aspect ratio forced to the pages.
+     *
+     * @return the aspect ratio, or {@code null} if not specified.
+     */
+    protected Float getAspect() {
+        return aspect;
+    }
+
+    private static void resetCropBox(PDPage page) {
+        page.setCropBox(page.getMediaBox());
+    }
+
+    /**
+     * Adjusts the box to the aspect ratio and clips it by the media box.
+     *
+     * @param box the box provided by the cropping strategy.
+     * @param mediaBox the media box of the page.
+     * @param preserveAspect {@code true} if the aspect ratio of the media box is preserved.
+     * @param aspect the aspect ratio forced, can be {@code null}.
+     * @return newly created crop box.
+     */
+    static PDRectangle adjustCropBox(PDRectangle box, PDRectangle mediaBox,
+            boolean preserveAspect, Float aspect) {
+        PDRectangle cropBox = new PDRectangle(
+                box.getLowerLeftX(), box.getLowerLeftY(), box.getWidth(), box.getHeight());
+        if (preserveAspect) {
+            cropBox = adjustBoxAspect(cropBox, mediaBox);
+        } else if (aspect != null) {
+            cropBox = adjustBoxAspect(cropBox, aspect);
+        }
+        clipBox(cropBox, mediaBox);
+        return cropBox;
+    }
+
+    private static PDRectangle adjustBoxAspect(PDRectangle box, PDRectangle page) {
+        float aspectRatio = page.getWidth() / page.getHeight();
+        return adjustBoxAspect(box, aspectRatio);
+    }
+
+    private static PDRectangle adjustBoxAspect(PDRectangle box, float aspectRatio) {
+        final float newAspectRatio = box.getWidth() / box.getHeight();
+        if (newAspectRatio < aspectRatio) {
+            float newWidth = box.getHeight() * aspectRatio;
+            float x = box.getLowerLeftX() - 0.5f * (newWidth - box.getWidth());
+            return new PDRectangle(x, box.getLowerLeftY(), newWidth, box.getHeight());
+        } else if (newAspectRatio > aspectRatio) {
+            float newHeight = box.getWidth() / aspectRatio;
+            float y = box.getUpperRightY() - newHeight;
+            return new PDRectangle(box.getLowerLeftX(), y, box.getWidth(), newHeight);
+        }
+        return box;
+    }
+
+    private static void clipBox(PDRectangle box, PDRectangle mediaBox) {
+        float minX = box.getLowerLeftX();
+        float maxX = box.getUpperRightX();
+        float minY = box.getLowerLeftY();
+        float maxY = box.getUpperRightY();
+
+        if (minX < mediaBox.getLowerLeftX()) {
+            box.setLowerLeftX(mediaBox.getLowerLeftX());
+        }
+        if (maxX > mediaBox.getUpperRightX()) {
+            box.setUpperRightX(mediaBox.getUpperRightX());
+        }
+        if (minY < mediaBox.getLowerLeftY()) {
+            box.setLowerLeftY(mediaBox.getLowerLeftY());
+        }
+        if (maxY > mediaBox.getUpperRightY()) {
+            box.setUpperRightY(mediaBox.getUpperRightY());
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * A log handler which deduplicates the repeated log records of each document.
+ *
+ * <p>
+ * Malformed fonts or content streams make PDFBox log the same warning
+ * for every glyph or every operator, often with a stack trace.
+ * This handler publishes only the first of the records which share the logger,
+ * the level and the message with the digits ignored, and counts the rest.
+ * The number of the distinct records published for a document is also limited.
+ * When the document is done, the counts of the suppressed records are published as a summary.
+ * </p>
+ *
+ * <p>
+ * The records are attributed to the document which the current thread is working on,
+ * as declared by {@link #enterDocument(Object)} and {@link #leaveDocument(Object)}.
+ * </p>
+ *
+ * @author leadpony
+ */
+class AggregatingLogHandler extends Handler {
+
+    /**
+     * The maximum number of the distinct records published for a document.
+     */
+    static final int DEFAULT_DISTINCT_LIMIT = 20;
+
+    private static final int SUMMARY_LINES = 10;
+
+    // The records logged without any document.
+    private static final Object NO_DOCUMENT = new Object();
+
+    private static final ThreadLocal<Object> CURRENT_DOCUMENT = new ThreadLocal<>();
+
+    private final Handler target;
+    private final int distinctLimit;
+    private final Map<Object, DocumentLog> logs = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs this handler.
+     *
+     * @param target the handler to which the records are forwarded.
+     * @param distinctLimit the maximum number of the distinct records published for a document.
+     */
+    AggregatingLogHandler(Handler target, int distinctLimit) {
+        this.target = target;
+        this.distinctLimit = distinctLimit;
+        setLevel(target.getLevel());
+    }
+
+    /**
+     * Wraps all handlers of the root logger.
+     */
+    static void install() {
+        Logger root = Logger.getLogger("");
+        for (Handler handler : root.getHandlers()) {
+            if (!(handler instanceof AggregatingLogHandler)) {
+                root.removeHandler(handler);
+                root.addHandler(new AggregatingLogHandler(handler, DEFAULT_DISTINCT_LIMIT));
+            }
+        }
+    }
+
+    /**
+     * Attributes the records logged by the current thread to the document.
+     * The caller must pass the returned value to {@link #leaveDocument(Object)}
+     * when the current thread leaves the document.
+     *
+     * @param document the document to which the records are attributed.
+     * @return the document which the current thread was working on, can be {@code null}.
+     */
+    static Object enterDocument(Object document) {
+        Object previous = CURRENT_DOCUMENT.get();
+        CURRENT_DOCUMENT.set(document);
+        return previous;
+    }
+
+    /**
+     * Attributes the records logged by the current thread to the previous document again.
+     *
+     * @param previous the value returned by {@link #enterDocument(Object)}.
+     */
+    static void leaveDocument(Object previous) {
+        if (previous == null) {
+            CURRENT_DOCUMENT.remove();
+        } else {
+            CURRENT_DOCUMENT.set(previous);
+        }
+    }
+
+    /**
+     * Publishes the summary of the document in the handlers of the root logger.
+     *
+     * @param document the document done.
+     */
+    static void endDocument(Object document) {
+        for (Handler handler : Logger.getLogger("").getHandlers()) {
+            if (handler instanceof AggregatingLogHandler) {
+                ((AggregatingLogHandler) handler).summarize(document);
+            }
+        }
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (!isLoggable(record)) {
+            return;
+        }
+        Object document = CURRENT_DOCUMENT.get();
+        DocumentLog log = logs.computeIfAbsent((document != null) ? document : NO_DOCUMENT,
+                key -> new DocumentLog());
+        if (log.accept(record, distinctLimit)) {
+            target.publish(record);
+        }
+    }
+
+    /**
+     * Publishes the summary of the suppressed records of the document
+     * and forgets the document.
+     *
+     * @param document the document done.
+     */
+    void summarize(Object document) {
+        DocumentLog log = logs.remove(document);
+        if (log == null) {
+            return;
+        }
+        List<Entry> suppressed = log.entries.values().stream()
+                .filter(entry -> entry.suppressed.get() > 0)
+                .sorted(Comparator.comparingLong((Entry entry) -> entry.suppressed.get()).reversed())
+                .collect(Collectors.toList());
+        if (suppressed.isEmpty()) {
+            return;
+        }
+        long total = suppressed.stream().mapToLong(entry -> entry.suppressed.get()).sum();
+        StringBuilder builder = new StringBuilder();
+        builder.append("Suppressed ").append(total).append(" repeated log records");
+        if (document != NO_DOCUMENT) {
+            builder.append(" for ").append(document);
+        }
+        Level level = Level.INFO;
+        for (int i = 0; i < suppressed.size(); i++) {
+            Entry entry = suppressed.get(i);
+            if (entry.level.intValue() > level.intValue()) {
+                level = entry.level;
+            }
+            if (i < SUMMARY_LINES) {
+                builder.append(System.lineSeparator())
+                    .append("  ").append(entry.suppressed.get()).append(" x ")
+                    .append(entry.level).append(' ').append(entry.loggerName)
+                    .append(" - ").append(entry.message);
+            }
+        }
+        if (suppressed.size() > SUMMARY_LINES) {
+            builder.append(System.lineSeparator())
+                .append("  and ").append(suppressed.size() - SUMMARY_LINES).append(" more");
+        }
+        LogRecord summary = new LogRecord(level, builder.toString());
+        summary.setLoggerName(AggregatingLogHandler.class.getName());
+        summary.setSourceClassName(AggregatingLogHandler.class.getName());
+        summary.setSourceMethodName("summarize");
+        target.publish(summary);
+    }
+
+    @Override
+    public void flush() {
+        target.flush();
+    }
+
+    @Override
+    public void close() {
+        summarize(NO_DOCUMENT);
+        target.close();
+    }
+
+    /**
+     * The log records of a document.
+     */
+    private static class DocumentLog {
+
+        final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+        final AtomicInteger published = new AtomicInteger();
+
+        /**
+         * Counts the record.
+         *
+         * @return {@code true} if the record should be published.
+         */
+        boolean accept(LogRecord record, int distinctLimit) {
+            Entry entry = entries.computeIfAbsent(new Key(record), key -> new Entry(record));
+            if (entry.occurrences.incrementAndGet() == 1 && published.incrementAndGet() <= distinctLimit) {
+                return true;
+            }
+            entry.suppressed.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * The identity of the repeated records.
+     */
+    private static class Key {
+
+        private final String loggerName;
+        private final Level level;
+        private final String shape;
+
+        Key(LogRecord record) {
+            this.loggerName = record.getLoggerName();
+            this.level = record.getLevel();
+            this.shape = shapeOf(record.getMessage());
+        }
+
+        /*
+         * Ignores the numbers such as offsets and object numbers,
+         * which differ between the records logged by the same statement.
+         */
+        private static String shapeOf(String message) {
+            if (message == null) {
+                return "";
+            }
+            StringBuilder builder = new StringBuilder(message.length());
+            boolean digits = false;
+            for (int i = 0; i < message.length(); i++) {
+                char c = message.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    if (!digits) {
+                        builder.append('#');
+                    }
+                    digits = true;
+                } else {
+                    builder.append(c);
+                    digits = false;
+                }
+            }
+            return builder.toString();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return Objects.equals(loggerName, other.loggerName)
+                    && Objects.equals(level, other.level)
+                    && shape.equals(other.shape);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(loggerName, level, shape);
+        }
+    }
+
+    /**
+     * The counts of the records sharing a key.
+     */
+    private static class Entry {
+
+        final String loggerName;
+        final Level level;
+        final String message;
+        final AtomicLong occurrences = new AtomicLong();
+        final AtomicLong suppressed = new AtomicLong();
+
+        Entry(LogRecord record) {
+            this.loggerName = record.getLoggerName();
+            this.level = record.getLevel();
+            this.message = record.getMessage();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Model.CommandSpec;
+import picocli.CommandLine.Spec;
+
+/**
+ * A command which prints the crop boxes of the pages without saving the document.
+ *
+ * <p>
+ * Each page is printed as a line of JSON object as soon as it is processed.
+ * The output goes to the path specified by {@code --output} option if specified,
+ * otherwise to the standard output.
+ * When multiple documents are specified, each line also has the path of the document.
+ * This command has only the options to calculate the crop boxes,
+ * not the options to write the cropped documents.
+ * </p>
+ *
+ * @author leadpony
+ */
+@Command(name = "analyze", description = "Prints crop boxes of the PDF as JSON lines")
+class AnalyzeCommand extends AbstractCropCommand {
+
+    @Spec
+    private CommandSpec spec;
+
+    private PrintWriter writer;
+
+    @Override
+    public Integer call() throws Exception {
+        try {
+            return super.call();
+        } finally {
+            if (writer != null && getSpecifiedOutput() != null) {
+                writer.close();
+            }
+        }
+    }
+
+    @Override
+    protected void checkOutput(Path output) {
+        // The output is always a single file.
+    }
+
+    @Override
+    protected void beginProcessing(PDDocument doc) {
+        super.beginProcessing(doc);
+        if (writer != null) {
+            return;
+        }
+        Path output = getSpecifiedOutput();
+        if (output != null) {
+            try {
+                writer = new PrintWriter(Files.newBufferedWriter(output, StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            writer = spec.commandLine().getOut();
+        }
+    }
+
+    @Override
+    protected void pageCropped(int pageIndex, PDPage page, PDRectangle boundingBox, PDRectangle cropBox) {
+        StringBuilder builder = new StringBuilder("{");
+        if (getInputs().size() > 1) {
+            builder.append("\"file\":").append(Json.quote(getInput().toString())).append(',');
+        }
+        builder.append("\"page\":").append(pageIndex + 1);
+        appendBox(builder, "mediaBox", page.getMediaBox());
+        appendBox(builder, "boundingBox", boundingBox);
+        appendBox(builder, "cropBox", cropBox);
+        builder.append('}');
+        writer.println(builder);
+        writer.flush();
+    }
+
+    @Override
+    protected void endProcessing(PDDocument doc) throws IOException {
+        writer.flush();
+    }
+
+    private static void appendBox(StringBuilder builder, String name, PDRectangle box) {
+        builder.append(",\"").append(name).append("\":[")
+            .append(box.getLowerLeftX()).append(',')
+            .append(box.getLowerLeftY()).append(',')
+            .append(box.getUpperRightX()).append(',')
+            .append(box.getUpperRightY()).append(']');
+    }
+}
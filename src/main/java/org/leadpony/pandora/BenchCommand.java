@@ -0,0 +1,577 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Model.CommandSpec;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+import picocli.CommandLine.Spec;
+
+/**
+ * A command which measures the throughput of {@code crop} command over a corpus of PDF documents.
+ *
+ * <p>
+ * Each configuration, a combination of a margin, a padding, a number of threads
+ * and an output format, is run over all documents in the corpus for the warm-up iterations first,
+ * and then for the measured iterations. The documents are processed concurrently
+ * by the specified number of threads, and are not written anywhere.
+ * The output format matters only when the documents are saved to the null sink,
+ * which counts the bytes written.
+ * </p>
+ * <p>
+ * Alternatively, the command compares {@link ContentScanner} with {@link BoundingBoxCalculator}
+ * by calculating the bounding box of each page with both of them in a single thread.
+ * </p>
+ *
+ * @author leadpony
+ */
+@Command(name = "bench", description = "Measures throughput of crop command over a corpus")
+class BenchCommand implements Callable<Integer> {
+
+    private static final List<String> DEFAULT_MARGINS =
+            List.of("bbox", "fast-bbox", "hybrid-bbox", "text-bbox");
+
+    private static final List<String> FORMATS = List.of("classic", "object-streams");
+
+    private static final String TABLE_FORMAT = "%-24s %8s %8s %-15s %12s %10s %10s %12s %12s%n";
+
+    private static final String ANALYZER_TABLE_FORMAT = "%-24s %8s %12s %10s %10s%n";
+
+    @Spec
+    private CommandSpec spec;
+
+    @Parameters(index = "0", description = "Directory containing the PDF documents.")
+    private Path corpus;
+
+    @Option(names = { "-m", "--margin" },
+            paramLabel = "<margin>",
+            description = {
+                "Margin of crop command to measure.",
+                "This option can be repeated to measure multiple margins.",
+                "(default value: \"bbox\", \"fast-bbox\", \"hybrid-bbox\" and \"text-bbox\")"
+            })
+    private List<String> margins;
+
+    @Option(names = "--padding",
+            split = ",",
+            paramLabel = "<padding>",
+            description = {
+                "Paddings of crop command to measure, delimited by comma.",
+                "(default value: 5)"
+            },
+            defaultValue = "5")
+    private List<Integer> paddings;
+
+    @Option(names = "--threads",
+            split = ",",
+            paramLabel = "<threads>",
+            description = {
+                "Numbers of documents processed concurrently, delimited by comma.",
+                "(default value: 1)"
+            },
+            defaultValue = "1")
+    private List<Integer> threads;
+
+    @Option(names = "--format",
+            split = ",",
+            paramLabel = "<format>",
+            description = {
+                "Output formats to measure, delimited by comma.",
+                "Each format is either 'classic' or 'object-streams'.",
+                "(default value: classic)"
+            },
+            defaultValue = "classic")
+    private List<String> formats;
+
+    @Option(names = "--memory-budget",
+            paramLabel = "<MiB>",
+            description = {
+                "Memory in mebibytes for rendering pages at the same time,",
+                "shared by all threads.",
+                "(default value: half of the maximum heap size)"
+            })
+    private Integer memoryBudget;
+
+    @Option(names = "--reuse-rasters",
+            description = {
+                "Reuse the buffers of the rendered pages,",
+                "shared by all threads."
+            })
+    private boolean reuseRasters;
+
+    @Option(names = "--warmup",
+            description = {
+                "Number of warm-up iterations for each configuration.",
+                "(default value: 1)"
+            },
+            defaultValue = "1")
+    private int warmup = 1;
+
+    @Option(names = "--iterations",
+            description = {
+                "Number of measured iterations for each configuration.",
+                "(default value: 3)"
+            },
+            defaultValue = "3")
+    private int iterations = 3;
+
+    @Option(names = "--save",
+            description = "Save each processed document to a null sink.")
+    private boolean save;
+
+    @Option(names = "--compare-scanner",
+            description = {
+                "Compare the content scanner of \"fast-bbox\" with the calculator",
+                "it falls back to, instead of measuring crop command."
+            })
+    private boolean comparesScanner;
+
+    @Option(names = "--json",
+            paramLabel = "<file>",
+            description = "Path to the JSON file of the results.")
+    private Path json;
+
+    @Option(names = "--generate",
+            paramLabel = "<documents>",
+            description = "Generate synthetic documents into the corpus directory before measuring.")
+    private int generatedDocuments;
+
+    @Option(names = "--generate-pages",
+            paramLabel = "<pages>",
+            description = {
+                "Number of pages in each synthetic document.",
+                "(default value: 20)"
+            },
+            defaultValue = "20")
+    private int generatedPages = 20;
+
+    @Option(names = "--seed",
+            description = {
+                "Seed for generating synthetic documents.",
+                "(default value: 42)"
+            },
+            defaultValue = "42")
+    private long seed = 42;
+
+    @Override
+    public Integer call() throws Exception {
+        if (generatedDocuments > 0) {
+            new SyntheticCorpus(generatedDocuments, generatedPages, seed).generate(corpus);
+        }
+        List<Path> documents = findDocuments(corpus);
+        if (documents.isEmpty()) {
+            spec.commandLine().getErr().println("No PDF documents found in " + corpus);
+            return 1;
+        }
+
+        if (comparesScanner) {
+            return compareScanner(documents);
+        }
+
+        if (margins == null) {
+            margins = DEFAULT_MARGINS;
+        }
+        for (String format : formats) {
+            if (!FORMATS.contains(format)) {
+                spec.commandLine().getErr().println("Unknown output format: " + format);
+                return 1;
+            }
+        }
+
+        PrintWriter out = spec.commandLine().getOut();
+        out.printf(TABLE_FORMAT, "margin", "padding", "threads", "format",
+                "pages/s", "p50(ms)", "p99(ms)", "heap(MiB)", "output(KiB)");
+        out.flush();
+        List<Result> results = new ArrayList<>();
+        for (String margin : margins) {
+            for (int padding : paddings) {
+                for (int threadCount : threads) {
+                    for (String format : formats) {
+                        Result result = measure(documents, new Result(margin, padding, threadCount, format));
+                        printResult(out, result);
+                        results.add(result);
+                    }
+                }
+            }
+        }
+
+        if (json != null) {
+            Files.writeString(json, toJson(results), StandardCharsets.UTF_8);
+        }
+        return 0;
+    }
+
+    /*
+     * Measures the analyzers of the pages, which is not affected by the options for crop command.
+     */
+    private int compareScanner(List<Path> documents) throws IOException {
+        Map<String, PageAnalyzer> analyzers = new LinkedHashMap<>();
+        analyzers.put("scanner", BenchCommand::scanPage);
+        analyzers.put("calculator", BenchCommand::calculatePage);
+
+        PrintWriter out = spec.commandLine().getOut();
+        out.printf(ANALYZER_TABLE_FORMAT, "analyzer", "pages", "pages/s", "p50(ms)", "p99(ms)");
+        out.flush();
+        List<Result> results = new ArrayList<>();
+        for (Map.Entry<String, PageAnalyzer> entry : analyzers.entrySet()) {
+            Result result = new Result(entry.getKey(), 0, 1, null);
+            for (int i = 0; i < warmup; i++) {
+                analyzeDocuments(entry.getValue(), documents, result, false);
+            }
+            for (int i = 0; i < iterations; i++) {
+                analyzeDocuments(entry.getValue(), documents, result, true);
+            }
+            out.printf(Locale.ROOT, ANALYZER_TABLE_FORMAT,
+                    result.margin, result.pages,
+                    String.format(Locale.ROOT, "%.1f", result.getPagesPerSecond()),
+                    String.format(Locale.ROOT, "%.3f", result.getPercentile(50) / 1e6),
+                    String.format(Locale.ROOT, "%.3f", result.getPercentile(99) / 1e6));
+            out.flush();
+            results.add(result);
+        }
+
+        if (json != null) {
+            Files.writeString(json, toAnalyzerJson(results), StandardCharsets.UTF_8);
+        }
+        return 0;
+    }
+
+    private static void analyzeDocuments(PageAnalyzer analyzer, List<Path> documents, Result result,
+            boolean measured) throws IOException {
+        for (Path document : documents) {
+            try (PDDocument doc = PDDocument.load(document.toFile())) {
+                // The glyph bounds are shared by the pages as in crop command.
+                GlyphBounds glyphBounds = new GlyphBounds();
+                long[] latencies = new long[doc.getNumberOfPages()];
+                for (int i = 0; i < latencies.length; i++) {
+                    PDPage page = doc.getPage(i);
+                    long start = System.nanoTime();
+                    analyzer.analyze(page, glyphBounds);
+                    latencies[i] = System.nanoTime() - start;
+                }
+                if (measured) {
+                    result.addLatencies(latencies, latencies.length);
+                    result.elapsed += Arrays.stream(latencies).sum();
+                }
+            }
+        }
+    }
+
+    private static void scanPage(PDPage page, GlyphBounds glyphBounds) throws IOException {
+        try {
+            new ContentScanner(page, glyphBounds, false).scanPage();
+        } catch (ContentScanner.UnsupportedContentException e) {
+            calculatePage(page, glyphBounds);
+        }
+    }
+
+    private static void calculatePage(PDPage page, GlyphBounds glyphBounds) throws IOException {
+        new BoundingBoxCalculator(page).processPage(page);
+    }
+
+    private static List<Path> findDocuments(Path dir) throws IOException {
+        try (Stream<Path> stream = Files.list(dir)) {
+            return stream
+                    .filter(path -> path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".pdf"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static void printResult(PrintWriter out, Result result) {
+        out.printf(Locale.ROOT, TABLE_FORMAT,
+                result.margin, result.padding, result.threads, result.format,
+                String.format(Locale.ROOT, "%.1f", result.getPagesPerSecond()),
+                String.format(Locale.ROOT, "%.2f", result.getPercentile(50) / 1e6),
+                String.format(Locale.ROOT, "%.2f", result.getPercentile(99) / 1e6),
+                String.format(Locale.ROOT, "%.1f", result.peakHeap / (1024.0 * 1024.0)),
+                String.format(Locale.ROOT, "%.1f", result.getOutputBytesPerIteration() / 1024.0));
+        out.flush();
+    }
+
+    private Result measure(List<Path> documents, Result result) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(result.threads);
+        MemoryGovernor governor = MemoryGovernor.ofMebibytes(memoryBudget);
+        RasterPool rasterPool = reuseRasters ? new RasterPool(result.threads) : RasterPool.NONE;
+        try {
+            for (int i = 0; i < warmup; i++) {
+                runIteration(executor, governor, rasterPool, documents, result, false);
+            }
+            System.gc();
+            List<MemoryPoolMXBean> pools = getHeapPools();
+            pools.forEach(MemoryPoolMXBean::resetPeakUsage);
+            for (int i = 0; i < iterations; i++) {
+                runIteration(executor, governor, rasterPool, documents, result, true);
+            }
+            result.peakHeap = pools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    private void runIteration(ExecutorService executor, MemoryGovernor governor, RasterPool rasterPool,
+            List<Path> documents, Result result, boolean measured) throws IOException {
+        List<Future<MeasuredCropCommand>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (Path document : documents) {
+            futures.add(executor.submit(() -> runCommand(document, governor, rasterPool, result)));
+        }
+        List<MeasuredCropCommand> commands = new ArrayList<>();
+        for (Future<MeasuredCropCommand> future : futures) {
+            commands.add(await(future));
+        }
+        long elapsed = System.nanoTime() - start;
+        if (measured) {
+            result.elapsed += elapsed;
+            for (MeasuredCropCommand command : commands) {
+                result.addLatencies(command.latencies, command.pages);
+                result.outputBytes += command.outputBytes;
+            }
+        }
+    }
+
+    private MeasuredCropCommand runCommand(Path document, MemoryGovernor governor, RasterPool rasterPool,
+            Result result) throws Exception {
+        MeasuredCropCommand command = new MeasuredCropCommand(save, governor, rasterPool);
+        CommandLine commandLine = new CommandLine(command);
+        PandoraCommand.registerConverters(commandLine);
+        List<String> args = new ArrayList<>(List.of(
+                "--margin", result.margin,
+                "--padding", String.valueOf(result.padding)));
+        if (result.format.equals("object-streams")) {
+            args.add("--object-streams");
+        }
+        args.add(document.toString());
+        commandLine.parseArgs(args.toArray(new String[0]));
+        if (command.call() != 0) {
+            throw new IOException("Failed to process " + document);
+        }
+        return command;
+    }
+
+    private static List<MemoryPoolMXBean> getHeapPools() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .collect(Collectors.toList());
+    }
+
+    private static MeasuredCropCommand await(Future<MeasuredCropCommand> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static String toJson(List<Result> results) {
+        StringBuilder builder = new StringBuilder("[\n");
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            builder.append(String.format(Locale.ROOT,
+                    "  {\"margin\":\"%s\",\"padding\":%d,\"threads\":%d,\"pages\":%d,"
+                    + "\"pagesPerSecond\":%.3f,\"p50Millis\":%.3f,\"p99Millis\":%.3f,\"peakHeapBytes\":%d,"
+                    + "\"format\":\"%s\",\"outputBytes\":%d}",
+                    result.margin.replace("\\", "\\\\").replace("\"", "\\\""),
+                    result.padding,
+                    result.threads,
+                    result.pages,
+                    result.getPagesPerSecond(),
+                    result.getPercentile(50) / 1e6,
+                    result.getPercentile(99) / 1e6,
+                    result.peakHeap,
+                    result.format,
+                    result.getOutputBytesPerIteration()));
+            builder.append((i < results.size() - 1) ? ",\n" : "\n");
+        }
+        return builder.append("]\n").toString();
+    }
+
+    private static String toAnalyzerJson(List<Result> results) {
+        StringBuilder builder = new StringBuilder("[\n");
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            builder.append(String.format(Locale.ROOT,
+                    "  {\"analyzer\":\"%s\",\"pages\":%d,"
+                    + "\"pagesPerSecond\":%.3f,\"p50Millis\":%.3f,\"p99Millis\":%.3f}",
+                    result.margin,
+                    result.pages,
+                    result.getPagesPerSecond(),
+                    result.getPercentile(50) / 1e6,
+                    result.getPercentile(99) / 1e6));
+            builder.append((i < results.size() - 1) ? ",\n" : "\n");
+        }
+        return builder.append("]\n").toString();
+    }
+
+    /**
+     * The analyzer of a page, which calculates the bounding box of the page.
+     */
+    private interface PageAnalyzer {
+
+        void analyze(PDPage page, GlyphBounds glyphBounds) throws IOException;
+    }
+
+    /**
+     * The crop command which measures the latency of each page
+     * and does not write the output.
+     */
+    private static class MeasuredCropCommand extends CropCommand {
+
+        private final boolean save;
+        private final MemoryGovernor governor;
+        private final RasterPool rasterPool;
+        private long[] latencies = new long[64];
+        private int pages;
+        private long outputBytes;
+
+        MeasuredCropCommand(boolean save, MemoryGovernor governor, RasterPool rasterPool) {
+            this.save = save;
+            this.governor = governor;
+            this.rasterPool = rasterPool;
+        }
+
+        @Override
+        public MemoryGovernor getMemoryGovernor() {
+            return governor;
+        }
+
+        @Override
+        public RasterPool getRasterPool() {
+            return rasterPool;
+        }
+
+        @Override
+        protected void processPage(PDDocument doc, int pageIndex) {
+            long start = System.nanoTime();
+            super.processPage(doc, pageIndex);
+            if (pages == latencies.length) {
+                latencies = Arrays.copyOf(latencies, pages * 2);
+            }
+            latencies[pages++] = System.nanoTime() - start;
+        }
+
+        @Override
+        protected void endProcessing(PDDocument doc) throws IOException {
+            if (save) {
+                CountingOutputStream out = new CountingOutputStream();
+                write(doc, out);
+                outputBytes += out.count;
+            }
+        }
+    }
+
+    /**
+     * The null sink which counts the bytes written.
+     */
+    private static class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    /**
+     * The result of a configuration.
+     */
+    private class Result {
+
+        final String margin;
+        final int padding;
+        final int threads;
+        final String format;
+        long elapsed;
+        long peakHeap;
+        long outputBytes;
+        private long[] latencies = new long[0];
+        private int pages;
+
+        Result(String margin, int padding, int threads, String format) {
+            this.margin = margin;
+            this.padding = padding;
+            this.threads = threads;
+            this.format = format;
+        }
+
+        long getOutputBytesPerIteration() {
+            return (iterations > 0) ? outputBytes / iterations : 0;
+        }
+
+        void addLatencies(long[] values, int length) {
+            if (pages + length > latencies.length) {
+                latencies = Arrays.copyOf(latencies, Math.max(pages + length, latencies.length * 2));
+            }
+            System.arraycopy(values, 0, latencies, pages, length);
+            pages += length;
+        }
+
+        double getPagesPerSecond() {
+            return (elapsed > 0) ? pages * 1e9 / elapsed : 0;
+        }
+
+        /*
+         * Returns the percentile of the page latencies in nanoseconds by the nearest-rank method.
+         */
+        long getPercentile(int percentile) {
+            if (pages == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(latencies, pages);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(percentile / 100.0 * pages);
+            return sorted[Math.max(rank, 1) - 1];
+        }
+    }
+}
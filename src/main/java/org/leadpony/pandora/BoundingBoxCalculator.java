@@ -17,25 +17,19 @@ package org.leadpony.pandora;
 
 import java.awt.Shape;
 import java.awt.geom.AffineTransform;
-import java.awt.geom.GeneralPath;
+import java.awt.geom.Area;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.io.IOException;
 
-import org.apache.fontbox.util.BoundingBox;
 import org.apache.pdfbox.contentstream.PDFGraphicsStreamEngine;
 import org.apache.pdfbox.cos.COSName;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
-import org.apache.pdfbox.pdmodel.font.PDCIDFontType2;
 import org.apache.pdfbox.pdmodel.font.PDFont;
-import org.apache.pdfbox.pdmodel.font.PDSimpleFont;
-import org.apache.pdfbox.pdmodel.font.PDTrueTypeFont;
-import org.apache.pdfbox.pdmodel.font.PDType0Font;
-import org.apache.pdfbox.pdmodel.font.PDType3CharProc;
-import org.apache.pdfbox.pdmodel.font.PDType3Font;
-import org.apache.pdfbox.pdmodel.font.PDVectorFont;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImage;
+import org.apache.pdfbox.pdmodel.graphics.state.RenderingMode;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotation;
 import org.apache.pdfbox.util.Matrix;
 import org.apache.pdfbox.util.Vector;
 
@@ -49,9 +43,12 @@ import org.apache.pdfbox.util.Vector;
  * This stream engine determines the bounding box of the static content
  * of a page. Beware, it is not very sophisticated; in particular it
  * does not ignore invisible content like a white background rectangle,
- * text drawn in rendering mode "invisible", arbitrary content covered
- * by a white filled path, white parts of bitmap images, ... Furthermore,
- * it ignores clip paths.
+ * arbitrary content covered by a white filled path, white parts of bitmap images, ...
+ * </p>
+ * <p>
+ * Text drawn in rendering mode "invisible" and content painted with
+ * zero alpha are skipped. Clip paths are approximated by their bounds,
+ * and the content is clipped to them before added to the bounding box.
  * </p>
  *
  * @author mklink
@@ -63,6 +60,12 @@ class BoundingBoxCalculator extends PDFGraphicsStreamEngine {
 
     private Rectangle2D boundingBox;
     private Rectangle2D pathRect;
+    private boolean clipping;
+    private boolean imagesDrawn;
+    private boolean shadingsFilled;
+
+    private Area lastClippingPath;
+    private Rectangle2D clipBounds;
 
     BoundingBoxCalculator(PDPage page) {
         super(page);
@@ -73,6 +76,39 @@ class BoundingBoxCalculator extends PDFGraphicsStreamEngine {
         return boundingBox;
     }
 
+    /**
+     * Checks if any images were drawn in the page.
+     *
+     * @return {@code true} if any images were drawn.
+     */
+    boolean hasImages() {
+        return imagesDrawn;
+    }
+
+    /**
+     * Checks if any areas were filled with shadings in the page.
+     *
+     * @return {@code true} if any areas were filled with shadings.
+     */
+    boolean hasShadings() {
+        return shadingsFilled;
+    }
+
+    /**
+     * Processes the appearance streams of the visible annotations in the page.
+     * This method must be called after {@link #processPage(PDPage)}.
+     *
+     * @param page the page to process.
+     * @throws IOException if an I/O error occurred while reading the page.
+     */
+    void processAnnotations(PDPage page) throws IOException {
+        for (PDAnnotation annotation : page.getAnnotations()) {
+            if (!annotation.isHidden() && !annotation.isNoView()) {
+                showAnnotation(annotation);
+            }
+        }
+    }
+
     @Override
     public void appendRectangle(Point2D p0, Point2D p1, Point2D p2, Point2D p3) throws IOException {
         addToPath(p0, p1, p2, p3);
@@ -80,16 +116,23 @@ class BoundingBoxCalculator extends PDFGraphicsStreamEngine {
 
     @Override
     public void drawImage(PDImage pdImage) throws IOException {
+        imagesDrawn = true;
+        if (isTransparent(getGraphicsState().getNonStrokeAlphaConstant())) {
+            return;
+        }
         Matrix m = getGraphicsState().getCurrentTransformationMatrix();
-        add(m.transformPoint(0.f, 0.f));
-        add(m.transformPoint(0.f, 1.f));
-        add(m.transformPoint(1.f, 0.f));
-        add(m.transformPoint(1.f, 1.f));
+        Point2D p = m.transformPoint(0.f, 0.f);
+        Rectangle2D rect = new Rectangle2D.Double(p.getX(), p.getY(), 0, 0);
+        rect.add(m.transformPoint(0.f, 1.f));
+        rect.add(m.transformPoint(1.f, 0.f));
+        rect.add(m.transformPoint(1.f, 1.f));
+        add(rect);
     }
 
     @Override
     public void clip(int windingRule) throws IOException {
-        // Do nothing
+        // The clipping path will be updated when the current path is ended.
+        clipping = true;
     }
 
     @Override
@@ -121,33 +164,37 @@ class BoundingBoxCalculator extends PDFGraphicsStreamEngine {
 
     @Override
     public void endPath() throws IOException {
-        pathRect = null;
+        finishPath(false);
     }
 
     @Override
     public void strokePath() throws IOException {
-        finishPath();
+        finishPath(isVisiblyStroked());
     }
 
     @Override
     public void fillPath(int windingRule) throws IOException {
-        finishPath();
+        finishPath(isVisiblyFilled());
     }
 
     @Override
     public void fillAndStrokePath(int windingRule) throws IOException {
-        finishPath();
+        finishPath(isVisiblyFilled() || isVisiblyStroked());
     }
 
     @Override
     public void shadingFill(COSName shadingName) throws IOException {
-        // Do nothing
+        shadingsFilled = true;
     }
 
     @Override
     protected void showGlyph(Matrix textRenderingMatrix, PDFont font, int code, Vector displacement)
             throws IOException {
-        super.showGlyph(textRenderingMatrix, font, code, displacement);
+        // Type3 glyphs concatenate their own matrices to the given one.
+        super.showGlyph(textRenderingMatrix.clone(), font, code, displacement);
+        if (!isTextVisible()) {
+            return;
+        }
         Shape shape = calculateGlyphBounds(textRenderingMatrix, font, code);
         if (shape != null) {
             add(shape.getBounds2D());
@@ -156,75 +203,15 @@ class BoundingBoxCalculator extends PDFGraphicsStreamEngine {
 
     /* helper */
 
-    /**
-     * Copy of <code>org.apache.pdfbox.examples.util.DrawPrintTextLocations.calculateGlyphBounds(Matrix, PDFont, int)</code>.
-     * @throws IOException
-     */
     private Shape calculateGlyphBounds(Matrix textRenderingMatrix, PDFont font, int code)
             throws IOException {
-        AffineTransform transform = textRenderingMatrix.createAffineTransform();
-        transform.concatenate(font.getFontMatrix().createAffineTransform());
-
-        GeneralPath path = null;
-        if (font instanceof PDType3Font) {
-            path = calculateGlyphPath((PDType3Font) font, code);
-        } else if (font instanceof PDVectorFont) {
-            path = calculateGlyphPath((PDVectorFont) font, code);
-            if (font instanceof PDTrueTypeFont) {
-                PDTrueTypeFont ttFont = (PDTrueTypeFont) font;
-                int unitsPerEm = ttFont.getTrueTypeFont().getHeader().getUnitsPerEm();
-                transform.scale(1000d / unitsPerEm, 1000d / unitsPerEm);
-            }
-            if (font instanceof PDType0Font) {
-                PDType0Font t0font = (PDType0Font) font;
-                if (t0font.getDescendantFont() instanceof PDCIDFontType2) {
-                    PDCIDFontType2 dFont = (PDCIDFontType2) t0font.getDescendantFont();
-                    int unitsPerEm = dFont.getTrueTypeFont().getHeader().getUnitsPerEm();
-                    transform.scale(1000d / unitsPerEm, 1000d / unitsPerEm);
-                }
-            }
-        } else if (font instanceof PDSimpleFont) {
-            path = calculateGlyphPath((PDSimpleFont) font, code);
-        } else {
-            // shouldn't happen, please open issue in JIRA
-            throw new IllegalStateException("Unknown font class: " + font.getClass());
-        }
-
-        if (path == null) {
+        Rectangle2D bounds = GlyphBounds.getPathBounds(font, code);
+        if (bounds == null) {
             return null;
         }
-        return transform.createTransformedShape(path.getBounds2D());
-    }
-
-    private GeneralPath calculateGlyphPath(PDType3Font font, int code) throws IOException {
-        PDType3CharProc charProc = font.getCharProc(code);
-        if (charProc == null) {
-            return null;
-        }
-
-        PDRectangle glyphBBox = charProc.getGlyphBBox();
-        if (glyphBBox == null) {
-            return null;
-        }
-
-        BoundingBox fontBBox = font.getBoundingBox();
-        glyphBBox.setLowerLeftX(Math.max(fontBBox.getLowerLeftX(), glyphBBox.getLowerLeftX()));
-        glyphBBox.setLowerLeftY(Math.max(fontBBox.getLowerLeftY(), glyphBBox.getLowerLeftY()));
-        glyphBBox.setUpperRightX(Math.min(fontBBox.getUpperRightX(), glyphBBox.getUpperRightX()));
-        glyphBBox.setUpperRightY(Math.min(fontBBox.getUpperRightY(), glyphBBox.getUpperRightY()));
-
-        return glyphBBox.toGeneralPath();
-    }
-
-    private GeneralPath calculateGlyphPath(PDVectorFont font, int code) throws IOException {
-        return font.getPath(code);
-    }
-
-    private GeneralPath calculateGlyphPath(PDSimpleFont font, int code) throws IOException {
-        // these two lines do not always work, e.g. for the TT fonts in file 032431.pdf
-        // which is why PDVectorFont is tried first.
-        String name = font.getEncoding().getName(code);
-        return font.getPath(name);
+        AffineTransform transform = textRenderingMatrix.createAffineTransform();
+        transform.concatenate(GlyphBounds.getFontTransform(font));
+        return transform.createTransformedShape(bounds);
     }
 
     private void addToPath(Point2D... points) {
@@ -241,42 +228,77 @@ class BoundingBoxCalculator extends PDFGraphicsStreamEngine {
         }
     }
 
-    private void finishPath() {
+    /**
+     * Finishes the current path.
+     *
+     * @param painted {@code true} if the path is visibly painted.
+     */
+    private void finishPath(boolean painted) {
         if (pathRect != null) {
-            add(pathRect);
+            if (painted) {
+                add(pathRect);
+            }
+            if (clipping) {
+                getGraphicsState().intersectClippingPath(new Area(pathRect));
+            }
             pathRect = null;
         }
+        clipping = false;
     }
 
     private void add(Rectangle2D rect) {
-        if (!isVisible(rect)) {
+        Rectangle2D clipped = new Rectangle2D.Double();
+        Rectangle2D.intersect(rect, getClipBounds(), clipped);
+        if (!isVisible(clipped)) {
             return;
         }
 
         if (boundingBox == null) {
-            boundingBox = new Rectangle2D.Double();
-            boundingBox.setRect(rect);
+            boundingBox = clipped;
         } else {
-            boundingBox.add(rect);
+            boundingBox.add(clipped);
         }
     }
 
-    private void add(Point2D point) {
-        add(point.getX(), point.getY());
+    /**
+     * Returns the bounds of the current clipping path,
+     * which is also restricted by the media box.
+     *
+     * @return the bounds of the current clipping path.
+     */
+    private Rectangle2D getClipBounds() {
+        Area clippingPath = getGraphicsState().getCurrentClippingPath();
+        if (clippingPath != lastClippingPath || clipBounds == null) {
+            clipBounds = new Rectangle2D.Double(
+                    mediaBox.getLowerLeftX(),
+                    mediaBox.getLowerLeftY(),
+                    mediaBox.getWidth(),
+                    mediaBox.getHeight());
+            Rectangle2D.intersect(clipBounds, clippingPath.getBounds2D(), clipBounds);
+            lastClippingPath = clippingPath;
+        }
+        return clipBounds;
     }
 
-    private void add(double x, double y) {
-        if (boundingBox == null) {
-            boundingBox = new Rectangle2D.Double(x, y, 0, 0);
-        } else {
-            boundingBox.add(x,  y);
-        }
+    private boolean isTextVisible() {
+        RenderingMode mode = getGraphicsState().getTextState().getRenderingMode();
+        return (mode.isFill() && isVisiblyFilled())
+                || (mode.isStroke() && isVisiblyStroked());
+    }
+
+    private boolean isVisiblyFilled() {
+        return !isTransparent(getGraphicsState().getNonStrokeAlphaConstant());
+    }
+
+    private boolean isVisiblyStroked() {
+        return !isTransparent(getGraphicsState().getAlphaConstant());
+    }
+
+    private static boolean isTransparent(double alpha) {
+        return alpha <= 0.0;
     }
 
-    private boolean isVisible(Rectangle2D rect) {
-        return (rect.getMinX() <= mediaBox.getUpperRightX()
-                && rect.getMaxX() >= mediaBox.getLowerLeftX()
-                && rect.getMinY() <= mediaBox.getUpperRightY()
-                && rect.getMaxY() >= mediaBox.getLowerLeftY());
+    private static boolean isVisible(Rectangle2D rect) {
+        return rect.getWidth() >= 0 && rect.getHeight() >= 0;
     }
 }
@@ -19,6 +19,8 @@ package org.leadpony.pandora;
 import java.awt.geom.Rectangle2D;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
@@ -38,10 +40,19 @@ class BoundsCropStrategy implements CropStrategy {
     }
 
     BoundsCropStrategy(CroppingContext context, BoundingBoxFinder finder) {
-        this.padding = context.getPadding();
+        this(context.getPadding(), new LastPageFinder(finder));
+    }
+
+    private BoundsCropStrategy(float padding, BoundingBoxFinder finder) {
+        this.padding = padding;
         this.finder = finder;
     }
 
+    @Override
+    public CropStrategy withPadding(int padding) {
+        return new BoundsCropStrategy(padding, finder);
+    }
+
     @Override
     public PDRectangle getCropBox(PDDocument doc, int pageIndex) {
         try {
@@ -70,4 +81,33 @@ class BoundsCropStrategy implements CropStrategy {
 
         return new PDRectangle(minX, minY, maxX - minX, maxY - minY);
     }
+
+    /**
+     * The finder which remembers the bounding box of the last page,
+     * shared by the strategies with different paddings.
+     * The last document is referenced weakly not to keep it after it is closed.
+     */
+    private static class LastPageFinder implements BoundingBoxFinder {
+
+        private static final Reference<PDDocument> NO_DOCUMENT = new WeakReference<>(null);
+
+        private final BoundingBoxFinder finder;
+        private Reference<PDDocument> lastDoc = NO_DOCUMENT;
+        private int lastPageIndex = -1;
+        private Rectangle2D lastBox;
+
+        LastPageFinder(BoundingBoxFinder finder) {
+            this.finder = finder;
+        }
+
+        @Override
+        public Rectangle2D getBoundingBox(PDDocument doc, int pageIndex) throws IOException {
+            if (doc != lastDoc.get() || pageIndex != lastPageIndex) {
+                lastBox = finder.getBoundingBox(doc, pageIndex);
+                lastDoc = new WeakReference<>(doc);
+                lastPageIndex = pageIndex;
+            }
+            return lastBox;
+        }
+    }
 }
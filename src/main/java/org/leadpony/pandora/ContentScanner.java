@@ -0,0 +1,1341 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDSimpleFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotation;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAppearanceStream;
+
+/**
+ * A lightweight scanner of content streams which calculates
+ * the bounding box of the page.
+ *
+ * <p>
+ * This scanner produces the same bounding box as {@link BoundingBoxCalculator}
+ * without the operator and object model of PDFBox, as {@code bench --compare-scanner}
+ * measures. It tokenizes the content stream by itself,
+ * and tracks only the current transformation matrix, the bounds of
+ * the clipping path, the alpha constants, the text state and the extent of
+ * the current path, all in primitive values. The bounds and the advance
+ * widths of glyphs are cached in {@link GlyphBounds} shared between pages.
+ * </p>
+ * <p>
+ * Vertical fonts are not supported. When such a font is found,
+ * {@link UnsupportedContentException} is thrown and the caller is expected
+ * to fall back to {@link BoundingBoxCalculator}.
+ * </p>
+ *
+ * @author leadpony
+ */
+class ContentScanner {
+
+    /**
+     * Thrown when the content cannot be scanned by this scanner.
+     */
+    @SuppressWarnings("serial")
+    static class UnsupportedContentException extends RuntimeException {
+
+        UnsupportedContentException(String message) {
+            super(message);
+        }
+    }
+
+    private static final int MAX_FORM_DEPTH = 32;
+
+    // Operators encoded by their first three bytes.
+    private static final int OP_B = 'B';
+    private static final int OP_B_STAR = 'B' | '*' << 8;
+    private static final int OP_BI = 'B' | 'I' << 8;
+    private static final int OP_BT = 'B' | 'T' << 8;
+    private static final int OP_DO = 'D' | 'o' << 8;
+    private static final int OP_F_UPPER = 'F';
+    private static final int OP_Q_UPPER = 'Q';
+    private static final int OP_S_UPPER = 'S';
+    private static final int OP_TD_UPPER = 'T' | 'D' << 8;
+    private static final int OP_TJ_UPPER = 'T' | 'J' << 8;
+    private static final int OP_TL = 'T' | 'L' << 8;
+    private static final int OP_T_STAR = 'T' | '*' << 8;
+    private static final int OP_TC = 'T' | 'c' << 8;
+    private static final int OP_TD = 'T' | 'd' << 8;
+    private static final int OP_TF = 'T' | 'f' << 8;
+    private static final int OP_TJ = 'T' | 'j' << 8;
+    private static final int OP_TM = 'T' | 'm' << 8;
+    private static final int OP_TR = 'T' | 'r' << 8;
+    private static final int OP_TS = 'T' | 's' << 8;
+    private static final int OP_TW = 'T' | 'w' << 8;
+    private static final int OP_TZ = 'T' | 'z' << 8;
+    private static final int OP_W_UPPER = 'W';
+    private static final int OP_W_STAR = 'W' | '*' << 8;
+    private static final int OP_QUOTE = '\'';
+    private static final int OP_DOUBLE_QUOTE = '"';
+    private static final int OP_B_LOWER = 'b';
+    private static final int OP_B_LOWER_STAR = 'b' | '*' << 8;
+    private static final int OP_C = 'c';
+    private static final int OP_CM = 'c' | 'm' << 8;
+    private static final int OP_F = 'f';
+    private static final int OP_F_STAR = 'f' | '*' << 8;
+    private static final int OP_GS = 'g' | 's' << 8;
+    private static final int OP_H = 'h';
+    private static final int OP_L = 'l';
+    private static final int OP_M = 'm';
+    private static final int OP_N = 'n';
+    private static final int OP_Q = 'q';
+    private static final int OP_RE = 'r' | 'e' << 8;
+    private static final int OP_S = 's';
+    private static final int OP_SH = 's' | 'h' << 8;
+    private static final int OP_V = 'v';
+    private static final int OP_Y = 'y';
+
+    // Types of operands
+    private static final int NUMBER = 0;
+    private static final int NAME = 1;
+    private static final int STRING = 2;
+    private static final int ARRAY = 3;
+    private static final int OTHER = 4;
+
+    private final PDPage page;
+    private final GlyphBounds glyphBounds;
+    private final boolean textOnly;
+
+    private final double[] initialClip;
+    private GraphicsState state;
+    private List<GraphicsState> stateStack = new ArrayList<>();
+    private final Set<COSStream> formsInProgress = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private PDResources resources;
+
+    // The extent of the current path in device space.
+    private double pathMinX;
+    private double pathMinY;
+    private double pathMaxX;
+    private double pathMaxY;
+    private boolean hasPath;
+    private boolean clipping;
+
+    // The text matrix and the text line matrix.
+    private final double[] textMatrix = new double[6];
+    private final double[] textLineMatrix = new double[6];
+
+    private double boxMinX = Double.POSITIVE_INFINITY;
+    private double boxMinY = Double.POSITIVE_INFINITY;
+    private double boxMaxX = Double.NEGATIVE_INFINITY;
+    private double boxMaxY = Double.NEGATIVE_INFINITY;
+
+    private boolean imagesDrawn;
+    private boolean shadingsFilled;
+    private int operatorCount;
+    private int glyphCount;
+
+    // Operand stack
+    private int operandCount;
+    private int[] operandTypes = new int[16];
+    private double[] numbers = new double[16];
+    private Object[] objects = new Object[16];
+
+    /**
+     * Constructs this scanner.
+     *
+     * @param page the page to scan.
+     * @param glyphBounds the cache of glyph bounds.
+     * @param textOnly {@code true} if only texts are included in the bounding box.
+     */
+    ContentScanner(PDPage page, GlyphBounds glyphBounds, boolean textOnly) {
+        this.page = page;
+        this.glyphBounds = glyphBounds;
+        this.textOnly = textOnly;
+        PDRectangle mediaBox = page.getMediaBox();
+        PDRectangle cropBox = page.getCropBox();
+        this.initialClip = new double[] {
+                Math.max(mediaBox.getLowerLeftX(), cropBox.getLowerLeftX()),
+                Math.max(mediaBox.getLowerLeftY(), cropBox.getLowerLeftY()),
+                Math.min(mediaBox.getUpperRightX(), cropBox.getUpperRightX()),
+                Math.min(mediaBox.getUpperRightY(), cropBox.getUpperRightY())
+        };
+    }
+
+    /**
+     * Returns the bounding box calculated.
+     *
+     * @return the bounding box, or {@code null} if nothing is visible.
+     */
+    Rectangle2D getBoundingBox() {
+        if (boxMinX > boxMaxX) {
+            return null;
+        }
+        return new Rectangle2D.Double(boxMinX, boxMinY, boxMaxX - boxMinX, boxMaxY - boxMinY);
+    }
+
+    /**
+     * Checks if any images were drawn in the page.
+     *
+     * @return {@code true} if any images were drawn.
+     */
+    boolean hasImages() {
+        return imagesDrawn;
+    }
+
+    /**
+     * Checks if any areas were filled with shadings in the page.
+     *
+     * @return {@code true} if any areas were filled with shadings.
+     */
+    boolean hasShadings() {
+        return shadingsFilled;
+    }
+
+    /**
+     * Returns the number of the operators processed.
+     *
+     * @return the number of the operators.
+     */
+    int getOperatorCount() {
+        return operatorCount;
+    }
+
+    /**
+     * Returns the number of the glyphs shown.
+     *
+     * @return the number of the glyphs.
+     */
+    int getGlyphCount() {
+        return glyphCount;
+    }
+
+    /**
+     * Scans the content stream of the page.
+     *
+     * @throws IOException if an I/O error occurred while reading the page.
+     * @throws UnsupportedContentException if the page contains unsupported content.
+     */
+    void scanPage() throws IOException {
+        if (!page.hasContents()) {
+            return;
+        }
+        byte[] content;
+        try (InputStream in = page.getContents()) {
+            content = in.readAllBytes();
+        }
+        state = new GraphicsState(initialClip);
+        resources = page.getResources();
+        scan(content);
+    }
+
+    /**
+     * Scans the appearance streams of the visible annotations in the page.
+     *
+     * @throws IOException if an I/O error occurred while reading the page.
+     * @throws UnsupportedContentException if the page contains unsupported content.
+     */
+    void scanAnnotations() throws IOException {
+        for (PDAnnotation annotation : page.getAnnotations()) {
+            if (!annotation.isHidden() && !annotation.isNoView()) {
+                scanAnnotation(annotation);
+            }
+        }
+    }
+
+    private void scanAnnotation(PDAnnotation annotation) throws IOException {
+        PDAppearanceStream appearance = annotation.getNormalAppearanceStream();
+        if (appearance == null) {
+            return;
+        }
+        PDRectangle rect = annotation.getRectangle();
+        PDRectangle bbox = appearance.getBBox();
+        if (rect == null || rect.getWidth() <= 0 || rect.getHeight() <= 0
+                || bbox == null || bbox.getWidth() <= 0 || bbox.getHeight() <= 0) {
+            return;
+        }
+        // Maps the transformed bounding box of the appearance to the annotation rectangle.
+        AffineTransform matrix = appearance.getMatrix().createAffineTransform();
+        Rectangle2D transformedBox = matrix.createTransformedShape(toRectangle(bbox)).getBounds2D();
+        AffineTransform transform = AffineTransform.getTranslateInstance(
+                rect.getLowerLeftX(), rect.getLowerLeftY());
+        transform.scale(rect.getWidth() / transformedBox.getWidth(),
+                rect.getHeight() / transformedBox.getHeight());
+        transform.translate(-transformedBox.getX(), -transformedBox.getY());
+        transform.concatenate(matrix);
+
+        state = new GraphicsState(initialClip);
+        transform.getMatrix(state.ctm);
+        clipToRect(bbox);
+        resources = appearance.getResources();
+        if (resources == null) {
+            resources = new PDResources();
+        }
+        byte[] content;
+        try (InputStream in = appearance.getContents()) {
+            content = in.readAllBytes();
+        }
+        scan(content);
+    }
+
+    private void scan(byte[] content) throws IOException {
+        Tokenizer tokenizer = new Tokenizer(content);
+        operandCount = 0;
+        int token;
+        while ((token = tokenizer.next()) != Tokenizer.EOF) {
+            switch (token) {
+            case Tokenizer.NUMBER:
+                pushNumber(tokenizer.number);
+                break;
+            case Tokenizer.NAME:
+            case Tokenizer.STRING:
+            case Tokenizer.ARRAY:
+                pushObject(token == Tokenizer.NAME ? NAME : (token == Tokenizer.STRING ? STRING : ARRAY),
+                        tokenizer.object);
+                break;
+            case Tokenizer.OTHER:
+                pushObject(OTHER, null);
+                break;
+            case Tokenizer.OPERATOR:
+                operatorCount++;
+                if (tokenizer.operator == OP_BI) {
+                    tokenizer.skipInlineImage();
+                    drawImage();
+                } else {
+                    processOperator(tokenizer.operator);
+                }
+                operandCount = 0;
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    private void processOperator(int operator) throws IOException {
+        switch (operator) {
+        case OP_Q:
+            stateStack.add(state.copy());
+            break;
+        case OP_Q_UPPER:
+            if (!stateStack.isEmpty()) {
+                state = stateStack.remove(stateStack.size() - 1);
+            }
+            break;
+        case OP_CM:
+            if (hasNumbers(6)) {
+                concatenate(state.ctm, number(0), number(1), number(2), number(3), number(4), number(5));
+            }
+            break;
+        case OP_M:
+        case OP_L:
+            if (hasNumbers(2)) {
+                addToPath(number(0), number(1));
+            }
+            break;
+        case OP_C:
+            if (hasNumbers(6)) {
+                addToPath(number(0), number(1));
+                addToPath(number(2), number(3));
+                addToPath(number(4), number(5));
+            }
+            break;
+        case OP_V:
+        case OP_Y:
+            if (hasNumbers(4)) {
+                addToPath(number(0), number(1));
+                addToPath(number(2), number(3));
+            }
+            break;
+        case OP_RE:
+            if (hasNumbers(4)) {
+                double x = number(0);
+                double y = number(1);
+                double w = number(2);
+                double h = number(3);
+                addToPath(x, y);
+                addToPath(x + w, y);
+                addToPath(x + w, y + h);
+                addToPath(x, y + h);
+            }
+            break;
+        case OP_H:
+            break;
+        case OP_S_UPPER:
+        case OP_S:
+            finishPath(isVisiblyStroked());
+            break;
+        case OP_F:
+        case OP_F_UPPER:
+        case OP_F_STAR:
+            finishPath(isVisiblyFilled());
+            break;
+        case OP_B:
+        case OP_B_STAR:
+        case OP_B_LOWER:
+        case OP_B_LOWER_STAR:
+            finishPath(isVisiblyFilled() || isVisiblyStroked());
+            break;
+        case OP_N:
+            finishPath(false);
+            break;
+        case OP_W_UPPER:
+        case OP_W_STAR:
+            clipping = true;
+            break;
+        case OP_GS:
+            if (hasOperand(0, NAME)) {
+                setGraphicsStateParameters((String) objects[0]);
+            }
+            break;
+        case OP_DO:
+            if (hasOperand(0, NAME)) {
+                drawXObject((String) objects[0]);
+            }
+            break;
+        case OP_SH:
+            shadingsFilled = true;
+            break;
+        default:
+            processTextOperator(operator);
+            break;
+        }
+    }
+
+    private void processTextOperator(int operator) throws IOException {
+        TextState text = state.text;
+        switch (operator) {
+        case OP_BT:
+            setIdentity(textMatrix);
+            setIdentity(textLineMatrix);
+            break;
+        case OP_TC:
+            if (hasNumbers(1)) {
+                text.charSpacing = number(0);
+            }
+            break;
+        case OP_TW:
+            if (hasNumbers(1)) {
+                text.wordSpacing = number(0);
+            }
+            break;
+        case OP_TZ:
+            if (hasNumbers(1)) {
+                text.horizontalScaling = number(0) / 100.0;
+            }
+            break;
+        case OP_TL:
+            if (hasNumbers(1)) {
+                text.leading = number(0);
+            }
+            break;
+        case OP_TR:
+            if (hasNumbers(1)) {
+                text.renderingMode = (int) number(0);
+            }
+            break;
+        case OP_TS:
+            if (hasNumbers(1)) {
+                text.rise = number(0);
+            }
+            break;
+        case OP_TF:
+            if (operandCount >= 2 && operandTypes[0] == NAME && operandTypes[1] == NUMBER) {
+                text.font = resources.getFont(COSName.getPDFName((String) objects[0]));
+                text.fontSize = number(1);
+            }
+            break;
+        case OP_TD:
+            if (hasNumbers(2)) {
+                moveText(number(0), number(1));
+            }
+            break;
+        case OP_TD_UPPER:
+            if (hasNumbers(2)) {
+                text.leading = -number(1);
+                moveText(number(0), number(1));
+            }
+            break;
+        case OP_TM:
+            if (hasNumbers(6)) {
+                set(textMatrix, number(0), number(1), number(2), number(3), number(4), number(5));
+                System.arraycopy(textMatrix, 0, textLineMatrix, 0, 6);
+            }
+            break;
+        case OP_T_STAR:
+            moveText(0, -text.leading);
+            break;
+        case OP_TJ:
+            if (hasOperand(0, STRING)) {
+                showText((byte[]) objects[0]);
+            }
+            break;
+        case OP_QUOTE:
+            moveText(0, -text.leading);
+            if (hasOperand(0, STRING)) {
+                showText((byte[]) objects[0]);
+            }
+            break;
+        case OP_DOUBLE_QUOTE:
+            if (operandCount >= 3 && operandTypes[0] == NUMBER && operandTypes[1] == NUMBER
+                    && operandTypes[2] == STRING) {
+                text.wordSpacing = number(0);
+                text.charSpacing = number(1);
+                moveText(0, -text.leading);
+                showText((byte[]) objects[2]);
+            }
+            break;
+        case OP_TJ_UPPER:
+            if (hasOperand(0, ARRAY)) {
+                showTextArray((List<?>) objects[0]);
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    /* Paths */
+
+    private void addToPath(double x, double y) {
+        if (textOnly) {
+            // Paths affect neither the bounding box nor the clipping path.
+            return;
+        }
+        double[] m = state.ctm;
+        double tx = m[0] * x + m[2] * y + m[4];
+        double ty = m[1] * x + m[3] * y + m[5];
+        if (!hasPath) {
+            pathMinX = tx;
+            pathMinY = ty;
+            pathMaxX = tx;
+            pathMaxY = ty;
+            hasPath = true;
+        } else {
+            pathMinX = Math.min(pathMinX, tx);
+            pathMinY = Math.min(pathMinY, ty);
+            pathMaxX = Math.max(pathMaxX, tx);
+            pathMaxY = Math.max(pathMaxY, ty);
+        }
+    }
+
+    private void finishPath(boolean painted) {
+        if (hasPath) {
+            if (painted) {
+                add(pathMinX, pathMinY, pathMaxX, pathMaxY);
+            }
+            if (clipping) {
+                state.clip(pathMinX, pathMinY, pathMaxX, pathMaxY);
+            }
+            hasPath = false;
+        }
+        clipping = false;
+    }
+
+    /* XObjects */
+
+    private void setGraphicsStateParameters(String name) {
+        COSDictionary extGStates = resources.getCOSObject().getCOSDictionary(COSName.EXT_G_STATE);
+        if (extGStates == null) {
+            return;
+        }
+        COSBase value = extGStates.getDictionaryObject(name);
+        if (!(value instanceof COSDictionary)) {
+            return;
+        }
+        COSDictionary extGState = (COSDictionary) value;
+        COSBase strokeAlpha = extGState.getDictionaryObject(COSName.CA);
+        if (strokeAlpha instanceof COSNumber) {
+            state.strokeAlpha = ((COSNumber) strokeAlpha).floatValue();
+        }
+        COSBase fillAlpha = extGState.getDictionaryObject(COSName.CA_NS);
+        if (fillAlpha instanceof COSNumber) {
+            state.fillAlpha = ((COSNumber) fillAlpha).floatValue();
+        }
+    }
+
+    private void drawXObject(String name) throws IOException {
+        COSDictionary xobjects = resources.getCOSObject().getCOSDictionary(COSName.XOBJECT);
+        if (xobjects == null) {
+            return;
+        }
+        COSBase value = xobjects.getDictionaryObject(name);
+        if (!(value instanceof COSStream)) {
+            return;
+        }
+        COSStream stream = (COSStream) value;
+        COSName subtype = stream.getCOSName(COSName.SUBTYPE);
+        if (COSName.IMAGE.equals(subtype)) {
+            drawImage();
+        } else if (COSName.FORM.equals(subtype)) {
+            drawForm(stream);
+        }
+    }
+
+    private void drawImage() {
+        if (textOnly) {
+            return;
+        }
+        imagesDrawn = true;
+        if (!isVisiblyFilled()) {
+            return;
+        }
+        double[] m = state.ctm;
+        double minX = m[4] + Math.min(0, m[0]) + Math.min(0, m[2]);
+        double maxX = m[4] + Math.max(0, m[0]) + Math.max(0, m[2]);
+        double minY = m[5] + Math.min(0, m[1]) + Math.min(0, m[3]);
+        double maxY = m[5] + Math.max(0, m[1]) + Math.max(0, m[3]);
+        add(minX, minY, maxX, maxY);
+    }
+
+    private void drawForm(COSStream stream) throws IOException {
+        if (formsInProgress.size() >= MAX_FORM_DEPTH || !formsInProgress.add(stream)) {
+            return;
+        }
+        PDFormXObject form = new PDFormXObject(stream);
+        byte[] content;
+        try (InputStream in = stream.createInputStream()) {
+            content = in.readAllBytes();
+        }
+
+        PDResources savedResources = resources;
+        GraphicsState savedState = state;
+        List<GraphicsState> savedStack = stateStack;
+        double[] savedTextMatrix = textMatrix.clone();
+        double[] savedTextLineMatrix = textLineMatrix.clone();
+
+        // The form cannot restore the states saved outside of it.
+        stateStack = new ArrayList<>();
+        state = state.copy();
+        AffineTransform matrix = form.getMatrix().createAffineTransform();
+        concatenate(state.ctm,
+                matrix.getScaleX(), matrix.getShearY(), matrix.getShearX(),
+                matrix.getScaleY(), matrix.getTranslateX(), matrix.getTranslateY());
+        PDRectangle bbox = form.getBBox();
+        if (bbox != null) {
+            clipToRect(bbox);
+        }
+        PDResources formResources = form.getResources();
+        if (formResources != null) {
+            resources = formResources;
+        }
+        try {
+            scan(content);
+        } finally {
+            stateStack = savedStack;
+            state = savedState;
+            resources = savedResources;
+            System.arraycopy(savedTextMatrix, 0, textMatrix, 0, 6);
+            System.arraycopy(savedTextLineMatrix, 0, textLineMatrix, 0, 6);
+            formsInProgress.remove(stream);
+        }
+    }
+
+    private void clipToRect(PDRectangle rect) {
+        double[] m = state.ctm;
+        double[] xs = {rect.getLowerLeftX(), rect.getUpperRightX()};
+        double[] ys = {rect.getLowerLeftY(), rect.getUpperRightY()};
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (double x : xs) {
+            for (double y : ys) {
+                double tx = m[0] * x + m[2] * y + m[4];
+                double ty = m[1] * x + m[3] * y + m[5];
+                minX = Math.min(minX, tx);
+                minY = Math.min(minY, ty);
+                maxX = Math.max(maxX, tx);
+                maxY = Math.max(maxY, ty);
+            }
+        }
+        state.clip(minX, minY, maxX, maxY);
+    }
+
+    /* Texts */
+
+    private void moveText(double tx, double ty) {
+        double[] m = textLineMatrix;
+        m[4] += tx * m[0] + ty * m[2];
+        m[5] += tx * m[1] + ty * m[3];
+        System.arraycopy(textLineMatrix, 0, textMatrix, 0, 6);
+    }
+
+    private void showTextArray(List<?> array) throws IOException {
+        TextState text = state.text;
+        for (Object item : array) {
+            if (item instanceof Double) {
+                double tx = -((Double) item) / 1000.0 * text.fontSize * text.horizontalScaling;
+                translateTextMatrix(tx);
+            } else if (item instanceof byte[]) {
+                showText((byte[]) item);
+            }
+        }
+    }
+
+    private void showText(byte[] string) throws IOException {
+        TextState text = state.text;
+        PDFont font = text.font;
+        if (font == null) {
+            font = PDType1Font.HELVETICA;
+            text.font = font;
+        }
+        if (font.isVertical()) {
+            throw new UnsupportedContentException("Vertical font: " + font.getName());
+        }
+        GlyphBounds.FontEntry entry = glyphBounds.getFont(font);
+        boolean visible = isTextVisible();
+
+        if (font instanceof PDSimpleFont) {
+            for (byte b : string) {
+                showGlyph(entry, b & 0xff, 1, visible);
+            }
+        } else {
+            InputStream in = new ByteArrayInputStream(string);
+            while (in.available() > 0) {
+                int before = in.available();
+                int code = font.readCode(in);
+                showGlyph(entry, code, before - in.available(), visible);
+            }
+        }
+    }
+
+    private void showGlyph(GlyphBounds.FontEntry entry, int code, int codeLength, boolean visible)
+            throws IOException {
+        TextState text = state.text;
+        GlyphBounds.Glyph glyph = entry.getGlyph(code);
+        glyphCount++;
+        if (visible) {
+            Rectangle2D bounds = glyph.getBounds();
+            if (bounds != null) {
+                addGlyph(entry.getFontTransform(), bounds);
+            }
+        }
+        double wordSpacing = (codeLength == 1 && code == 32) ? text.wordSpacing : 0;
+        double tx = (glyph.getAdvance() * text.fontSize + text.charSpacing + wordSpacing)
+                * text.horizontalScaling;
+        translateTextMatrix(tx);
+    }
+
+    private void addGlyph(AffineTransform fontTransform, Rectangle2D bounds) {
+        TextState text = state.text;
+        // The text rendering matrix: parameters x text matrix x CTM
+        double[] trm = {
+                text.fontSize * text.horizontalScaling, 0, 0, text.fontSize, 0, text.rise
+        };
+        multiply(trm, textMatrix);
+        multiply(trm, state.ctm);
+
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        double[] corners = {
+                bounds.getMinX(), bounds.getMinY(),
+                bounds.getMaxX(), bounds.getMinY(),
+                bounds.getMaxX(), bounds.getMaxY(),
+                bounds.getMinX(), bounds.getMaxY()
+        };
+        fontTransform.transform(corners, 0, corners, 0, 4);
+        for (int i = 0; i < corners.length; i += 2) {
+            double x = corners[i];
+            double y = corners[i + 1];
+            double tx = trm[0] * x + trm[2] * y + trm[4];
+            double ty = trm[1] * x + trm[3] * y + trm[5];
+            minX = Math.min(minX, tx);
+            minY = Math.min(minY, ty);
+            maxX = Math.max(maxX, tx);
+            maxY = Math.max(maxY, ty);
+        }
+        add(minX, minY, maxX, maxY);
+    }
+
+    private void translateTextMatrix(double tx) {
+        textMatrix[4] += tx * textMatrix[0];
+        textMatrix[5] += tx * textMatrix[1];
+    }
+
+    private boolean isTextVisible() {
+        int mode = state.text.renderingMode;
+        boolean fill = mode == 0 || mode == 2 || mode == 4 || mode == 6;
+        boolean stroke = mode == 1 || mode == 2 || mode == 5 || mode == 6;
+        return (fill && isVisiblyFilled()) || (stroke && isVisiblyStroked());
+    }
+
+    /* Bounding box */
+
+    private void add(double minX, double minY, double maxX, double maxY) {
+        double[] clip = state.clip;
+        double x0 = Math.max(minX, clip[0]);
+        double y0 = Math.max(minY, clip[1]);
+        double x1 = Math.min(maxX, clip[2]);
+        double y1 = Math.min(maxY, clip[3]);
+        if (x1 < x0 || y1 < y0) {
+            return;
+        }
+        boxMinX = Math.min(boxMinX, x0);
+        boxMinY = Math.min(boxMinY, y0);
+        boxMaxX = Math.max(boxMaxX, x1);
+        boxMaxY = Math.max(boxMaxY, y1);
+    }
+
+    private boolean isVisiblyFilled() {
+        return state.fillAlpha > 0;
+    }
+
+    private boolean isVisiblyStroked() {
+        return state.strokeAlpha > 0;
+    }
+
+    /* Operands */
+
+    private void pushNumber(double value) {
+        ensureOperandCapacity();
+        operandTypes[operandCount] = NUMBER;
+        numbers[operandCount] = value;
+        objects[operandCount] = null;
+        operandCount++;
+    }
+
+    private void pushObject(int type, Object value) {
+        ensureOperandCapacity();
+        operandTypes[operandCount] = type;
+        objects[operandCount] = value;
+        operandCount++;
+    }
+
+    private void ensureOperandCapacity() {
+        if (operandCount == operandTypes.length) {
+            int capacity = operandCount * 2;
+            operandTypes = Arrays.copyOf(operandTypes, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+            objects = Arrays.copyOf(objects, capacity);
+        }
+    }
+
+    /*
+     * Checks if the last n operands are numbers,
+     * and drops the extra operands preceding them.
+     */
+    private boolean hasNumbers(int n) {
+        if (operandCount < n) {
+            return false;
+        }
+        int first = operandCount - n;
+        for (int i = first; i < operandCount; i++) {
+            if (operandTypes[i] != NUMBER) {
+                return false;
+            }
+        }
+        if (first > 0) {
+            System.arraycopy(operandTypes, first, operandTypes, 0, n);
+            System.arraycopy(numbers, first, numbers, 0, n);
+            operandCount = n;
+        }
+        return true;
+    }
+
+    private boolean hasOperand(int index, int type) {
+        return operandCount > index && operandTypes[index] == type;
+    }
+
+    private double number(int index) {
+        return numbers[index];
+    }
+
+    /* Matrices */
+
+    private static void setIdentity(double[] m) {
+        set(m, 1, 0, 0, 1, 0, 0);
+    }
+
+    private static void set(double[] m, double a, double b, double c, double d, double e, double f) {
+        m[0] = a;
+        m[1] = b;
+        m[2] = c;
+        m[3] = d;
+        m[4] = e;
+        m[5] = f;
+    }
+
+    /*
+     * Replaces m with [a b c d e f] x m.
+     */
+    private static void concatenate(double[] m, double a, double b, double c, double d, double e, double f) {
+        double m0 = a * m[0] + b * m[2];
+        double m1 = a * m[1] + b * m[3];
+        double m2 = c * m[0] + d * m[2];
+        double m3 = c * m[1] + d * m[3];
+        double m4 = e * m[0] + f * m[2] + m[4];
+        double m5 = e * m[1] + f * m[3] + m[5];
+        set(m, m0, m1, m2, m3, m4, m5);
+    }
+
+    /*
+     * Replaces m with m x n.
+     */
+    private static void multiply(double[] m, double[] n) {
+        double m0 = m[0] * n[0] + m[1] * n[2];
+        double m1 = m[0] * n[1] + m[1] * n[3];
+        double m2 = m[2] * n[0] + m[3] * n[2];
+        double m3 = m[2] * n[1] + m[3] * n[3];
+        double m4 = m[4] * n[0] + m[5] * n[2] + n[4];
+        double m5 = m[4] * n[1] + m[5] * n[3] + n[5];
+        set(m, m0, m1, m2, m3, m4, m5);
+    }
+
+    private static Rectangle2D toRectangle(PDRectangle rect) {
+        return new Rectangle2D.Double(
+                rect.getLowerLeftX(), rect.getLowerLeftY(), rect.getWidth(), rect.getHeight());
+    }
+
+    /**
+     * The part of the graphics state required for the bounding box.
+     */
+    private static class GraphicsState {
+
+        final double[] ctm;
+        // The bounds of the clipping path in device space.
+        final double[] clip;
+        float strokeAlpha = 1.0f;
+        float fillAlpha = 1.0f;
+        TextState text;
+
+        GraphicsState(double[] clip) {
+            this.ctm = new double[] {1, 0, 0, 1, 0, 0};
+            this.clip = clip.clone();
+            this.text = new TextState();
+        }
+
+        private GraphicsState(GraphicsState other) {
+            this.ctm = other.ctm.clone();
+            this.clip = other.clip.clone();
+            this.strokeAlpha = other.strokeAlpha;
+            this.fillAlpha = other.fillAlpha;
+            this.text = other.text.copy();
+        }
+
+        GraphicsState copy() {
+            return new GraphicsState(this);
+        }
+
+        void clip(double minX, double minY, double maxX, double maxY) {
+            clip[0] = Math.max(clip[0], minX);
+            clip[1] = Math.max(clip[1], minY);
+            clip[2] = Math.min(clip[2], maxX);
+            clip[3] = Math.min(clip[3], maxY);
+        }
+    }
+
+    /**
+     * The text state parameters.
+     */
+    private static class TextState implements Cloneable {
+
+        double charSpacing;
+        double wordSpacing;
+        double horizontalScaling = 1.0;
+        double leading;
+        PDFont font;
+        double fontSize;
+        int renderingMode;
+        double rise;
+
+        TextState copy() {
+            try {
+                return (TextState) clone();
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * A tokenizer of content streams.
+     */
+    private static class Tokenizer {
+
+        static final int EOF = -1;
+        static final int NUMBER = 0;
+        static final int NAME = 1;
+        static final int STRING = 2;
+        static final int ARRAY = 3;
+        static final int OTHER = 4;
+        static final int OPERATOR = 5;
+
+        private final byte[] buf;
+        private int pos;
+
+        double number;
+        Object object;
+        int operator;
+
+        Tokenizer(byte[] buf) {
+            this.buf = buf;
+        }
+
+        int next() {
+            skipWhitespace();
+            if (pos >= buf.length) {
+                return EOF;
+            }
+            int c = buf[pos] & 0xff;
+            switch (c) {
+            case '/':
+                pos++;
+                object = readName();
+                return NAME;
+            case '(':
+                pos++;
+                object = readLiteralString();
+                return STRING;
+            case '<':
+                if (pos + 1 < buf.length && buf[pos + 1] == '<') {
+                    skipDictionary();
+                    return OTHER;
+                }
+                pos++;
+                object = readHexString();
+                return STRING;
+            case '[':
+                pos++;
+                object = readArray();
+                return ARRAY;
+            case ']':
+            case '>':
+            case ')':
+            case '{':
+            case '}':
+                pos++;
+                return OTHER;
+            default:
+                if (isNumberStart(c)) {
+                    number = readNumber();
+                    return NUMBER;
+                }
+                return readKeyword();
+            }
+        }
+
+        /*
+         * Skips the inline image dictionary and its data,
+         * the "BI" operator has been just read.
+         */
+        void skipInlineImage() {
+            int token;
+            while ((token = next()) != EOF) {
+                if (token == OPERATOR && operator == ('I' | 'D' << 8)) {
+                    break;
+                }
+            }
+            // A single white-space follows "ID".
+            pos++;
+            while (pos + 1 < buf.length) {
+                if (buf[pos] == 'E' && buf[pos + 1] == 'I'
+                        && isWhitespace(buf[pos - 1] & 0xff)
+                        && (pos + 2 >= buf.length || isWhitespace(buf[pos + 2] & 0xff))) {
+                    pos += 2;
+                    return;
+                }
+                pos++;
+            }
+            pos = buf.length;
+        }
+
+        private int readKeyword() {
+            int start = pos;
+            while (pos < buf.length && isRegular(buf[pos] & 0xff)) {
+                pos++;
+            }
+            int length = pos - start;
+            if (length == 0) {
+                // Unexpected delimiter
+                pos++;
+                return OTHER;
+            }
+            if (length == 4 && matches(start, "true") || length == 4 && matches(start, "null")
+                    || length == 5 && matches(start, "false")) {
+                return OTHER;
+            }
+            int code = 0;
+            if (length <= 3) {
+                for (int i = length - 1; i >= 0; i--) {
+                    code = (code << 8) | (buf[start + i] & 0xff);
+                }
+            }
+            operator = code;
+            return OPERATOR;
+        }
+
+        private boolean matches(int start, String keyword) {
+            for (int i = 0; i < keyword.length(); i++) {
+                if (buf[start + i] != keyword.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private double readNumber() {
+            boolean negative = false;
+            int c = buf[pos] & 0xff;
+            // Tolerates repeated signs.
+            while (c == '+' || c == '-') {
+                negative = (c == '-') != negative;
+                if (++pos >= buf.length) {
+                    return 0;
+                }
+                c = buf[pos] & 0xff;
+            }
+            double value = 0;
+            while (pos < buf.length && (c = buf[pos] & 0xff) >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                pos++;
+            }
+            if (pos < buf.length && buf[pos] == '.') {
+                pos++;
+                double scale = 0.1;
+                while (pos < buf.length && (c = buf[pos] & 0xff) >= '0' && c <= '9') {
+                    value += (c - '0') * scale;
+                    scale *= 0.1;
+                    pos++;
+                }
+            }
+            // Skips the garbage following the number.
+            while (pos < buf.length && isRegular(buf[pos] & 0xff)) {
+                pos++;
+            }
+            return negative ? -value : value;
+        }
+
+        private String readName() {
+            int start = pos;
+            boolean escaped = false;
+            while (pos < buf.length && isRegular(buf[pos] & 0xff)) {
+                if (buf[pos] == '#') {
+                    escaped = true;
+                }
+                pos++;
+            }
+            if (!escaped) {
+                return new String(buf, start, pos - start, StandardCharsets.ISO_8859_1);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (int i = start; i < pos; i++) {
+                int c = buf[i] & 0xff;
+                if (c == '#' && i + 2 < pos) {
+                    int hi = Character.digit(buf[i + 1], 16);
+                    int lo = Character.digit(buf[i + 2], 16);
+                    if (hi >= 0 && lo >= 0) {
+                        out.write(hi << 4 | lo);
+                        i += 2;
+                        continue;
+                    }
+                }
+                out.write(c);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        private byte[] readLiteralString() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int depth = 1;
+            while (pos < buf.length) {
+                int c = buf[pos++] & 0xff;
+                if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    if (--depth == 0) {
+                        break;
+                    }
+                } else if (c == '\\' && pos < buf.length) {
+                    c = buf[pos++] & 0xff;
+                    switch (c) {
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'b':
+                        c = '\b';
+                        break;
+                    case 'f':
+                        c = '\f';
+                        break;
+                    case '\r':
+                        if (pos < buf.length && buf[pos] == '\n') {
+                            pos++;
+                        }
+                        continue;
+                    case '\n':
+                        continue;
+                    default:
+                        if (c >= '0' && c <= '7') {
+                            int value = c - '0';
+                            for (int i = 0; i < 2 && pos < buf.length
+                                    && buf[pos] >= '0' && buf[pos] <= '7'; i++) {
+                                value = value * 8 + (buf[pos++] - '0');
+                            }
+                            c = value & 0xff;
+                        }
+                        break;
+                    }
+                }
+                out.write(c);
+            }
+            return out.toByteArray();
+        }
+
+        private byte[] readHexString() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int high = -1;
+            while (pos < buf.length) {
+                int c = buf[pos++] & 0xff;
+                if (c == '>') {
+                    break;
+                }
+                int digit = Character.digit(c, 16);
+                if (digit < 0) {
+                    continue;
+                }
+                if (high < 0) {
+                    high = digit;
+                } else {
+                    out.write(high << 4 | digit);
+                    high = -1;
+                }
+            }
+            if (high >= 0) {
+                out.write(high << 4);
+            }
+            return out.toByteArray();
+        }
+
+        /*
+         * Reads an array. Numbers are stored as Double, strings as byte[].
+         */
+        private List<Object> readArray() {
+            List<Object> array = new ArrayList<>();
+            while (true) {
+                skipWhitespace();
+                if (pos >= buf.length) {
+                    break;
+                }
+                if (buf[pos] == ']') {
+                    pos++;
+                    break;
+                }
+                int token = next();
+                if (token == NUMBER) {
+                    array.add(number);
+                } else if (token == STRING || token == NAME || token == ARRAY) {
+                    array.add(object);
+                } else if (token == OPERATOR || token == EOF) {
+                    // Malformed array
+                    break;
+                }
+            }
+            return array;
+        }
+
+        private void skipDictionary() {
+            pos += 2;
+            int depth = 1;
+            while (pos < buf.length && depth > 0) {
+                int c = buf[pos] & 0xff;
+                if (c == '<' && pos + 1 < buf.length && buf[pos + 1] == '<') {
+                    depth++;
+                    pos += 2;
+                } else if (c == '>' && pos + 1 < buf.length && buf[pos + 1] == '>') {
+                    depth--;
+                    pos += 2;
+                } else if (c == '(') {
+                    pos++;
+                    readLiteralString();
+                } else if (c == '<') {
+                    pos++;
+                    readHexString();
+                } else {
+                    pos++;
+                }
+            }
+        }
+
+        private void skipWhitespace() {
+            while (pos < buf.length) {
+                int c = buf[pos] & 0xff;
+                if (c == '%') {
+                    while (pos < buf.length && buf[pos] != '\n' && buf[pos] != '\r') {
+                        pos++;
+                    }
+                } else if (isWhitespace(c)) {
+                    pos++;
+                } else {
+                    break;
+                }
+            }
+        }
+
+        private static boolean isNumberStart(int c) {
+            return (c >= '0' && c <= '9') || c == '+' || c == '-' || c == '.';
+        }
+
+        private static boolean isWhitespace(int c) {
+            return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f' || c == 0;
+        }
+
+        private static boolean isRegular(int c) {
+            if (isWhitespace(c)) {
+                return false;
+            }
+            switch (c) {
+            case '(':
+            case ')':
+            case '<':
+            case '>':
+            case '[':
+            case ']':
+            case '{':
+            case '}':
+            case '/':
+            case '%':
+                return false;
+            default:
+                return true;
+            }
+        }
+    }
+}
@@ -16,10 +16,19 @@
 
 package org.leadpony.pandora;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
 
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
@@ -31,129 +40,233 @@ import picocli.CommandLine.Option;
  * @author leadpony
  */
 @Command(name = "crop", description = "Assigns crop box to the PDF")
-class CropCommand extends AbstractCommand implements CroppingContext {
+class CropCommand extends AbstractCropCommand {
 
-    @Option(names = { "-m", "--margin" },
-            paramLabel = "<top,right,bottom,left>, \"bbox\", \"fast-bbox\", or \"text-bbox\"",
+    // Differences of crop boxes below this value in 1/72 inch are ignored.
+    private static final float BOX_TOLERANCE = 0.01f;
+
+    @Option(names = "--physical",
+            description = {
+                    "Remove contents outside of crop boxes",
+                    "and replace media boxes with crop boxes."
+            })
+    private boolean physical;
+
+    @Option(names = "--variant",
+            paramLabel = "<name>:<setting>(,<setting>)*",
             description = {
-                "Each margin can be specified in 1/72 inch or %% unit.",
-                "Special value \"bbox\" calculates bounding box for each page.",
-                "\"fast-bbox\" produces approximate bounding box for each page.",
-                "\"text-bbox\" produces bounding box only from texts in each page.",
-                "(default value: \"bbox\")"
-            },
-            defaultValue = "bbox")
-    private List<Margin> margin;
-
-    @Option(names = "--preserve-aspect",
-            description = "Preserve the original aspect ratio of pages.")
-    private boolean preserveAspect;
-
-    @Option(names = "--flip",
-            description = "Flip the margin, page by page.")
-    private boolean flip;
-
-    @Option(names = "--padding",
+                    "Additional output cropped from the same bounding boxes,",
+                    "whose name has the name of the variant appended.",
+                    "Each setting is one of padding=<padding>,",
+                    "aspect=<aspect>, aspect=none and preserve-aspect."
+            })
+    private List<CropVariant> variants;
+
+    @Option(names = "--linearize",
+            description = "Write linearized PDF for fast web view.")
+    private boolean linearize = false;
+
+    @Option(names = "--compress",
+            paramLabel = "fast|small",
             description = {
-                    "Padding size in 1/72 inch added to bounding boxes.",
-                    "(default value: 5)"
-            },
-            defaultValue = "5")
-    private int padding = 5;
-
-    @Option(names = {"-a", "--aspect"},
-            paramLabel = "<numeric value or paper size name>",
+                "Compress uncompressed streams in parallel when saving.",
+                "'fast' favors speed and 'small' favors size."
+            }
+    )
+    private StreamCompressor.Level compression;
+
+    @Option(names = "--object-streams",
             description = {
-                    "Page aspect ratio to be forced.",
-                    "e.g. 0.75, \"3:4\", \"a4\""
-            },
-            converter = AspectConverter.class)
-    private Float aspect;
+                "Write objects into compressed object streams",
+                "with a cross-reference stream."
+            })
+    private boolean objectStreams = false;
 
-    private CropStrategy strategy;
+    private List<VariantCropping> variantCroppings;
+    private PhysicalCropper physicalCropper;
+    private int changedPages;
 
     @Override
-    public int getPadding() {
-        return padding;
+    void configure(CropOptions options) {
+        super.configure(options);
+        this.physical = options.cropsPhysically();
+        this.linearize = options.linearizes();
+        this.compression = options.getCompressionLevel();
+        this.objectStreams = options.usesObjectStreams();
+    }
+
+    @Override
+    protected void checkOptions() {
+        if (linearize && objectStreams) {
+            throw new IllegalArgumentException("--linearize and --object-streams cannot be specified together.");
+        }
     }
 
     @Override
     protected void beginProcessing(PDDocument doc) {
-        List<Margin> margins = new ArrayList<>(this.margin);
-        if (margins.size() == 1 && this.flip) {
-            margins.add(margins.get(0).flip());
+        if (variants != null && physical) {
+            throw new IllegalArgumentException("--variant and --physical cannot be specified together.");
         }
+        super.beginProcessing(doc);
 
-        List<CropStrategy> strategies = margins.stream()
-                .map(margin -> margin.createStrategy(doc, this))
-                .collect(Collectors.toList());
+        if (physical) {
+            this.physicalCropper = new PhysicalCropper(doc);
+        }
 
-        if (strategies.size() == 1) {
-            this.strategy = strategies.get(0);
-        } else {
-            this.strategy = new FlippingCropStrategy(strategies);
+        this.variantCroppings = new ArrayList<>();
+        if (variants != null) {
+            Set<String> names = new HashSet<>();
+            for (CropVariant variant : variants) {
+                if (!names.add(variant.getName())) {
+                    throw new IllegalArgumentException("Duplicate variant: " + variant.getName());
+                }
+                variantCroppings.add(new VariantCropping(variant,
+                        getStrategy().withPadding(variant.getPadding(getPadding())),
+                        variant.preservesAspect(preservesAspect()),
+                        variant.getAspect(getAspect())));
+            }
         }
+        this.changedPages = 0;
     }
 
     @Override
-    protected void processPage(PDDocument doc, int pageIndex) {
+    protected void assignCropBox(PDDocument doc, int pageIndex, PDRectangle cropBox,
+            PDRectangle originalCropBox, COSBase originalItem) {
         PDPage page = doc.getPage(pageIndex);
-        resetCropBox(page);
-        PDRectangle cropBox = strategy.getCropBox(doc, pageIndex);
-        updateCropBox(page, cropBox);
+        for (VariantCropping cropping : variantCroppings) {
+            PDRectangle variantBox = adjustCropBox(cropping.strategy.getCropBox(doc, pageIndex),
+                    page.getMediaBox(), cropping.preserveAspect, cropping.aspect);
+            cropping.pageCropped(pageIndex, variantBox, originalCropBox, originalItem);
+        }
+        if (!isChanged(cropBox, originalCropBox, page.getMediaBox())) {
+            // Leaves the page exactly as it was.
+            super.assignCropBox(doc, pageIndex, cropBox, originalCropBox, originalItem);
+            return;
+        }
+        page.setCropBox(cropBox);
+        changedPages++;
+        if (physicalCropper != null) {
+            try {
+                physicalCropper.crop(page, cropBox);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
     }
 
-    private void resetCropBox(PDPage page) {
-        page.setCropBox(page.getMediaBox());
+    @Override
+    protected void endProcessing(PDDocument doc) throws IOException {
+        super.endProcessing(doc);
+        for (VariantCropping cropping : variantCroppings) {
+            DocumentPipeline.Saver saver = createSaver(doc,
+                    getOutput(cropping.variant.getName()), cropping.changedPages > 0);
+            schedule(() -> {
+                cropping.apply(doc);
+                saver.save();
+            });
+        }
     }
 
-    private void updateCropBox(PDPage page, PDRectangle cropBox) {
-        final PDRectangle mediaBox = page.getMediaBox();
-        if (preserveAspect) {
-            cropBox = adjustBoxAspect(cropBox, mediaBox);
-        } else if (aspect != null) {
-            cropBox = adjustBoxAspect(cropBox, aspect);
-        }
-        clipBox(cropBox, mediaBox);
-        page.setCropBox(cropBox);
+    /**
+     * Returns the number of the pages whose crop boxes were changed.
+     *
+     * @return the number of the pages changed.
+     */
+    protected int getChangedPages() {
+        return changedPages;
     }
 
-    private static PDRectangle adjustBoxAspect(PDRectangle box, PDRectangle page) {
-        float aspectRatio = page.getWidth() / page.getHeight();
-        return adjustBoxAspect(box, aspectRatio);
+    @Override
+    protected boolean isModified() {
+        return changedPages > 0;
     }
 
-    private static PDRectangle adjustBoxAspect(PDRectangle box, float aspectRatio) {
-        final float newAspectRatio = box.getWidth() / box.getHeight();
-        if (newAspectRatio < aspectRatio) {
-            float newWidth = box.getHeight() * aspectRatio;
-            float x = box.getLowerLeftX() - 0.5f * (newWidth - box.getWidth());
-            return new PDRectangle(x, box.getLowerLeftY(), newWidth, box.getHeight());
-        } else if (newAspectRatio > aspectRatio) {
-            float newHeight = box.getWidth() / aspectRatio;
-            float y = box.getUpperRightY() - newHeight;
-            return new PDRectangle(box.getLowerLeftX(), y, box.getWidth(), newHeight);
+    /**
+     * Writes the document in the form specified by the options.
+     *
+     * @param doc the PDF document to write.
+     * @param out the output stream.
+     * @throws IOException if an I/O error occurred while writing the document.
+     */
+    @Override
+    protected void write(PDDocument doc, OutputStream out) throws IOException {
+        if (compression != null) {
+            new StreamCompressor(compression).compress(doc);
+        }
+        if (linearize) {
+            new LinearizedWriter(doc).write(out);
+        } else if (objectStreams) {
+            int level = (compression != null) ? compression.getValue() : Deflater.DEFAULT_COMPRESSION;
+            new ObjectStreamWriter(doc, level).write(out);
+        } else {
+            super.write(doc, out);
         }
-        return box;
     }
 
-    private static void clipBox(PDRectangle box, PDRectangle mediaBox) {
-        float minX = box.getLowerLeftX();
-        float maxX = box.getUpperRightX();
-        float minY = box.getLowerLeftY();
-        float maxY = box.getUpperRightY();
+    /*
+     * The unmodified document must be saved anyway
+     * when the output is requested in a different form.
+     */
+    @Override
+    boolean needsSave(PDDocument doc, boolean modified) {
+        return super.needsSave(doc, modified) || linearize || compression != null || objectStreams;
+    }
+
+    @Override
+    void describeOutput(PandoraEvents.DocumentSaveEvent event) {
+        event.linearized = linearize;
+        event.compression = (compression != null) ? compression.name().toLowerCase() : null;
+        event.objectStreams = objectStreams;
+    }
 
-        if (minX < mediaBox.getLowerLeftX()) {
-            box.setLowerLeftX(mediaBox.getLowerLeftX());
+    private boolean isChanged(PDRectangle cropBox, PDRectangle originalCropBox, PDRectangle mediaBox) {
+        if (!isSameBox(cropBox, originalCropBox)) {
+            return true;
         }
-        if (maxX > mediaBox.getUpperRightX()) {
-            box.setUpperRightX(mediaBox.getUpperRightX());
+        // Physical cropping also replaces the media box.
+        return physicalCropper != null && !isSameBox(cropBox, mediaBox);
+    }
+
+    private static boolean isSameBox(PDRectangle a, PDRectangle b) {
+        return Math.abs(a.getLowerLeftX() - b.getLowerLeftX()) < BOX_TOLERANCE
+                && Math.abs(a.getLowerLeftY() - b.getLowerLeftY()) < BOX_TOLERANCE
+                && Math.abs(a.getUpperRightX() - b.getUpperRightX()) < BOX_TOLERANCE
+                && Math.abs(a.getUpperRightY() - b.getUpperRightY()) < BOX_TOLERANCE;
+    }
+
+    /**
+     * The crop boxes of a variant in the document being processed.
+     * The boxes are assigned to the pages just before the variant is saved.
+     */
+    private static class VariantCropping {
+
+        final CropVariant variant;
+        final CropStrategy strategy;
+        final boolean preserveAspect;
+        final Float aspect;
+        // The crop box item of each page processed, null if the page has no crop box.
+        final Map<Integer, COSBase> cropBoxes = new HashMap<>();
+        int changedPages;
+
+        VariantCropping(CropVariant variant, CropStrategy strategy, boolean preserveAspect, Float aspect) {
+            this.variant = variant;
+            this.strategy = strategy;
+            this.preserveAspect = preserveAspect;
+            this.aspect = aspect;
         }
-        if (minY < mediaBox.getLowerLeftY()) {
-            box.setLowerLeftY(mediaBox.getLowerLeftY());
+
+        void pageCropped(int pageIndex, PDRectangle cropBox, PDRectangle originalCropBox, COSBase originalItem) {
+            if (isSameBox(cropBox, originalCropBox)) {
+                cropBoxes.put(pageIndex, originalItem);
+            } else {
+                cropBoxes.put(pageIndex, cropBox.getCOSArray());
+                changedPages++;
+            }
         }
-        if (maxY > mediaBox.getUpperRightY()) {
-            box.setUpperRightY(mediaBox.getUpperRightY());
+
+        void apply(PDDocument doc) {
+            cropBoxes.forEach((pageIndex, item) ->
+                doc.getPage(pageIndex).getCOSObject().setItem(COSName.CROP_BOX, item));
         }
     }
 }
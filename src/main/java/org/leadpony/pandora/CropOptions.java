@@ -0,0 +1,412 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The options for cropping documents with {@link Cropper}.
+ *
+ * <p>
+ * Each option corresponds to the option of {@code crop} command with the same name.
+ * Instances of this class are immutable, and each {@code with} method returns
+ * a new instance with the option changed.
+ * </p>
+ *
+ * <pre>{@code
+ * CropOptions options = CropOptions.defaults()
+ *         .withMargins("hybrid-bbox")
+ *         .withPadding(10)
+ *         .withAspect(0.75f);
+ * }</pre>
+ *
+ * @author leadpony
+ */
+public final class CropOptions {
+
+    /**
+     * Compression of the streams left uncompressed when saving documents.
+     */
+    public enum Compression {
+        /**
+         * Favors the compression speed.
+         */
+        FAST(StreamCompressor.Level.FAST),
+        /**
+         * Favors the size of the output.
+         */
+        SMALL(StreamCompressor.Level.SMALL);
+
+        private final StreamCompressor.Level level;
+
+        Compression(StreamCompressor.Level level) {
+            this.level = level;
+        }
+    }
+
+    private static final CropOptions DEFAULTS = new CropOptions();
+
+    private List<Margin> margins = List.of(Margin.BOUNDING_BOX_MARGIN);
+    private boolean flip;
+    private int padding = 5;
+    private Float aspect;
+    private boolean preserveAspect;
+    private boolean physical;
+    private boolean ignoreAnnotations;
+    private int resolution = 72;
+    private boolean draft;
+    private Pages pages = Pages.all();
+    private Integer memoryBudget;
+    private boolean reuseRasters;
+    private Integer tileSize;
+    private Compression compression;
+    private boolean linearize;
+    private boolean objectStreams;
+
+    private CropOptions() {
+    }
+
+    private CropOptions(CropOptions other) {
+        this.margins = other.margins;
+        this.flip = other.flip;
+        this.padding = other.padding;
+        this.aspect = other.aspect;
+        this.preserveAspect = other.preserveAspect;
+        this.physical = other.physical;
+        this.ignoreAnnotations = other.ignoreAnnotations;
+        this.resolution = other.resolution;
+        this.draft = other.draft;
+        this.pages = other.pages;
+        this.memoryBudget = other.memoryBudget;
+        this.reuseRasters = other.reuseRasters;
+        this.tileSize = other.tileSize;
+        this.compression = other.compression;
+        this.linearize = other.linearize;
+        this.objectStreams = other.objectStreams;
+    }
+
+    /**
+     * Returns the default options, which are the same as the defaults of {@code crop} command.
+     *
+     * @return the default options.
+     */
+    public static CropOptions defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Returns the options with the margins changed.
+     * Each margin is given in the same form as {@code --margin} option,
+     * such as {@code "bbox"}, {@code "fast-bbox"}, {@code "50,40,30"} or the path to a JSON file.
+     * When multiple margins are given, they are applied to the pages in turn.
+     *
+     * @param margins the margins, at least one.
+     * @return the options changed.
+     * @throws IllegalArgumentException if any of the margins is invalid.
+     */
+    public CropOptions withMargins(String... margins) {
+        Objects.requireNonNull(margins, "margins must not be null.");
+        if (margins.length == 0) {
+            throw new IllegalArgumentException("At least one margin must be specified.");
+        }
+        List<Margin> parsed = new ArrayList<>();
+        for (String margin : margins) {
+            parsed.add(Margin.valueOf(margin));
+        }
+        CropOptions options = new CropOptions(this);
+        options.margins = List.copyOf(parsed);
+        return options;
+    }
+
+    /**
+     * Returns the options with {@code --flip} option changed.
+     *
+     * @param flip {@code true} to flip the margin page by page.
+     * @return the options changed.
+     */
+    public CropOptions withFlip(boolean flip) {
+        CropOptions options = new CropOptions(this);
+        options.flip = flip;
+        return options;
+    }
+
+    /**
+     * Returns the options with the padding changed.
+     *
+     * @param padding the padding size in 1/72 inch added to the bounding boxes.
+     * @return the options changed.
+     */
+    public CropOptions withPadding(int padding) {
+        CropOptions options = new CropOptions(this);
+        options.padding = padding;
+        return options;
+    }
+
+    /**
+     * Returns the options with the aspect ratio to be forced.
+     *
+     * @param aspect the aspect ratio of width to height, or {@code null} not to force any.
+     * @return the options changed.
+     * @throws IllegalArgumentException if the aspect ratio is not positive.
+     */
+    public CropOptions withAspect(Float aspect) {
+        if (aspect != null && !(aspect > 0)) {
+            throw new IllegalArgumentException("Aspect ratio must be positive: " + aspect);
+        }
+        CropOptions options = new CropOptions(this);
+        options.aspect = aspect;
+        return options;
+    }
+
+    /**
+     * Returns the options with {@code --preserve-aspect} option changed.
+     *
+     * @param preserveAspect {@code true} to preserve the original aspect ratio of pages.
+     * @return the options changed.
+     */
+    public CropOptions withPreserveAspect(boolean preserveAspect) {
+        CropOptions options = new CropOptions(this);
+        options.preserveAspect = preserveAspect;
+        return options;
+    }
+
+    /**
+     * Returns the options with {@code --physical} option changed.
+     *
+     * @param physical {@code true} to remove the contents outside of the crop boxes.
+     * @return the options changed.
+     */
+    public CropOptions withPhysical(boolean physical) {
+        CropOptions options = new CropOptions(this);
+        options.physical = physical;
+        return options;
+    }
+
+    /**
+     * Returns the options with {@code --ignore-annotations} option changed.
+     *
+     * @param ignoreAnnotations {@code true} to ignore annotations when calculating bounding boxes.
+     * @return the options changed.
+     */
+    public CropOptions withIgnoreAnnotations(boolean ignoreAnnotations) {
+        CropOptions options = new CropOptions(this);
+        options.ignoreAnnotations = ignoreAnnotations;
+        return options;
+    }
+
+    /**
+     * Returns the options with the resolution for rendering pages changed.
+     *
+     * @param resolution the resolution in dots per inch.
+     * @return the options changed.
+     * @throws IllegalArgumentException if the resolution is not positive.
+     */
+    public CropOptions withResolution(int resolution) {
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("Resolution must be positive: " + resolution);
+        }
+        CropOptions options = new CropOptions(this);
+        options.resolution = resolution;
+        return options;
+    }
+
+    /**
+     * Returns the options with {@code --draft} option changed.
+     *
+     * @param draft {@code true} to render pages in draft mode.
+     * @return the options changed.
+     */
+    public CropOptions withDraft(boolean draft) {
+        CropOptions options = new CropOptions(this);
+        options.draft = draft;
+        return options;
+    }
+
+    /**
+     * Returns the options with the pages to crop changed.
+     *
+     * @param pages the pages or page ranges in the same form as {@code --pages} option,
+     *              or {@code null} for all pages.
+     * @return the options changed.
+     * @throws IllegalArgumentException if the pages are invalid.
+     */
+    public CropOptions withPages(String pages) {
+        CropOptions options = new CropOptions(this);
+        options.pages = (pages != null) ? Pages.valueOf(pages) : Pages.all();
+        return options;
+    }
+
+    /**
+     * Returns the options with the memory budget for rendering pages changed.
+     * The budget is shared by all documents cropped by the same {@link Cropper}.
+     *
+     * @param mebibytes the memory budget in mebibytes,
+     *                  or {@code null} for half of the maximum heap size.
+     * @return the options changed.
+     * @throws IllegalArgumentException if the budget is not positive.
+     */
+    public CropOptions withMemoryBudget(Integer mebibytes) {
+        if (mebibytes != null && mebibytes <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive: " + mebibytes);
+        }
+        CropOptions options = new CropOptions(this);
+        options.memoryBudget = mebibytes;
+        return options;
+    }
+
+    /**
+     * Returns the options with {@code --reuse-rasters} option changed.
+     * The buffers are shared by all documents cropped by the same {@link Cropper}.
+     *
+     * @param reuseRasters {@code true} to reuse the buffers of the rendered pages.
+     * @return the options changed.
+     */
+    public CropOptions withReuseRasters(boolean reuseRasters) {
+        CropOptions options = new CropOptions(this);
+        options.reuseRasters = reuseRasters;
+        return options;
+    }
+
+    /**
+     * Returns the options with the size of the tiles in which large pages are rendered.
+     *
+     * @param pixels the width and the height of the tiles in pixels,
+     *               or {@code null} to render pages at once.
+     * @return the options changed.
+     * @throws IllegalArgumentException if the size is out of range.
+     */
+    public CropOptions withTileSize(Integer pixels) {
+        if (pixels != null && (pixels < ImageBasedBoundingBoxFinder.MIN_TILE_SIZE
+                || pixels > ImageBasedBoundingBoxFinder.MAX_TILE_SIZE)) {
+            throw new IllegalArgumentException("Tile size must be between "
+                    + ImageBasedBoundingBoxFinder.MIN_TILE_SIZE + " and "
+                    + ImageBasedBoundingBoxFinder.MAX_TILE_SIZE + ": " + pixels);
+        }
+        CropOptions options = new CropOptions(this);
+        options.tileSize = pixels;
+        return options;
+    }
+
+    /**
+     * Returns the options with the compression of the output changed.
+     *
+     * @param compression the compression, or {@code null} not to compress any streams.
+     * @return the options changed.
+     */
+    public CropOptions withCompression(Compression compression) {
+        CropOptions options = new CropOptions(this);
+        options.compression = compression;
+        return options;
+    }
+
+    /**
+     * Returns the options with {@code --linearize} option changed.
+     *
+     * @param linearize {@code true} to write linearized output.
+     * @return the options changed.
+     * @throws IllegalArgumentException if object streams are also enabled.
+     */
+    public CropOptions withLinearize(boolean linearize) {
+        if (linearize && objectStreams) {
+            throw new IllegalArgumentException("Linearized output cannot use object streams.");
+        }
+        CropOptions options = new CropOptions(this);
+        options.linearize = linearize;
+        return options;
+    }
+
+    /**
+     * Returns the options with {@code --object-streams} option changed.
+     *
+     * @param objectStreams {@code true} to write the output with object streams.
+     * @return the options changed.
+     * @throws IllegalArgumentException if linearized output is also enabled.
+     */
+    public CropOptions withObjectStreams(boolean objectStreams) {
+        if (objectStreams && linearize) {
+            throw new IllegalArgumentException("Linearized output cannot use object streams.");
+        }
+        CropOptions options = new CropOptions(this);
+        options.objectStreams = objectStreams;
+        return options;
+    }
+
+    List<Margin> getMargins() {
+        return margins;
+    }
+
+    boolean flips() {
+        return flip;
+    }
+
+    int getPadding() {
+        return padding;
+    }
+
+    Float getAspect() {
+        return aspect;
+    }
+
+    boolean preservesAspect() {
+        return preserveAspect;
+    }
+
+    boolean cropsPhysically() {
+        return physical;
+    }
+
+    boolean ignoresAnnotations() {
+        return ignoreAnnotations;
+    }
+
+    int getResolution() {
+        return resolution;
+    }
+
+    boolean rendersDraft() {
+        return draft;
+    }
+
+    Pages getPages() {
+        return pages;
+    }
+
+    Integer getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    boolean reusesRasters() {
+        return reuseRasters;
+    }
+
+    Integer getTileSize() {
+        return tileSize;
+    }
+
+    StreamCompressor.Level getCompressionLevel() {
+        return (compression != null) ? compression.level : null;
+    }
+
+    boolean linearizes() {
+        return linearize;
+    }
+
+    boolean usesObjectStreams() {
+        return objectStreams;
+    }
+}
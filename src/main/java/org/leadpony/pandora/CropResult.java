@@ -0,0 +1,67 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The result of cropping a document with {@link Cropper}.
+ *
+ * @author leadpony
+ */
+public final class CropResult {
+
+    private final List<PageCrop> pages;
+    private final int changedPages;
+    private final ByteBuffer output;
+
+    CropResult(List<PageCrop> pages, int changedPages, ByteBuffer output) {
+        this.pages = List.copyOf(pages);
+        this.changedPages = changedPages;
+        this.output = output;
+    }
+
+    /**
+     * Returns the crop boxes of the pages processed, in the order of the pages.
+     *
+     * @return the unmodifiable list of the crop boxes.
+     */
+    public List<PageCrop> getPages() {
+        return pages;
+    }
+
+    /**
+     * Returns the number of the pages whose crop boxes were changed.
+     *
+     * @return the number of the pages changed.
+     */
+    public int getChangedPages() {
+        return changedPages;
+    }
+
+    /**
+     * Returns the cropped document when the document was given in memory.
+     * The original bytes are returned as they are if the document need not be saved.
+     *
+     * @return the read-only buffer of the cropped document,
+     *         or empty if the document was not given as bytes.
+     */
+    public Optional<ByteBuffer> getOutput() {
+        return Optional.ofNullable(output).map(ByteBuffer::asReadOnlyBuffer);
+    }
+}
@@ -35,4 +35,17 @@ interface CropStrategy {
      * @return the crop box calculated, must not be {@code null}.
      */
     PDRectangle getCropBox(PDDocument doc, int pageIndex);
+
+    /**
+     * Returns the strategy which pads the bounding boxes with the specified size.
+     * The returned strategy shares the bounding boxes found by this strategy,
+     * so that a page is analyzed only once.
+     * By default, this method returns this strategy itself, which does not use padding.
+     *
+     * @param padding the padding size in 1/72 inch.
+     * @return the strategy with the padding.
+     */
+    default CropStrategy withPadding(int padding) {
+        return this;
+    }
 }
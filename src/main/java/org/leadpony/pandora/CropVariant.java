@@ -0,0 +1,134 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * A variant of the output, which is cropped from the same bounding boxes
+ * with its own padding and aspect ratio.
+ *
+ * <p>
+ * A variant is specified in the form {@code <name>:<setting>(,<setting>)*},
+ * where each setting is one of {@code padding=<padding>}, {@code aspect=<aspect>},
+ * {@code aspect=none} and {@code preserve-aspect}.
+ * The settings not specified are inherited from the options of the command.
+ * </p>
+ *
+ * @author leadpony
+ */
+class CropVariant {
+
+    private static final Pattern NAME_PATTERN = Pattern.compile("[A-Za-z0-9_.-]+");
+
+    private final String name;
+    private final Integer padding;
+    private final boolean aspectSpecified;
+    private final Float aspect;
+    private final boolean preserveAspect;
+
+    private CropVariant(String name, Integer padding, boolean aspectSpecified, Float aspect,
+            boolean preserveAspect) {
+        this.name = name;
+        this.padding = padding;
+        this.aspectSpecified = aspectSpecified;
+        this.aspect = aspect;
+        this.preserveAspect = preserveAspect;
+    }
+
+    /**
+     * Creates an instance of variant from the specified string value.
+     *
+     * @param value the value of the option parameter.
+     * @return newly created instance of variant.
+     * @throws IllegalArgumentException if the value is invalid.
+     */
+    static CropVariant valueOf(String value) {
+        Objects.requireNonNull(value, "value must not be null.");
+        int colon = value.indexOf(':');
+        String name = (colon < 0) ? value : value.substring(0, colon);
+        if (!NAME_PATTERN.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid variant name: " + name);
+        }
+        Integer padding = null;
+        boolean aspectSpecified = false;
+        Float aspect = null;
+        boolean preserveAspect = false;
+        if (colon >= 0) {
+            for (String setting : value.substring(colon + 1).split(",")) {
+                if (setting.equals("preserve-aspect")) {
+                    preserveAspect = true;
+                } else if (setting.startsWith("padding=")) {
+                    padding = Integer.valueOf(setting.substring("padding=".length()));
+                } else if (setting.equals("aspect=none")) {
+                    aspectSpecified = true;
+                    aspect = null;
+                } else if (setting.startsWith("aspect=")) {
+                    aspectSpecified = true;
+                    aspect = new AspectConverter().convert(setting.substring("aspect=".length()));
+                } else {
+                    throw new IllegalArgumentException("Invalid setting of variant: " + setting);
+                }
+            }
+        }
+        return new CropVariant(name, padding, aspectSpecified, aspect, preserveAspect);
+    }
+
+    /**
+     * Returns the name of this variant, which is appended to the name of the output.
+     *
+     * @return the name of this variant.
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the padding of this variant.
+     *
+     * @param defaultPadding the padding specified by the option.
+     * @return the padding of this variant.
+     */
+    int getPadding(int defaultPadding) {
+        return (padding != null) ? padding : defaultPadding;
+    }
+
+    /**
+     * Returns the aspect ratio forced by this variant.
+     *
+     * @param defaultAspect the aspect ratio specified by the option, can be {@code null}.
+     * @return the aspect ratio, or {@code null} if not forced.
+     */
+    Float getAspect(Float defaultAspect) {
+        return aspectSpecified ? aspect : defaultAspect;
+    }
+
+    /**
+     * Checks if this variant preserves the original aspect ratio of pages.
+     *
+     * @param defaultValue the value specified by the option.
+     * @return {@code true} if this variant preserves the aspect ratio.
+     */
+    boolean preservesAspect(boolean defaultValue) {
+        return preserveAspect || (defaultValue && !aspectSpecified);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+/**
+ * The asynchronous API to crop PDF documents in the same way as {@code crop} command.
+ *
+ * <p>
+ * Each document is processed by a task running on the executor of this cropper,
+ * and the result is delivered through {@link CompletableFuture}.
+ * The crop boxes of the pages can also be received as they are calculated,
+ * through {@link Flow.Publisher} returned by {@code analyze} methods.
+ * An instance of this class can be shared by multiple threads,
+ * and the documents cropped at the same time share the memory budget
+ * and the reused buffers for rendering pages.
+ * </p>
+ *
+ * <pre>{@code
+ * Cropper cropper = Cropper.create(CropOptions.defaults().withMargins("hybrid-bbox"));
+ * cropper.crop(ByteBuffer.wrap(bytes))
+ *     .thenAccept(result -> store(result.getOutput().get()));
+ * }</pre>
+ *
+ * @author leadpony
+ */
+public final class Cropper {
+
+    private static final long DEFAULT_KEEP_ALIVE_SECONDS = 60;
+
+    private final CropOptions options;
+    private final Executor executor;
+    private final MemoryGovernor governor;
+    private final RasterPool rasterPool;
+
+    private Cropper(CropOptions options, Executor executor) {
+        this.options = options;
+        this.executor = executor;
+        this.governor = MemoryGovernor.ofMebibytes(options.getMemoryBudget());
+        this.rasterPool = options.reusesRasters() ? RasterPool.ofProcessors() : RasterPool.NONE;
+    }
+
+    /**
+     * Creates a cropper running on its own executor.
+     *
+     * <p>
+     * The executor runs as many tasks at the same time as the available processors,
+     * on daemon threads which terminate when they are idle.
+     * The common pool is not used since the tasks block
+     * while loading and saving documents and while waiting for the memory budget.
+     * </p>
+     *
+     * @param options the options for cropping documents.
+     * @return newly created cropper.
+     */
+    public static Cropper create(CropOptions options) {
+        return create(options, newDefaultExecutor());
+    }
+
+    /**
+     * Creates a cropper running on the specified executor.
+     * The tasks may block on I/O, so the executor should not be the common pool.
+     *
+     * @param options the options for cropping documents.
+     * @param executor the executor which runs the tasks to crop documents.
+     * @return newly created cropper.
+     */
+    public static Cropper create(CropOptions options, Executor executor) {
+        Objects.requireNonNull(options, "options must not be null.");
+        Objects.requireNonNull(executor, "executor must not be null.");
+        return new Cropper(options, executor);
+    }
+
+    /**
+     * Crops the document given as bytes, and returns the cropped document also as bytes.
+     * The remaining bytes of the buffer are copied before this method returns.
+     *
+     * @param input the buffer of the document to crop.
+     * @return the future of the result, which has the output.
+     */
+    public CompletableFuture<CropResult> crop(ByteBuffer input) {
+        final byte[] bytes = toArray(input);
+        return submit(command -> {
+            try (PDDocument doc = PDDocument.load(bytes)) {
+                command.processDoc(doc);
+                if (!command.needsSave(doc, command.isModified())) {
+                    return command.getResult(ByteBuffer.wrap(bytes));
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length);
+                command.write(doc, out);
+                return command.getResult(ByteBuffer.wrap(out.toByteArray()));
+            }
+        });
+    }
+
+    /**
+     * Crops the document in the file, and writes the cropped document into another file.
+     * The original document is copied if it need not be saved.
+     *
+     * @param input the path of the document to crop.
+     * @param output the path of the output.
+     * @return the future of the result.
+     */
+    public CompletableFuture<CropResult> crop(Path input, Path output) {
+        Objects.requireNonNull(input, "input must not be null.");
+        Objects.requireNonNull(output, "output must not be null.");
+        return submit(command -> {
+            try (PDDocument doc = AbstractCommand.load(input)) {
+                command.processDoc(doc);
+                command.save(doc, input, output, command.needsSave(doc, command.isModified()));
+                return command.getResult(null);
+            }
+        });
+    }
+
+    /**
+     * Publishes the crop boxes of the pages of the document given as bytes, as they are calculated.
+     * The remaining bytes of the buffer are copied before this method returns.
+     *
+     * <p>
+     * Each subscription crops the document again.
+     * The cropping waits while the subscriber cannot accept more crop boxes,
+     * and stops when the subscription is cancelled.
+     * </p>
+     *
+     * @param input the buffer of the document to analyze.
+     * @return the publisher of the crop boxes.
+     */
+    public Flow.Publisher<PageCrop> analyze(ByteBuffer input) {
+        final byte[] bytes = toArray(input);
+        return publish(command -> {
+            try (PDDocument doc = PDDocument.load(bytes)) {
+                command.processDoc(doc);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Publishes the crop boxes of the pages of the document in the file, as they are calculated.
+     *
+     * @param input the path of the document to analyze.
+     * @return the publisher of the crop boxes.
+     * @see #analyze(ByteBuffer)
+     */
+    public Flow.Publisher<PageCrop> analyze(Path input) {
+        Objects.requireNonNull(input, "input must not be null.");
+        return publish(command -> {
+            try (PDDocument doc = AbstractCommand.load(input)) {
+                command.processDoc(doc);
+            }
+            return null;
+        });
+    }
+
+    private <T> CompletableFuture<T> submit(Task<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(task.run(createCommand(null)));
+                } catch (Throwable e) {
+                    future.completeExceptionally(unwrap(e));
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private Flow.Publisher<PageCrop> publish(Task<?> task) {
+        return subscriber -> {
+            SubmissionPublisher<PageCrop> publisher = new SubmissionPublisher<>();
+            publisher.subscribe(subscriber);
+            Consumer<PageCrop> listener = page -> {
+                if (!publisher.hasSubscribers()) {
+                    throw new CancellationException();
+                }
+                publisher.submit(page);
+            };
+            try {
+                executor.execute(() -> {
+                    try {
+                        task.run(createCommand(listener));
+                        publisher.close();
+                    } catch (CancellationException e) {
+                        publisher.close();
+                    } catch (Throwable e) {
+                        publisher.closeExceptionally(unwrap(e));
+                    }
+                });
+            } catch (RuntimeException e) {
+                publisher.closeExceptionally(e);
+            }
+        };
+    }
+
+    private Command createCommand(Consumer<PageCrop> listener) {
+        Command command = new Command(listener);
+        command.configure(options);
+        return command;
+    }
+
+    private static Executor newDefaultExecutor() {
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                DEFAULT_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "pandora-cropper-" + counter.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static byte[] toArray(ByteBuffer input) {
+        Objects.requireNonNull(input, "input must not be null.");
+        byte[] bytes = new byte[input.remaining()];
+        input.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        if (e instanceof UncheckedIOException) {
+            return e.getCause();
+        }
+        return e;
+    }
+
+    /**
+     * A task to run on the executor.
+     *
+     * @param <T> the type of the result.
+     */
+    @FunctionalInterface
+    private interface Task<T> {
+
+        T run(Command command) throws IOException;
+    }
+
+    /**
+     * The crop command for a task, which collects the crop boxes of the pages.
+     */
+    private final class Command extends CropCommand {
+
+        private final Consumer<PageCrop> listener;
+        private final List<PageCrop> pages = new ArrayList<>();
+
+        Command(Consumer<PageCrop> listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public MemoryGovernor getMemoryGovernor() {
+            return governor;
+        }
+
+        @Override
+        public RasterPool getRasterPool() {
+            return rasterPool;
+        }
+
+        @Override
+        protected void pageCropped(int pageIndex, PDPage page, PDRectangle boundingBox, PDRectangle cropBox) {
+            PageCrop crop = new PageCrop(pageIndex + 1, page.getMediaBox(), boundingBox, cropBox);
+            pages.add(crop);
+            if (listener != null) {
+                listener.accept(crop);
+            }
+        }
+
+        CropResult getResult(ByteBuffer output) {
+            return new CropResult(pages, getChangedPages(), output);
+        }
+    }
+}
@@ -16,6 +16,8 @@
 
 package org.leadpony.pandora;
 
+import java.nio.file.Path;
+
 /**
  * A context for cropping pages.
  *
@@ -23,10 +25,60 @@ package org.leadpony.pandora;
  */
 interface CroppingContext {
 
+    /**
+     * Returns the path of the document being cropped.
+     *
+     * @return the path of the document, or {@code null} if the document was not given as a file.
+     */
+    Path getInput();
+
     /**
      * Returns the padding size for bounding box.
      *
      * @return the padding size for bounding box.
      */
     int getPadding();
+
+    /**
+     * Checks if the annotations are included in the bounding boxes.
+     *
+     * @return {@code true} if the annotations are included.
+     */
+    boolean includesAnnotations();
+
+    /**
+     * Returns the resolution for rendering pages.
+     *
+     * @return the resolution in dots per inch.
+     */
+    int getResolution();
+
+    /**
+     * Checks if the pages are rendered in draft mode,
+     * which draws only the extents of images and glyphs.
+     *
+     * @return {@code true} if the pages are rendered in draft mode.
+     */
+    boolean rendersDraft();
+
+    /**
+     * Returns the governor which admits the rendering of pages within a memory budget.
+     *
+     * @return the governor shared by the renderings running concurrently.
+     */
+    MemoryGovernor getMemoryGovernor();
+
+    /**
+     * Returns the pool of the buffers for the rasters of rendered pages.
+     *
+     * @return the pool shared by the renderings, or {@link RasterPool#NONE} not to reuse buffers.
+     */
+    RasterPool getRasterPool();
+
+    /**
+     * Returns the size of the tiles in which the large pages are rendered.
+     *
+     * @return the width and the height of the tiles in pixels, or 0 to render pages at once.
+     */
+    int getTileSize();
 }
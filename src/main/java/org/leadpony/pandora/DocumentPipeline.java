@@ -0,0 +1,286 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * A pipeline which loads, processes and saves PDF documents in separate stages.
+ *
+ * <p>
+ * Each document is loaded and saved by its own job running on {@link JobThreads},
+ * while the calling thread processes the documents one by one in the given order.
+ * The documents are loaded ahead and saved behind as long as the number of the documents
+ * in flight, which are loaded but not closed yet, does not exceed the limit.
+ * This keeps the calling thread busy even when the documents are read from or written to
+ * slow storage, and bounds the memory held by the documents at the same time.
+ * A failure of a document is reported to the standard error
+ * and does not stop the other documents.
+ * </p>
+ *
+ * <p>
+ * The records logged in each stage are attributed to the document,
+ * and the repeated records are summarized when the document leaves the pipeline.
+ * </p>
+ *
+ * @see AggregatingLogHandler
+ *
+ * @author leadpony
+ */
+class DocumentPipeline {
+
+    /**
+     * The default maximum number of the documents in flight.
+     */
+    static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+    /**
+     * The first stage of the pipeline.
+     */
+    @FunctionalInterface
+    interface Loader {
+
+        /**
+         * Loads a document.
+         *
+         * @param input the path to the document.
+         * @return the loaded document.
+         * @throws IOException if an I/O error occurred while loading the document.
+         */
+        PDDocument load(Path input) throws IOException;
+    }
+
+    /**
+     * The second stage of the pipeline.
+     */
+    @FunctionalInterface
+    interface Processor {
+
+        /**
+         * Processes a document.
+         *
+         * @param input the path to the document.
+         * @param doc the loaded document.
+         * @return the saving to be done by the last stage,
+         *         or {@code null} if the document does not need to be saved.
+         * @throws Exception if an error occurred while processing the document.
+         */
+        Saver process(Path input, PDDocument doc) throws Exception;
+    }
+
+    /**
+     * The last stage of the pipeline for a document.
+     */
+    @FunctionalInterface
+    interface Saver {
+
+        /**
+         * Saves the processed document.
+         *
+         * @throws IOException if an I/O error occurred while saving the document.
+         */
+        void save() throws IOException;
+    }
+
+    private final Loader loader;
+    private final Processor processor;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final BlockingQueue<Loaded> loadedQueue = new LinkedBlockingQueue<>();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /**
+     * Constructs this pipeline with the default maximum number of the documents in flight.
+     *
+     * @param loader the loader of the documents.
+     * @param processor the processor of the documents.
+     */
+    DocumentPipeline(Loader loader, Processor processor) {
+        this(loader, processor, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Constructs this pipeline.
+     *
+     * @param loader the loader of the documents.
+     * @param processor the processor of the documents.
+     * @param maxInFlight the maximum number of the documents in flight.
+     * @throws IllegalArgumentException if the maximum number is not positive.
+     */
+    DocumentPipeline(Loader loader, Processor processor, int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException(
+                    "Maximum number of documents in flight must be positive: " + maxInFlight);
+        }
+        this.loader = loader;
+        this.processor = processor;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Runs all documents through this pipeline.
+     *
+     * @param inputs the paths to the documents.
+     * @return the number of the documents failed.
+     * @throws InterruptedException if the calling thread was interrupted.
+     */
+    int run(List<Path> inputs) throws InterruptedException {
+        ExecutorService jobs = JobThreads.newExecutor("pandora-job");
+        try {
+            jobs.execute(() -> dispatch(inputs, jobs));
+            for (int i = 0; i < inputs.size(); i++) {
+                process(loadedQueue.take(), jobs);
+            }
+            // Waits until all documents are saved and closed.
+            inFlight.acquire(maxInFlight);
+        } catch (InterruptedException e) {
+            jobs.shutdownNow();
+            throw e;
+        } finally {
+            jobs.shutdown();
+        }
+        return failures.get();
+    }
+
+    /*
+     * Starts loading the documents in the given order, whenever a document leaves the pipeline.
+     */
+    private void dispatch(List<Path> inputs, ExecutorService jobs) {
+        try {
+            for (Path input : inputs) {
+                inFlight.acquire();
+                Loaded loaded = new Loaded(input);
+                loadedQueue.put(loaded);
+                jobs.execute(() -> load(loaded));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void load(Loaded loaded) {
+        Object previous = AggregatingLogHandler.enterDocument(loaded);
+        try {
+            loaded.doc = loader.load(loaded.input);
+        } catch (Exception e) {
+            loaded.error = e;
+        } finally {
+            AggregatingLogHandler.leaveDocument(previous);
+            loaded.done.countDown();
+        }
+    }
+
+    private void process(Loaded loaded, ExecutorService jobs) throws InterruptedException {
+        loaded.done.await();
+        if (loaded.error != null) {
+            fail(loaded.error);
+            leave(loaded);
+            return;
+        }
+        Saver saver = null;
+        Exception error = null;
+        Object previous = AggregatingLogHandler.enterDocument(loaded);
+        try {
+            saver = processor.process(loaded.input, loaded.doc);
+        } catch (Exception e) {
+            error = e;
+        } finally {
+            AggregatingLogHandler.leaveDocument(previous);
+        }
+        if (error != null) {
+            fail(error);
+            leave(loaded);
+            return;
+        }
+        if (saver == null) {
+            leave(loaded);
+        } else {
+            final Saver scheduled = saver;
+            jobs.execute(() -> save(loaded, scheduled));
+        }
+    }
+
+    private void save(Loaded loaded, Saver saver) {
+        Object previous = AggregatingLogHandler.enterDocument(loaded);
+        try {
+            saver.save();
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            AggregatingLogHandler.leaveDocument(previous);
+            leave(loaded);
+        }
+    }
+
+    /*
+     * Closes the document and lets the next document in.
+     */
+    private void leave(Loaded loaded) {
+        closeQuietly(loaded.doc);
+        AggregatingLogHandler.endDocument(loaded);
+        inFlight.release();
+    }
+
+    private void fail(Exception e) {
+        failures.incrementAndGet();
+        e.printStackTrace(System.err);
+    }
+
+    private static void closeQuietly(PDDocument doc) {
+        if (doc == null) {
+            return;
+        }
+        try {
+            doc.close();
+        } catch (IOException e) {
+            e.printStackTrace(System.err);
+        }
+    }
+
+    /**
+     * A document in flight.
+     * This also identifies the document in the log,
+     * even if the same path is given more than once.
+     */
+    private static class Loaded {
+
+        final Path input;
+        final CountDownLatch done = new CountDownLatch(1);
+        // Assigned before done is counted down.
+        PDDocument doc;
+        Exception error;
+
+        Loaded(Path input) {
+            this.input = input;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(input);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.documentinterchange.markedcontent.PDPropertyList;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColor;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImage;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.pdmodel.graphics.optionalcontent.PDOptionalContentGroup;
+import org.apache.pdfbox.pdmodel.graphics.state.PDGraphicsState;
+import org.apache.pdfbox.pdmodel.graphics.state.RenderingMode;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.rendering.PageDrawer;
+import org.apache.pdfbox.rendering.PageDrawerParameters;
+import org.apache.pdfbox.util.Matrix;
+import org.apache.pdfbox.util.Vector;
+
+/**
+ * The renderer which draws only the extents of contents for finding bounding boxes.
+ *
+ * <p>
+ * Images are not decoded. Instead, their transformed bounds are filled with black,
+ * or with the current fill color if they are stencil masks.
+ * Glyphs are filled as the rectangles of their bounds, which are cached per document.
+ * Anti-aliasing and interpolation are disabled.
+ * Clipping, transparency and optional contents are respected as in the full rendering.
+ * </p>
+ *
+ * @author leadpony
+ */
+class DraftRenderer extends PDFRenderer {
+
+    private static final Rectangle2D UNIT_SQUARE = new Rectangle2D.Double(0, 0, 1, 1);
+
+    private static final PDColor BLACK = new PDColor(new float[] {0f}, PDDeviceGray.INSTANCE);
+
+    private final GlyphBounds glyphBounds = new GlyphBounds();
+
+    DraftRenderer(PDDocument doc) {
+        super(doc);
+        RenderingHints hints = new RenderingHints(null);
+        hints.put(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+        hints.put(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+        hints.put(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        hints.put(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
+        setRenderingHints(hints);
+    }
+
+    @Override
+    protected PageDrawer createPageDrawer(PageDrawerParameters parameters) throws IOException {
+        PageDrawer pageDrawer = new DraftPageDrawer(parameters);
+        pageDrawer.setAnnotationFilter(getAnnotationsFilter());
+        return pageDrawer;
+    }
+
+    /**
+     * The page drawer which fills the extents of images and glyphs.
+     */
+    private class DraftPageDrawer extends PageDrawer {
+
+        DraftPageDrawer(PageDrawerParameters parameters) throws IOException {
+            super(parameters);
+        }
+
+        @Override
+        protected void showFontGlyph(Matrix textRenderingMatrix, PDFont font, int code,
+                Vector displacement) throws IOException {
+            RenderingMode mode = getGraphicsState().getTextState().getRenderingMode();
+            if (mode.isClip()) {
+                // Clipping by glyphs needs the exact outlines.
+                super.showFontGlyph(textRenderingMatrix, font, code, displacement);
+                return;
+            }
+            if (mode == RenderingMode.NEITHER) {
+                return;
+            }
+
+            GlyphBounds.FontEntry entry = glyphBounds.getFont(font);
+            Rectangle2D bounds = entry.getGlyph(code).getBounds();
+            if (bounds == null || bounds.isEmpty()) {
+                return;
+            }
+            AffineTransform transform = textRenderingMatrix.createAffineTransform();
+            transform.concatenate(entry.getFontTransform());
+            getLinePath().append(transform.createTransformedShape(bounds), false);
+
+            if (mode.isFill() && mode.isStroke()) {
+                fillAndStrokePath(GeneralPath.WIND_NON_ZERO);
+            } else if (mode.isFill()) {
+                fillPath(GeneralPath.WIND_NON_ZERO);
+            } else {
+                strokePath();
+            }
+        }
+
+        @Override
+        public void drawImage(PDImage image) throws IOException {
+            if (image instanceof PDImageXObject && isHidden(((PDImageXObject) image).getOptionalContent())) {
+                return;
+            }
+            PDGraphicsState state = getGraphicsState();
+            AffineTransform transform = state.getCurrentTransformationMatrix().createAffineTransform();
+            getLinePath().append(transform.createTransformedShape(UNIT_SQUARE), false);
+
+            if (image.isStencil()) {
+                fillPath(GeneralPath.WIND_NON_ZERO);
+                return;
+            }
+
+            PDColorSpace colorSpace = state.getNonStrokingColorSpace();
+            PDColor color = state.getNonStrokingColor();
+            state.setNonStrokingColorSpace(BLACK.getColorSpace());
+            state.setNonStrokingColor(BLACK);
+            try {
+                fillPath(GeneralPath.WIND_NON_ZERO);
+            } finally {
+                state.setNonStrokingColorSpace(colorSpace);
+                state.setNonStrokingColor(color);
+            }
+        }
+
+        /*
+         * Optional content membership dictionaries are regarded as visible,
+         * which can only enlarge the bounds.
+         */
+        private boolean isHidden(PDPropertyList optionalContent) {
+            return optionalContent instanceof PDOptionalContentGroup
+                    && !isGroupEnabled((PDOptionalContentGroup) optionalContent);
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package org.leadpony.pandora;
 
 import java.util.List;
+import java.util.stream.Collectors;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
@@ -37,4 +38,11 @@ class FlippingCropStrategy implements CropStrategy {
         CropStrategy strategy = strategies.get(pageIndex % strategies.size());
         return strategy.getCropBox(doc, pageIndex);
     }
+
+    @Override
+    public CropStrategy withPadding(int padding) {
+        return new FlippingCropStrategy(strategies.stream()
+                .map(strategy -> strategy.withPadding(padding))
+                .collect(Collectors.toList()));
+    }
 }
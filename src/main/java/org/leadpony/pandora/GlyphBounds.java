@@ -0,0 +1,220 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.fontbox.util.BoundingBox;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDCIDFontType2;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDSimpleFont;
+import org.apache.pdfbox.pdmodel.font.PDTrueTypeFont;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+import org.apache.pdfbox.pdmodel.font.PDType3CharProc;
+import org.apache.pdfbox.pdmodel.font.PDType3Font;
+import org.apache.pdfbox.pdmodel.font.PDVectorFont;
+
+/**
+ * The bounds of glyphs in fonts.
+ *
+ * <p>
+ * The bounds of a glyph are given in the glyph space,
+ * and {@link #getFontTransform(PDFont)} maps them into the text space.
+ * An instance of this class caches the bounds and the advance widths
+ * of the glyphs already calculated.
+ * </p>
+ *
+ * @author leadpony
+ */
+class GlyphBounds {
+
+    private final Map<PDFont, FontEntry> fonts = new IdentityHashMap<>();
+
+    /**
+     * Returns the glyph information of the font, which may be cached.
+     *
+     * @param font the font.
+     * @return the glyph information of the font.
+     * @throws IOException if an I/O error occurred while reading the font.
+     */
+    FontEntry getFont(PDFont font) throws IOException {
+        FontEntry entry = fonts.get(font);
+        if (entry == null) {
+            entry = new FontEntry(font);
+            fonts.put(font, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * The glyph information of a font.
+     */
+    static class FontEntry {
+
+        private final PDFont font;
+        private final AffineTransform fontTransform;
+        private final Map<Integer, Glyph> glyphs = new HashMap<>();
+
+        FontEntry(PDFont font) throws IOException {
+            this.font = font;
+            this.fontTransform = GlyphBounds.getFontTransform(font);
+        }
+
+        /**
+         * Returns the transform from the glyph space into the text space.
+         *
+         * @return the transform of the font.
+         */
+        AffineTransform getFontTransform() {
+            return fontTransform;
+        }
+
+        /**
+         * Returns the glyph of the specified code.
+         *
+         * @param code the character code.
+         * @return the glyph found.
+         * @throws IOException if an I/O error occurred while reading the font.
+         */
+        Glyph getGlyph(int code) throws IOException {
+            Glyph glyph = glyphs.get(code);
+            if (glyph == null) {
+                glyph = new Glyph(
+                        getPathBounds(font, code),
+                        font.getDisplacement(code).getX());
+                glyphs.put(code, glyph);
+            }
+            return glyph;
+        }
+    }
+
+    /**
+     * A glyph in a font.
+     */
+    static class Glyph {
+
+        private final Rectangle2D bounds;
+        private final float advance;
+
+        Glyph(Rectangle2D bounds, float advance) {
+            this.bounds = bounds;
+            this.advance = advance;
+        }
+
+        /**
+         * Returns the bounds in the glyph space.
+         *
+         * @return the bounds of the glyph, or {@code null} if the glyph is not found.
+         */
+        Rectangle2D getBounds() {
+            return bounds;
+        }
+
+        /**
+         * Returns the horizontal displacement in the text space for the unit font size.
+         *
+         * @return the advance of the glyph.
+         */
+        float getAdvance() {
+            return advance;
+        }
+    }
+
+    /**
+     * Returns the transform from the glyph space into the text space.
+     *
+     * @param font the font.
+     * @return newly created transform.
+     * @throws IOException if an I/O error occurred while reading the font.
+     */
+    static AffineTransform getFontTransform(PDFont font) throws IOException {
+        AffineTransform transform = font.getFontMatrix().createAffineTransform();
+        if (font instanceof PDTrueTypeFont) {
+            PDTrueTypeFont ttFont = (PDTrueTypeFont) font;
+            int unitsPerEm = ttFont.getTrueTypeFont().getHeader().getUnitsPerEm();
+            transform.scale(1000d / unitsPerEm, 1000d / unitsPerEm);
+        } else if (font instanceof PDType0Font) {
+            PDType0Font t0font = (PDType0Font) font;
+            if (t0font.getDescendantFont() instanceof PDCIDFontType2) {
+                PDCIDFontType2 dFont = (PDCIDFontType2) t0font.getDescendantFont();
+                int unitsPerEm = dFont.getTrueTypeFont().getHeader().getUnitsPerEm();
+                transform.scale(1000d / unitsPerEm, 1000d / unitsPerEm);
+            }
+        }
+        return transform;
+    }
+
+    /**
+     * Returns the bounds of the glyph path in the glyph space.
+     *
+     * <p>
+     * Derived from <code>org.apache.pdfbox.examples.util.DrawPrintTextLocations.calculateGlyphBounds(Matrix, PDFont, int)</code>.
+     * </p>
+     *
+     * @param font the font.
+     * @param code the character code.
+     * @return the bounds of the glyph, or {@code null} if the glyph is not found.
+     * @throws IOException if an I/O error occurred while reading the font.
+     */
+    static Rectangle2D getPathBounds(PDFont font, int code) throws IOException {
+        GeneralPath path = null;
+        if (font instanceof PDType3Font) {
+            path = calculateGlyphPath((PDType3Font) font, code);
+        } else if (font instanceof PDVectorFont) {
+            path = ((PDVectorFont) font).getPath(code);
+        } else if (font instanceof PDSimpleFont) {
+            path = calculateGlyphPath((PDSimpleFont) font, code);
+        } else {
+            // shouldn't happen, please open issue in JIRA
+            throw new IllegalStateException("Unknown font class: " + font.getClass());
+        }
+        return (path != null) ? path.getBounds2D() : null;
+    }
+
+    private static GeneralPath calculateGlyphPath(PDType3Font font, int code) throws IOException {
+        PDType3CharProc charProc = font.getCharProc(code);
+        if (charProc == null) {
+            return null;
+        }
+
+        PDRectangle glyphBBox = charProc.getGlyphBBox();
+        if (glyphBBox == null) {
+            return null;
+        }
+
+        BoundingBox fontBBox = font.getBoundingBox();
+        glyphBBox.setLowerLeftX(Math.max(fontBBox.getLowerLeftX(), glyphBBox.getLowerLeftX()));
+        glyphBBox.setLowerLeftY(Math.max(fontBBox.getLowerLeftY(), glyphBBox.getLowerLeftY()));
+        glyphBBox.setUpperRightX(Math.min(fontBBox.getUpperRightX(), glyphBBox.getUpperRightX()));
+        glyphBBox.setUpperRightY(Math.min(fontBBox.getUpperRightY(), glyphBBox.getUpperRightY()));
+
+        return glyphBBox.toGeneralPath();
+    }
+
+    private static GeneralPath calculateGlyphPath(PDSimpleFont font, int code) throws IOException {
+        // these two lines do not always work, e.g. for the TT fonts in file 032431.pdf
+        // which is why PDVectorFont is tried first.
+        String name = font.getEncoding().getName(code);
+        return font.getPath(name);
+    }
+}
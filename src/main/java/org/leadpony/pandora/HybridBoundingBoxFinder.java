@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+/**
+ * A bounding box finder which renders only the pages
+ * whose bounding boxes cannot be determined from the vector content.
+ *
+ * <p>
+ * The pages having images, shadings, unsupported content,
+ * or annotations to be included in the bounding box are rendered.
+ * </p>
+ *
+ * @author leadpony
+ */
+class HybridBoundingBoxFinder implements BoundingBoxFinder {
+
+    private final boolean includesAnnotations;
+    private final ImageBasedBoundingBoxFinder renderingFinder;
+    private final GlyphBounds glyphBounds = new GlyphBounds();
+
+    HybridBoundingBoxFinder(PDDocument doc, CroppingContext context) {
+        this(context, new ImageBasedBoundingBoxFinder(doc, context));
+    }
+
+    HybridBoundingBoxFinder(CroppingContext context, ImageBasedBoundingBoxFinder renderingFinder) {
+        this.includesAnnotations = context.includesAnnotations();
+        this.renderingFinder = renderingFinder;
+    }
+
+    @Override
+    public Rectangle2D getBoundingBox(PDDocument doc, int pageIndex) throws IOException {
+        var event = new PandoraEvents.PageAnalysisEvent("hybrid-bbox", pageIndex);
+        event.begin();
+        PDPage page = doc.getPage(pageIndex);
+        ContentScanner scanner = new ContentScanner(page, glyphBounds, false);
+        boolean reliable;
+        if (includesAnnotations && !page.getAnnotations().isEmpty()) {
+            reliable = false;
+        } else {
+            try {
+                scanner.scanPage();
+                reliable = isReliable(scanner);
+            } catch (ContentScanner.UnsupportedContentException e) {
+                reliable = false;
+            }
+        }
+        event.setScanned(scanner);
+        if (reliable) {
+            event.commit();
+            return scanner.getBoundingBox();
+        }
+        event.rendered = true;
+        try {
+            return renderingFinder.render(doc, pageIndex);
+        } finally {
+            event.commit();
+        }
+    }
+
+    /**
+     * Checks if the bounding box calculated from the vector content is reliable.
+     *
+     * <p>
+     * Images may have white margins in themselves,
+     * and shadings are painted over the whole clipping area.
+     * </p>
+     *
+     * @param scanner the scanner which processed the page.
+     * @return {@code true} if the calculated bounding box is reliable.
+     */
+    private static boolean isReliable(ContentScanner scanner) {
+        return !scanner.hasImages() && !scanner.hasShadings();
+    }
+}
@@ -15,96 +15,423 @@
  */
 package org.leadpony.pandora;
 
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
-import java.awt.image.RenderedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.rendering.PDFRenderer;
 
+/**
+ * The bounding box finder which renders pages into images.
+ *
+ * <p>
+ * Pages are rendered into 1-bit images whose palette has only
+ * pure white and a color slightly darker than white.
+ * As each color drawn is mapped to the nearest color in the palette,
+ * every pixel which is visibly darker than white becomes an ink pixel.
+ * The ink color must not be closer to white, because Java2D maps
+ * blended colors through an inverse color table of 5 bits per component,
+ * where white would fall into the same cell as the ink.
+ * The packed rows are scanned 64 pixels at a time.
+ * The rasters are backed by the buffers acquired from {@link RasterPool}.
+ * Pages larger than the tile size are rendered in tiles, each of which is scanned separately.
+ * </p>
+ *
+ * @author leadpony
+ */
 class ImageBasedBoundingBoxFinder implements BoundingBoxFinder {
 
+    /**
+     * The minimum size of the tiles in pixels.
+     */
+    static final int MIN_TILE_SIZE = 64;
+
+    /**
+     * The maximum size of the tiles in pixels, whose square fits into {@code int}.
+     */
+    static final int MAX_TILE_SIZE = 46340;
+
+    private static final float POINTS_PER_INCH = 72f;
+
+    // Index 0 is the ink and index 1 is white.
+    private static final IndexColorModel INK_OR_WHITE = new IndexColorModel(1, 2,
+            new byte[] {(byte) 247, (byte) 255},
+            new byte[] {(byte) 247, (byte) 255},
+            new byte[] {(byte) 247, (byte) 255});
+
+    private static final VarHandle LONGS =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
     private final PDFRenderer renderer;
-    private static final byte WHITE = -1;
+    private final float scale;
+    private final MemoryGovernor governor;
+    private final RasterPool rasterPool;
+    private final int tileSize;
 
-    ImageBasedBoundingBoxFinder(PDDocument doc) {
-        this.renderer = new PDFRenderer(doc);
+    ImageBasedBoundingBoxFinder(PDDocument doc, CroppingContext context) {
+        this.renderer = context.rendersDraft() ? new DraftRenderer(doc) : new PDFRenderer(doc);
+        if (!context.includesAnnotations()) {
+            this.renderer.setAnnotationsFilter(annotation -> false);
+        }
+        this.scale = context.getResolution() / POINTS_PER_INCH;
+        this.governor = context.getMemoryGovernor();
+        this.rasterPool = context.getRasterPool();
+        this.tileSize = context.getTileSize();
     }
 
     @Override
     public Rectangle2D getBoundingBox(PDDocument doc, int pageIndex) throws IOException {
-        BufferedImage image = renderer.renderImage(pageIndex, 1, ImageType.GRAY);
-        return calculateBoundingBox(image);
+        var event = new PandoraEvents.PageAnalysisEvent("bbox", pageIndex);
+        event.begin();
+        event.rendered = true;
+        try {
+            return render(doc, pageIndex);
+        } finally {
+            event.commit();
+        }
+    }
+
+    /**
+     * Renders the page and finds the bounding box in the rendered image.
+     *
+     * @param doc the PDF document.
+     * @param pageIndex the page index starting from zero.
+     * @return the bounding box found.
+     * @throws IOException if an I/O error occurred while rendering the page.
+     */
+    Rectangle2D render(PDDocument doc, int pageIndex) throws IOException {
+        var event = new PandoraEvents.PageRenderEvent();
+        event.begin();
+        PDPage page = doc.getPage(pageIndex);
+        PDRectangle cropBox = page.getCropBox();
+        // Same as PDFRenderer.renderImage()
+        int width = (int) Math.max(Math.floor(cropBox.getWidth() * scale), 1);
+        int height = (int) Math.max(Math.floor(cropBox.getHeight() * scale), 1);
+        boolean tiled = tileSize > 0 && (width > tileSize || height > tileSize);
+        if (!tiled && (long) width * height > Integer.MAX_VALUE) {
+            throw new IOException("Page " + (pageIndex + 1) + " is too large to be rendered at this resolution");
+        }
+        int rotation = page.getRotation();
+        if (rotation == 90 || rotation == 270) {
+            int swapped = width;
+            width = height;
+            height = swapped;
+        }
+        Rectangle2D bounds;
+        if (tiled) {
+            bounds = new TiledPage(pageIndex, width, height, event).findInkBounds();
+        } else {
+            bounds = renderRegion(pageIndex, 0, 0, width, height, event);
+        }
+        if (event.shouldCommit()) {
+            event.pageIndex = pageIndex;
+            event.width = width;
+            event.height = height;
+            event.commit();
+        }
+        if (bounds == null) {
+            bounds = new Rectangle2D.Double(0, 0, width, height);
+        }
+        return toPageSpace(bounds, page);
     }
 
-    private static Rectangle2D calculateBoundingBox(RenderedImage image) {
-        byte[] pixels = ((DataBufferByte) image.getData().getDataBuffer()).getData();
+    /*
+     * Renders the region of the page image and finds the bounds of the ink pixels in it.
+     * The bounds are returned in the coordinates of the whole page image.
+     */
+    private Rectangle2D renderRegion(int pageIndex, int x, int y, int width, int height,
+            PandoraEvents.PageRenderEvent event) throws IOException {
+        final long cost = MemoryGovernor.estimateCost(width, height);
+        final long waitStart = System.nanoTime();
+        final MemoryGovernor.Permit permit;
+        try {
+            permit = governor.acquire(cost);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for memory to render page " + (pageIndex + 1));
+        }
+        try {
+            if (event.isEnabled()) {
+                event.memoryCost = Math.max(event.memoryCost, cost);
+                event.budgetWait += System.nanoTime() - waitStart;
+                event.tiles++;
+            }
+            try (RasterPool.Lease lease = rasterPool.acquire(getRasterSize(width, height))) {
+                if (event.isEnabled()) {
+                    event.rasterReused |= lease.isReused();
+                }
+                BufferedImage image = renderImage(pageIndex, lease.getBuffer(), x, y, width, height);
+                Rectangle2D bounds = findInkBounds(image);
+                if (bounds == null || (x == 0 && y == 0)) {
+                    return bounds;
+                }
+                return new Rectangle2D.Double(bounds.getX() + x, bounds.getY() + y,
+                        bounds.getWidth(), bounds.getHeight());
+            }
+        } finally {
+            permit.close();
+        }
+    }
+
+    /**
+     * Returns the size of the 1-bit raster of the image.
+     *
+     * @param width the width of the image in pixels.
+     * @param height the height of the image in pixels.
+     * @return the size of the raster in bytes.
+     */
+    static int getRasterSize(int width, int height) {
+        return (width + Byte.SIZE - 1) / Byte.SIZE * height;
+    }
+
+    /*
+     * Renders the region of the page into the 1-bit image backed by the buffer,
+     * which may be larger than the raster and may have been used before.
+     */
+    private BufferedImage renderImage(int pageIndex, byte[] buffer, int x, int y, int width, int height)
+            throws IOException {
+        DataBufferByte dataBuffer = new DataBufferByte(buffer, getRasterSize(width, height));
+        WritableRaster raster = Raster.createPackedRaster(dataBuffer, width, height, 1, null);
+        BufferedImage image = new BufferedImage(INK_OR_WHITE, raster, false, null);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setBackground(Color.WHITE);
+            g.clearRect(0, 0, width, height);
+            g.translate(-x, -y);
+            renderer.renderPageToGraphics(pageIndex, g, scale);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /*
+     * Maps the bounds in the image back into the default user space of the page,
+     * inverting the transforms applied by PDFRenderer and PageDrawer.
+     */
+    private Rectangle2D toPageSpace(Rectangle2D bounds, PDPage page) throws IOException {
+        PDRectangle cropBox = page.getCropBox();
+        AffineTransform transform = AffineTransform.getScaleInstance(scale, scale);
+        switch (page.getRotation()) {
+        case 90:
+            transform.translate(cropBox.getHeight(), 0);
+            break;
+        case 180:
+            transform.translate(cropBox.getWidth(), cropBox.getHeight());
+            break;
+        case 270:
+            transform.translate(0, cropBox.getWidth());
+            break;
+        default:
+            break;
+        }
+        transform.rotate(Math.toRadians(page.getRotation()));
+        transform.translate(0, cropBox.getHeight());
+        transform.scale(1, -1);
+        transform.translate(-cropBox.getLowerLeftX(), -cropBox.getLowerLeftY());
+        try {
+            return transform.createInverse().createTransformedShape(bounds).getBounds2D();
+        } catch (NoninvertibleTransformException e) {
+            throw new IOException(e);
+        }
+    }
 
+    /**
+     * Finds the bounds of the ink pixels in the 1-bit image.
+     *
+     * @param image the image rendered.
+     * @return the bounds in pixels, or {@code null} if the image has no ink pixels.
+     */
+    static Rectangle2D findInkBounds(BufferedImage image) {
+        byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int stride = ((MultiPixelPackedSampleModel) image.getSampleModel()).getScanlineStride();
         final int w = image.getWidth();
         final int h = image.getHeight();
 
-        final int minX = getMinX(pixels, w, h);
-        final int maxX = getMaxX(pixels, w, h);
-        final int minY = getMinY(pixels, w, h);
-        final int maxY = getMaxY(pixels, w, h);
+        int minY = 0;
+        while (minY < h && !hasInk(data, minY * stride, w)) {
+            minY++;
+        }
+        if (minY == h) {
+            return null;
+        }
+        int maxY = h - 1;
+        while (!hasInk(data, maxY * stride, w)) {
+            maxY--;
+        }
+
+        int minX = w - 1;
+        int maxX = 0;
+        for (int y = minY; y <= maxY; y++) {
+            int offset = y * stride;
+            minX = findMinX(data, offset, w, minX);
+            maxX = findMaxX(data, offset, w, maxX);
+        }
 
-        return new Rectangle2D.Double(
-                minX,
-                h - (maxY + 1),
-                maxX - minX + 1,
-                maxY - minY + 1);
+        return new Rectangle2D.Double(minX, minY, maxX - minX + 1, maxY - minY + 1);
     }
 
-    private static int getMinX(byte[] pixels, int w, int h) {
-        for (int x = 0; x < w; x++) {
-            int index = x;
-            for (int y = 0; y < h; y++) {
-                if (pixels[index] != WHITE) {
-                    return x;
-                }
-                index += w;
+    private static boolean hasInk(byte[] data, int offset, int w) {
+        for (int x = 0; x < w; x += Long.SIZE) {
+            if (inkAt(data, offset, x, w) != 0) {
+                return true;
             }
         }
-        return 0;
+        return false;
     }
 
-    private static int getMaxX(byte[] pixels, int w, int h) {
-        for (int x = w - 1; x >= 0; x--) {
-            int index = x;
-            for (int y = 0; y < h; y++) {
-                if (pixels[index] != WHITE) {
-                    return x;
-                }
-                index += w;
+    /*
+     * Returns the leftmost ink in the row if it is to the left of the current minimum.
+     */
+    private static int findMinX(byte[] data, int offset, int w, int minX) {
+        for (int x = 0; x <= minX; x += Long.SIZE) {
+            long ink = inkAt(data, offset, x, w);
+            if (ink != 0) {
+                return Math.min(minX, x + Long.numberOfLeadingZeros(ink));
             }
         }
-        return w - 1;
+        return minX;
     }
 
-    private static int getMinY(byte[] pixels, int w, int h) {
-        int index = 0;
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                if (pixels[index++] != WHITE) {
-                    return y;
-                }
+    /*
+     * Returns the rightmost ink in the row if it is to the right of the current maximum.
+     */
+    private static int findMaxX(byte[] data, int offset, int w, int maxX) {
+        int lowest = maxX & -Long.SIZE;
+        for (int x = (w - 1) & -Long.SIZE; x >= lowest; x -= Long.SIZE) {
+            long ink = inkAt(data, offset, x, w);
+            if (ink != 0) {
+                return Math.max(maxX, x + Long.SIZE - 1 - Long.numberOfTrailingZeros(ink));
             }
         }
-        return 0;
+        return maxX;
     }
 
-    private static int getMaxY(byte[] pixels, int w, int h) {
-        int index = pixels.length - 1;
-        for (int y = h - 1; y >= 0; y--) {
-            for (int x = w - 1; x >= 0; x--) {
-                if (pixels[index--] != WHITE) {
-                    return y;
+    /*
+     * Returns 64 pixels of the row starting at x, which must be a multiple of 64,
+     * as bits from the most significant one. Ink pixels are 1,
+     * and the pixels beyond the width of the row are 0.
+     */
+    private static long inkAt(byte[] data, int offset, int x, int w) {
+        int start = offset + (x >>> 3);
+        int remaining = w - x;
+        if (remaining >= Long.SIZE) {
+            return ~(long) LONGS.get(data, start);
+        }
+        long word = 0;
+        for (int i = 0; i < remaining; i += Byte.SIZE) {
+            word |= (data[start + (i >>> 3)] & 0xFFL) << (Long.SIZE - Byte.SIZE - i);
+        }
+        return ~word & (-1L << (Long.SIZE - remaining));
+    }
+
+    private static Rectangle2D union(Rectangle2D a, Rectangle2D b) {
+        if (a == null) {
+            return b;
+        } else if (b == null) {
+            return a;
+        }
+        return a.createUnion(b);
+    }
+
+    /**
+     * A page image rendered tile by tile.
+     *
+     * <p>
+     * The rows of tiles are rendered from the top and from the bottom until ink is found,
+     * which fixes the top and the bottom edges. The tiles between the two rows can move only
+     * the left and the right edges, so only the columns which can still move them are rendered,
+     * from the outside in. The tiles are rendered one after another,
+     * because a document cannot be rendered by multiple threads at the same time.
+     * </p>
+     */
+    private final class TiledPage {
+
+        private final int pageIndex;
+        private final int width;
+        private final int height;
+        private final PandoraEvents.PageRenderEvent event;
+        private final int columns;
+        private final int rows;
+
+        TiledPage(int pageIndex, int width, int height, PandoraEvents.PageRenderEvent event) {
+            this.pageIndex = pageIndex;
+            this.width = width;
+            this.height = height;
+            this.event = event;
+            this.columns = (width - 1) / tileSize + 1;
+            this.rows = (height - 1) / tileSize + 1;
+        }
+
+        Rectangle2D findInkBounds() throws IOException {
+            int top = 0;
+            Rectangle2D bounds = renderRow(top);
+            while (bounds == null && ++top < rows) {
+                bounds = renderRow(top);
+            }
+            if (bounds == null) {
+                return null;
+            }
+            int bottom = rows - 1;
+            while (bottom > top) {
+                Rectangle2D found = renderRow(bottom);
+                if (found != null) {
+                    bounds = bounds.createUnion(found);
+                    break;
                 }
+                bottom--;
+            }
+            if (bottom - top < 2) {
+                return bounds;
+            }
+            int left = 0;
+            while (left < columns && (long) left * tileSize < bounds.getMinX()) {
+                bounds = union(bounds, renderColumn(left++, top + 1, bottom - 1));
+            }
+            int right = columns - 1;
+            while (right >= left && (long) (right + 1) * tileSize > bounds.getMaxX()) {
+                bounds = union(bounds, renderColumn(right--, top + 1, bottom - 1));
             }
+            return bounds;
+        }
+
+        private Rectangle2D renderRow(int row) throws IOException {
+            Rectangle2D bounds = null;
+            for (int column = 0; column < columns; column++) {
+                bounds = union(bounds, renderTile(row, column));
+            }
+            return bounds;
+        }
+
+        private Rectangle2D renderColumn(int column, int firstRow, int lastRow) throws IOException {
+            Rectangle2D bounds = null;
+            for (int row = firstRow; row <= lastRow; row++) {
+                bounds = union(bounds, renderTile(row, column));
+            }
+            return bounds;
+        }
+
+        private Rectangle2D renderTile(int row, int column) throws IOException {
+            int x = column * tileSize;
+            int y = row * tileSize;
+            return renderRegion(pageIndex, x, y,
+                    Math.min(tileSize, width - x), Math.min(tileSize, height - y), event);
         }
-        return h - 1;
     }
 }
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads which run the I/O-bound jobs such as loading and saving documents.
+ *
+ * <p>
+ * This implementation runs each job on a daemon platform thread, which is reused by later jobs.
+ * The multi-release jar replaces this class with the implementation
+ * running each job on its own virtual thread on Java 21 and later.
+ * </p>
+ *
+ * @author leadpony
+ */
+final class JobThreads {
+
+    private JobThreads() {
+    }
+
+    /**
+     * Creates an executor which starts each job immediately without queueing.
+     * The number of the jobs running at the same time must be bounded by the caller.
+     *
+     * @param name the prefix of the names of the threads.
+     * @return newly created executor.
+     */
+    static ExecutorService newExecutor(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,632 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import static org.leadpony.pandora.ObjectSerializer.writeAscii;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+/**
+ * A writer of linearized PDF documents, also known as "Fast Web View".
+ *
+ * <p>
+ * The file is organized as described in Annex F of ISO 32000-1:
+ * the linearization parameter dictionary and the first-page cross-reference
+ * table are followed by the document catalog, the primary hint stream and
+ * the objects of the first page. The objects private to each of the remaining
+ * pages follow in page order, then the objects shared by multiple pages,
+ * then all other objects, and finally the main cross-reference table.
+ * </p>
+ * <p>
+ * The attributes which each page inherits from the page tree, such as the resources,
+ * are copied into the page object before the objects are partitioned,
+ * so that the objects they refer to belong to the pages using them.
+ * </p>
+ * <p>
+ * The hint stream contains the page offset hint table and
+ * the shared object hint table. Each shared object forms its own group,
+ * and the content stream fields of the page offset hint table are not used.
+ * </p>
+ *
+ * @author leadpony
+ */
+class LinearizedWriter {
+
+    private static final byte[] HEADER_COMMENT = {
+            '%', (byte) 0xe2, (byte) 0xe3, (byte) 0xcf, (byte) 0xd3, '\n'
+            };
+
+    /*
+     * Integers in the linearization parameter dictionary and
+     * in the first-page trailer are padded to this width,
+     * because they must be written before their values are known.
+     */
+    private static final long MAX_PADDED_VALUE = 9_999_999_999L;
+
+    private static final List<COSName> INHERITABLE_ATTRIBUTES = List.of(
+            COSName.RESOURCES, COSName.MEDIA_BOX, COSName.CROP_BOX, COSName.ROTATE);
+
+    private static final String LINEARIZATION_DICTIONARY =
+            "%d 0 obj\n<< /Linearized 1 /L %d /H [ %d %d ] /O %d /E %d /N %d /T %d >>";
+
+    private final PDDocument doc;
+
+    LinearizedWriter(PDDocument doc) {
+        this.doc = doc;
+    }
+
+    /**
+     * Writes the document.
+     *
+     * @param output the output stream.
+     * @throws IOException if an I/O error has occurred.
+     */
+    void write(OutputStream output) throws IOException {
+        List<COSDictionary> pages = new ArrayList<>();
+        Set<COSBase> pageSet = identitySet();
+        for (PDPage page : doc.getPages()) {
+            if (!pageSet.add(page.getCOSObject())) {
+                // A page object shared by multiple pages cannot be linearized.
+                pageSet.clear();
+                break;
+            }
+            pages.add(page.getCOSObject());
+        }
+        if (pageSet.isEmpty()) {
+            doc.save(output);
+            return;
+        }
+        for (COSDictionary page : pages) {
+            resolveInheritedAttributes(page);
+        }
+        new Layout(pages).write(output);
+    }
+
+    /*
+     * Copies the attributes inherited from the ancestors into the page,
+     * because the traversal of the page does not go up to its parent.
+     */
+    private static void resolveInheritedAttributes(COSDictionary page) {
+        for (COSName key : INHERITABLE_ATTRIBUTES) {
+            if (page.containsKey(key)) {
+                continue;
+            }
+            Set<COSBase> visited = identitySet();
+            COSDictionary node = page.getCOSDictionary(COSName.PARENT);
+            while (node != null && visited.add(node)) {
+                COSBase value = node.getItem(key);
+                if (value != null) {
+                    page.setItem(key, value);
+                    break;
+                }
+                node = node.getCOSDictionary(COSName.PARENT);
+            }
+        }
+    }
+
+    private static Set<COSBase> identitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    private static boolean isPageTreeNode(COSBase object) {
+        if (object instanceof COSDictionary) {
+            COSBase type = ((COSDictionary) object).getDictionaryObject(COSName.TYPE);
+            return COSName.PAGE.equals(type) || COSName.PAGES.equals(type);
+        }
+        return false;
+    }
+
+    /**
+     * The layout of a linearized file.
+     */
+    private class Layout {
+
+        private final COSDictionary trailer;
+        private final COSDictionary catalog;
+        private final COSDictionary info;
+        private final List<COSDictionary> pages;
+
+        // The objects for the first page, including the page object.
+        private final List<COSBase> firstPage = new ArrayList<>();
+        // The objects private to each of the remaining pages.
+        private final List<List<COSBase>> otherPages = new ArrayList<>();
+        // The objects shared by the pages other than the first page.
+        private final List<COSBase> shared = new ArrayList<>();
+        private final List<COSBase> others = new ArrayList<>();
+        // Identifiers in the shared object hint table referenced from each page.
+        private final List<List<Integer>> sharedReferences = new ArrayList<>();
+
+        private final Map<COSBase, Integer> numbers = new IdentityHashMap<>();
+        private final Map<COSBase, byte[]> serialized = new IdentityHashMap<>();
+
+        Layout(List<COSDictionary> pages) {
+            this.trailer = doc.getDocument().getTrailer();
+            this.catalog = doc.getDocumentCatalog().getCOSObject();
+            this.info = trailer.getCOSDictionary(COSName.INFO);
+            this.pages = pages;
+            partition();
+        }
+
+        private void partition() {
+            List<List<COSBase>> pageObjects = new ArrayList<>();
+            Map<COSBase, Integer> users = new IdentityHashMap<>();
+            for (COSDictionary page : pages) {
+                List<COSBase> objects = collectPageObjects(page);
+                for (COSBase object : objects) {
+                    users.merge(object, 1, Integer::sum);
+                }
+                pageObjects.add(objects);
+            }
+
+            Set<COSBase> placed = identitySet();
+            placed.add(catalog);
+            for (COSBase object : pageObjects.get(0)) {
+                if (placed.add(object)) {
+                    firstPage.add(object);
+                }
+            }
+            for (int i = 1; i < pages.size(); i++) {
+                List<COSBase> section = new ArrayList<>();
+                for (COSBase object : pageObjects.get(i)) {
+                    if (users.get(object) == 1 && placed.add(object)) {
+                        section.add(object);
+                    }
+                }
+                otherPages.add(section);
+            }
+            for (int i = 1; i < pages.size(); i++) {
+                for (COSBase object : pageObjects.get(i)) {
+                    if (placed.add(object)) {
+                        shared.add(object);
+                    }
+                }
+            }
+            for (COSBase object : ObjectSerializer.collectObjects(Arrays.asList(catalog, info))) {
+                if (placed.add(object)) {
+                    others.add(object);
+                }
+            }
+
+            Map<COSBase, Integer> sharedIds = new IdentityHashMap<>();
+            for (COSBase object : firstPage) {
+                sharedIds.put(object, sharedIds.size());
+            }
+            for (COSBase object : shared) {
+                sharedIds.put(object, sharedIds.size());
+            }
+            sharedReferences.add(List.of());
+            for (int i = 1; i < pages.size(); i++) {
+                List<Integer> ids = new ArrayList<>();
+                for (COSBase object : pageObjects.get(i)) {
+                    Integer id = sharedIds.get(object);
+                    if (id != null) {
+                        ids.add(id);
+                    }
+                }
+                sharedReferences.add(ids);
+            }
+        }
+
+        /*
+         * Collects the objects required to display the page.
+         * The traversal does not go up to the parent nodes
+         * nor into other pages.
+         */
+        private List<COSBase> collectPageObjects(COSDictionary page) {
+            Set<COSBase> found = identitySet();
+            List<COSBase> objects = new ArrayList<>();
+            Deque<COSBase> queue = new ArrayDeque<>();
+            found.add(page);
+            queue.add(page);
+            while (!queue.isEmpty()) {
+                COSBase object = queue.removeFirst();
+                objects.add(object);
+                ObjectSerializer.forEachReference(object, (key, target) -> {
+                    if (COSName.PARENT.equals(key) || COSName.P.equals(key)
+                            || target == catalog || isPageTreeNode(target)) {
+                        return;
+                    }
+                    if (found.add(target)) {
+                        queue.addLast(target);
+                    }
+                });
+            }
+            return objects;
+        }
+
+        void write(OutputStream output) throws IOException {
+            // The main part is numbered first, from 1 to m.
+            int number = 1;
+            for (List<COSBase> section : otherPages) {
+                number = assignNumbers(section, number);
+            }
+            number = assignNumbers(shared, number);
+            number = assignNumbers(others, number);
+            final int mainSize = number;
+            final int linearizationNumber = number++;
+            number = assignNumbers(List.of(catalog), number);
+            final int hintNumber = number++;
+            number = assignNumbers(firstPage, number);
+            final int totalSize = number;
+
+            ObjectSerializer serializer = new ObjectSerializer(numbers);
+            for (COSBase object : numbers.keySet()) {
+                serialized.put(object, serializer.toIndirectObject(numbers.get(object), object));
+            }
+
+            byte[] header = createHeader();
+            final int linearizationLength = linearizationDictionary(
+                    linearizationNumber, 0, 0, 0, 0, 0, 0, 0).length;
+            byte[] idArray = createIdArray(serializer);
+            final int firstXrefLength = firstPageXrefTable(mainSize, totalSize, 0, Map.of(), 0).length
+                    + firstPageTrailer(totalSize, idArray, MAX_PADDED_VALUE).length;
+
+            // Offsets are calculated as if the hint stream were not present.
+            Map<COSBase, Long> offsets = new IdentityHashMap<>();
+            long offset = header.length + linearizationLength;
+            final long firstXrefOffset = offset;
+            offset += firstXrefLength;
+            offset = placeObjects(List.of(catalog), offset, offsets);
+            final long hintOffset = offset;
+            offset = placeObjects(firstPage, offset, offsets);
+            final long firstPageEnd = offset;
+            for (List<COSBase> section : otherPages) {
+                offset = placeObjects(section, offset, offsets);
+            }
+            offset = placeObjects(shared, offset, offsets);
+            offset = placeObjects(others, offset, offsets);
+
+            byte[] hintStream = createHintStream(hintNumber, offsets, hintOffset);
+            for (Map.Entry<COSBase, Long> entry : offsets.entrySet()) {
+                if (entry.getValue() >= hintOffset) {
+                    entry.setValue(entry.getValue() + hintStream.length);
+                }
+            }
+            final long mainXrefOffset = offset + hintStream.length;
+
+            byte[] mainXref = mainXrefTable(mainSize, offsets, firstXrefOffset);
+            final long fileLength = mainXrefOffset + mainXref.length;
+            final long mainXrefWhitespace = mainXrefOffset + ("xref\n0 " + mainSize).length();
+
+            output.write(header);
+            output.write(linearizationDictionary(linearizationNumber,
+                    fileLength, hintOffset, hintStream.length,
+                    numbers.get(pages.get(0)), firstPageEnd + hintStream.length,
+                    pages.size(), mainXrefWhitespace));
+            output.write(firstPageXrefTable(mainSize, totalSize, header.length, offsets, hintOffset));
+            output.write(firstPageTrailer(totalSize, idArray, mainXrefOffset));
+            output.write(serialized.get(catalog));
+            output.write(hintStream);
+            writeObjects(firstPage, output);
+            for (List<COSBase> section : otherPages) {
+                writeObjects(section, output);
+            }
+            writeObjects(shared, output);
+            writeObjects(others, output);
+            output.write(mainXref);
+        }
+
+        private int assignNumbers(List<COSBase> objects, int first) {
+            int number = first;
+            for (COSBase object : objects) {
+                numbers.put(object, number++);
+            }
+            return number;
+        }
+
+        private long placeObjects(List<COSBase> objects, long first, Map<COSBase, Long> offsets) {
+            long offset = first;
+            for (COSBase object : objects) {
+                offsets.put(object, offset);
+                offset += serialized.get(object).length;
+            }
+            return offset;
+        }
+
+        private void writeObjects(List<COSBase> objects, OutputStream output) throws IOException {
+            for (COSBase object : objects) {
+                output.write(serialized.get(object));
+            }
+        }
+
+        private byte[] createHeader() {
+            float version = Math.max(doc.getVersion(), 1.2f);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.writeBytes(String.format(Locale.ROOT, "%%PDF-%.1f\n", version)
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.writeBytes(HEADER_COMMENT);
+            return out.toByteArray();
+        }
+
+        private byte[] createIdArray(ObjectSerializer serializer) throws IOException {
+            COSArray id = ObjectSerializer.getFileIdentifiers(trailer, numbers.size());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            serializer.writeValue(id, out);
+            return out.toByteArray();
+        }
+
+        /*
+         * The values are the object number, /L, /H, /O, /E, /N and /T in order.
+         */
+        private byte[] linearizationDictionary(Object... values) {
+            Object[] maxValues = values.clone();
+            for (int i = 1; i < maxValues.length; i++) {
+                maxValues[i] = MAX_PADDED_VALUE;
+            }
+            int width = String.format(Locale.ROOT, LINEARIZATION_DICTIONARY, maxValues).length();
+            return pad(String.format(Locale.ROOT, LINEARIZATION_DICTIONARY, values), width, "\nendobj\n");
+        }
+
+        private byte[] firstPageXrefTable(int mainSize, int totalSize,
+                long linearizationOffset, Map<COSBase, Long> offsets, long hintOffset) {
+            StringBuilder builder = new StringBuilder();
+            builder.append("xref\n").append(mainSize).append(' ').append(totalSize - mainSize).append('\n');
+            appendXrefEntry(builder, linearizationOffset);
+            appendXrefEntry(builder, offsets.getOrDefault(catalog, 0L));
+            appendXrefEntry(builder, hintOffset);
+            for (COSBase object : firstPage) {
+                appendXrefEntry(builder, offsets.getOrDefault(object, 0L));
+            }
+            return builder.toString().getBytes(StandardCharsets.US_ASCII);
+        }
+
+        private byte[] firstPageTrailer(int totalSize, byte[] idArray, long prev) {
+            StringBuilder builder = new StringBuilder();
+            builder.append("trailer\n<< /Size ").append(totalSize)
+                .append(" /Root ").append(numbers.get(catalog)).append(" 0 R");
+            if (info != null) {
+                builder.append(" /Info ").append(numbers.get(info)).append(" 0 R");
+            }
+            builder.append(" /ID ").append(new String(idArray, StandardCharsets.ISO_8859_1));
+            builder.append(" /Prev ");
+            String head = builder.toString();
+            int width = (head + MAX_PADDED_VALUE + " >>").length();
+            return pad(head + prev + " >>", width, "\nstartxref\n0\n%%EOF\n");
+        }
+
+        private byte[] mainXrefTable(int mainSize, Map<COSBase, Long> offsets, long firstXrefOffset) {
+            long[] table = new long[mainSize];
+            for (Map.Entry<COSBase, Long> entry : offsets.entrySet()) {
+                int number = numbers.get(entry.getKey());
+                if (number < mainSize) {
+                    table[number] = entry.getValue();
+                }
+            }
+            StringBuilder builder = new StringBuilder();
+            builder.append("xref\n0 ").append(mainSize).append('\n');
+            builder.append("0000000000 65535 f\r\n");
+            for (int i = 1; i < mainSize; i++) {
+                appendXrefEntry(builder, table[i]);
+            }
+            builder.append("trailer\n<< /Size ").append(mainSize).append(" >>\n");
+            builder.append("startxref\n").append(firstXrefOffset).append("\n%%EOF\n");
+            return builder.toString().getBytes(StandardCharsets.US_ASCII);
+        }
+
+        private void appendXrefEntry(StringBuilder builder, long offset) {
+            builder.append(String.format(Locale.ROOT, "%010d 00000 n\r\n", offset));
+        }
+
+        private byte[] pad(String s, int width, String suffix) {
+            StringBuilder builder = new StringBuilder(s);
+            while (builder.length() < width) {
+                builder.append(' ');
+            }
+            builder.append(suffix);
+            return builder.toString().getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        private byte[] createHintStream(int number, Map<COSBase, Long> offsets, long firstPageOffset)
+                throws IOException {
+            BitWriter bits = new BitWriter();
+            writePageOffsetHintTable(bits, firstPageOffset);
+            final int sharedTableOffset = bits.size();
+            writeSharedObjectHintTable(bits, offsets);
+            byte[] data = bits.toByteArray();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writeAscii(number + " 0 obj\n<< /Length " + data.length + " /S " + sharedTableOffset
+                    + " >>\nstream\r\n", out);
+            out.write(data);
+            writeAscii("\r\nendstream\nendobj\n", out);
+            return out.toByteArray();
+        }
+
+        private void writePageOffsetHintTable(BitWriter bits, long firstPageOffset) {
+            final int pageCount = pages.size();
+            long[] objectCounts = new long[pageCount];
+            long[] pageLengths = new long[pageCount];
+            objectCounts[0] = firstPage.size();
+            pageLengths[0] = totalLength(firstPage);
+            for (int i = 1; i < pageCount; i++) {
+                List<COSBase> section = otherPages.get(i - 1);
+                objectCounts[i] = section.size();
+                pageLengths[i] = totalLength(section);
+            }
+            long minObjects = min(objectCounts);
+            long minLength = min(pageLengths);
+            int objectBits = bitsFor(max(objectCounts) - minObjects);
+            int lengthBits = bitsFor(max(pageLengths) - minLength);
+            long maxShared = 0;
+            long maxSharedId = 0;
+            for (List<Integer> ids : sharedReferences) {
+                maxShared = Math.max(maxShared, ids.size());
+                for (int id : ids) {
+                    maxSharedId = Math.max(maxSharedId, id);
+                }
+            }
+            int sharedBits = bitsFor(maxShared);
+            int sharedIdBits = bitsFor(maxSharedId);
+
+            // Header
+            bits.write(minObjects, 32);
+            bits.write(firstPageOffset, 32);
+            bits.write(objectBits, 16);
+            bits.write(minLength, 32);
+            bits.write(lengthBits, 16);
+            // Content stream offsets and lengths are not provided.
+            bits.write(0, 32);
+            bits.write(0, 16);
+            bits.write(0, 32);
+            bits.write(0, 16);
+            bits.write(sharedBits, 16);
+            bits.write(sharedIdBits, 16);
+            // Fractional positions of shared objects are not provided.
+            bits.write(0, 16);
+            bits.write(1, 16);
+
+            // Entries, item by item.
+            for (long count : objectCounts) {
+                bits.write(count - minObjects, objectBits);
+            }
+            bits.align();
+            for (long length : pageLengths) {
+                bits.write(length - minLength, lengthBits);
+            }
+            bits.align();
+            for (List<Integer> ids : sharedReferences) {
+                bits.write(ids.size(), sharedBits);
+            }
+            bits.align();
+            for (List<Integer> ids : sharedReferences) {
+                for (int id : ids) {
+                    bits.write(id, sharedIdBits);
+                }
+            }
+            bits.align();
+        }
+
+        private void writeSharedObjectHintTable(BitWriter bits, Map<COSBase, Long> offsets) {
+            List<COSBase> groups = new ArrayList<>(firstPage);
+            groups.addAll(shared);
+            long[] lengths = new long[groups.size()];
+            for (int i = 0; i < lengths.length; i++) {
+                lengths[i] = serialized.get(groups.get(i)).length;
+            }
+            long minLength = min(lengths);
+            int lengthBits = bitsFor(max(lengths) - minLength);
+
+            // Header
+            if (shared.isEmpty()) {
+                bits.write(0, 32);
+                bits.write(0, 32);
+            } else {
+                bits.write(numbers.get(shared.get(0)), 32);
+                bits.write(offsets.get(shared.get(0)), 32);
+            }
+            bits.write(firstPage.size(), 32);
+            bits.write(groups.size(), 32);
+            // Every group consists of a single object.
+            bits.write(0, 16);
+            bits.write(minLength, 32);
+            bits.write(lengthBits, 16);
+
+            // Entries, item by item.
+            for (long length : lengths) {
+                bits.write(length - minLength, lengthBits);
+            }
+            bits.align();
+            // No signatures.
+            for (int i = 0; i < lengths.length; i++) {
+                bits.write(0, 1);
+            }
+            bits.align();
+        }
+
+        private long totalLength(List<COSBase> objects) {
+            long total = 0;
+            for (COSBase object : objects) {
+                total += serialized.get(object).length;
+            }
+            return total;
+        }
+    }
+
+    private static long min(long[] values) {
+        long min = Long.MAX_VALUE;
+        for (long value : values) {
+            min = Math.min(min, value);
+        }
+        return (values.length > 0) ? min : 0;
+    }
+
+    private static long max(long[] values) {
+        long max = 0;
+        for (long value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+
+    private static int bitsFor(long value) {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * A writer of the bit-packed values in the hint tables.
+     */
+    private static class BitWriter {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int buffer;
+        private int count;
+
+        void write(long value, int bits) {
+            for (int i = bits - 1; i >= 0; i--) {
+                buffer = (buffer << 1) | (int) ((value >>> i) & 1);
+                if (++count == 8) {
+                    out.write(buffer);
+                    buffer = 0;
+                    count = 0;
+                }
+            }
+        }
+
+        void align() {
+            if (count > 0) {
+                write(0, 8 - count);
+            }
+        }
+
+        int size() {
+            return out.size();
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+}
@@ -16,6 +16,7 @@
 
 package org.leadpony.pandora;
 
+import java.nio.file.Path;
 import java.util.Objects;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
@@ -28,15 +29,21 @@ import org.apache.pdfbox.pdmodel.PDDocument;
 interface Margin {
 
     Margin BOUNDING_BOX_MARGIN = (doc, context) -> {
-        return new BoundsCropStrategy(context, new ImageBasedBoundingBoxFinder(doc));
+        return new BoundsCropStrategy(context, new ImageBasedBoundingBoxFinder(doc, context));
     };
 
     Margin FAST_BOUNDING_BOX_MARGIN = (doc, context) -> {
-        return new BoundsCropStrategy(context, BoundingBoxFinder.SIMPLE);
+        return new BoundsCropStrategy(context,
+                new SimpleBoundingBoxFinder(context.includesAnnotations()));
+    };
+
+    Margin HYBRID_BOUNDING_BOX_MARGIN = (doc, context) -> {
+        return new BoundsCropStrategy(context, new HybridBoundingBoxFinder(doc, context));
     };
 
     Margin TEXT_BOUNDING_BOX_MARGIN = (doc, context) -> {
-        return new BoundsCropStrategy(context, BoundingBoxFinder.TEXT_ONLY);
+        return new BoundsCropStrategy(context,
+                new TextBoundingBoxFinder(context.includesAnnotations()));
     };
 
     /**
@@ -51,8 +58,12 @@ interface Margin {
             return BOUNDING_BOX_MARGIN;
         } else if ("fast-bbox".equalsIgnoreCase(value)) {
             return FAST_BOUNDING_BOX_MARGIN;
+        } else if ("hybrid-bbox".equalsIgnoreCase(value)) {
+            return HYBRID_BOUNDING_BOX_MARGIN;
         } else if ("text-bbox".equalsIgnoreCase(value)) {
             return TEXT_BOUNDING_BOX_MARGIN;
+        } else if (PrecomputedMargin.isFile(value)) {
+            return PrecomputedMargin.load(Path.of(value));
         }
         return FixedMargin.valueOf(value);
     }
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * A governor which admits the rendering of pages within a memory budget.
+ *
+ * <p>
+ * Each rendering acquires a permit for its estimated cost in bytes before it starts,
+ * and waits while the permits already granted leave too little of the budget.
+ * Permits are granted in the order of the requests, so that a large page
+ * is not starved by a stream of small ones.
+ * A request larger than the whole budget is granted when no other permit is held,
+ * which renders the page alone instead of failing.
+ * </p>
+ *
+ * @author leadpony
+ */
+class MemoryGovernor {
+
+    /*
+     * PDFBox draws transparency groups and soft masks into ARGB images
+     * at the device resolution, whichever image the page is rendered into.
+     */
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private static final long MEBIBYTE = 1024 * 1024;
+
+    private final long budget;
+    private final Queue<Object> waiters = new ArrayDeque<>();
+    private long used;
+
+    /**
+     * Constructs this governor.
+     *
+     * @param budget the memory budget in bytes.
+     */
+    MemoryGovernor(long budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive: " + budget);
+        }
+        this.budget = budget;
+    }
+
+    /**
+     * Creates a governor with the budget specified in mebibytes.
+     *
+     * @param mebibytes the memory budget in mebibytes,
+     *                  or {@code null} for half of the maximum heap size.
+     * @return newly created governor.
+     */
+    static MemoryGovernor ofMebibytes(Integer mebibytes) {
+        if (mebibytes == null) {
+            return new MemoryGovernor(Runtime.getRuntime().maxMemory() / 2);
+        }
+        return new MemoryGovernor(mebibytes * MEBIBYTE);
+    }
+
+    /**
+     * Estimates the memory required to render a page.
+     *
+     * @param width the width of the rendered image in pixels.
+     * @param height the height of the rendered image in pixels.
+     * @return the estimated cost in bytes.
+     */
+    static long estimateCost(int width, int height) {
+        return (long) width * height * BYTES_PER_PIXEL;
+    }
+
+    /**
+     * Returns the memory budget.
+     *
+     * @return the memory budget in bytes.
+     */
+    long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Acquires a permit, waiting until the cost fits into the budget.
+     *
+     * @param cost the estimated cost in bytes.
+     * @return the permit to be closed when the rendering finished.
+     * @throws InterruptedException if the current thread was interrupted while waiting.
+     */
+    Permit acquire(long cost) throws InterruptedException {
+        synchronized (this) {
+            final Object waiter = new Object();
+            waiters.add(waiter);
+            try {
+                while (waiters.peek() != waiter || (used > 0 && used + cost > budget)) {
+                    wait();
+                }
+            } finally {
+                waiters.remove(waiter);
+                notifyAll();
+            }
+            used += cost;
+        }
+        return new Permit(cost);
+    }
+
+    private synchronized void release(long cost) {
+        used -= cost;
+        notifyAll();
+    }
+
+    /**
+     * A permit to render a page.
+     */
+    class Permit implements AutoCloseable {
+
+        private final long cost;
+
+        Permit(long cost) {
+            this.cost = cost;
+        }
+
+        @Override
+        public void close() {
+            release(cost);
+        }
+    }
+}
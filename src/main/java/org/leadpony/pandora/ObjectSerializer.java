@@ -0,0 +1,292 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdfwriter.COSWriter;
+
+/**
+ * A serializer of the objects in a PDF document for the custom writers.
+ *
+ * <p>
+ * Whether a dictionary is written directly or as an indirect object follows
+ * the same rules as {@link COSWriter} does for a full save without encryption:
+ * streams and dictionaries not marked as direct are indirect objects,
+ * and any other values are written in place.
+ * </p>
+ *
+ * @author leadpony
+ */
+class ObjectSerializer {
+
+    private static final byte[] REFERENCE_SUFFIX = " 0 R".getBytes(StandardCharsets.US_ASCII);
+
+    private final Map<COSBase, Integer> numbers;
+
+    /**
+     * Constructs this serializer.
+     *
+     * @param numbers the object numbers assigned to the indirect objects.
+     */
+    ObjectSerializer(Map<COSBase, Integer> numbers) {
+        this.numbers = numbers;
+    }
+
+    /**
+     * Returns the indirect object referenced by the value.
+     *
+     * @param value the value in a dictionary or an array.
+     * @return the indirect object, or {@code null} if the value is written in place.
+     */
+    static COSBase getIndirectObject(COSBase value) {
+        if (value instanceof COSObject) {
+            COSBase actual = ((COSObject) value).getObject();
+            return (actual instanceof COSDictionary) ? actual : null;
+        } else if (value instanceof COSStream) {
+            return value;
+        } else if (value instanceof COSDictionary && !value.isDirect()) {
+            return value;
+        }
+        return null;
+    }
+
+    /**
+     * Visits the indirect objects referenced directly by the object.
+     *
+     * @param object the object to inspect.
+     * @param consumer the consumer receiving the nearest dictionary key
+     *                 and the referenced object.
+     */
+    static void forEachReference(COSBase object, BiConsumer<COSName, COSBase> consumer) {
+        if (object instanceof COSDictionary) {
+            for (Map.Entry<COSName, COSBase> entry : ((COSDictionary) object).entrySet()) {
+                visitValue(entry.getKey(), entry.getValue(), consumer);
+            }
+        } else if (object instanceof COSArray) {
+            for (COSBase item : (COSArray) object) {
+                visitValue(null, item, consumer);
+            }
+        }
+    }
+
+    /**
+     * Collects all indirect objects reachable from the roots in breadth-first order.
+     *
+     * @param roots the root objects, {@code null} elements are skipped.
+     * @return the list of the indirect objects including the roots.
+     */
+    static List<COSBase> collectObjects(List<COSBase> roots) {
+        Set<COSBase> found = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<COSBase> objects = new ArrayList<>();
+        Deque<COSBase> queue = new ArrayDeque<>();
+        for (COSBase root : roots) {
+            if (root != null && found.add(root)) {
+                queue.add(root);
+            }
+        }
+        while (!queue.isEmpty()) {
+            COSBase object = queue.removeFirst();
+            objects.add(object);
+            forEachReference(object, (key, target) -> {
+                if (found.add(target)) {
+                    queue.addLast(target);
+                }
+            });
+        }
+        return objects;
+    }
+
+    /**
+     * Returns the file identifiers of the document,
+     * or generates new ones if the document does not have valid identifiers.
+     *
+     * @param trailer the trailer of the document.
+     * @param objectCount the number of the objects written, used for generating identifiers.
+     * @return the array of the two identifiers.
+     */
+    static COSArray getFileIdentifiers(COSDictionary trailer, int objectCount) {
+        COSArray id = trailer.getCOSArray(COSName.ID);
+        if (id != null && id.size() == 2) {
+            return id;
+        }
+        byte[] digest;
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            md5.update(Long.toString(System.currentTimeMillis()).getBytes(StandardCharsets.US_ASCII));
+            md5.update(Integer.toString(objectCount).getBytes(StandardCharsets.US_ASCII));
+            digest = md5.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        id = new COSArray();
+        id.add(new COSString(digest));
+        id.add(new COSString(digest));
+        return id;
+    }
+
+    /**
+     * Serializes the object as an indirect object.
+     *
+     * @param number the object number.
+     * @param object the object to serialize.
+     * @return the bytes from "obj" to "endobj" inclusive.
+     * @throws IOException if an I/O error has occurred.
+     */
+    byte[] toIndirectObject(int number, COSBase object) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeAscii(number + " 0 obj\n", out);
+        writeObject(object, out);
+        writeAscii("\nendobj\n", out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the body of the indirect object.
+     * Streams are written with their raw data.
+     *
+     * @param object the object to write.
+     * @param out the output stream.
+     * @throws IOException if an I/O error has occurred.
+     */
+    void writeObject(COSBase object, OutputStream out) throws IOException {
+        if (object instanceof COSStream) {
+            COSStream stream = (COSStream) object;
+            byte[] data;
+            try (InputStream in = stream.createRawInputStream()) {
+                data = in.readAllBytes();
+            }
+            writeDictionary(stream, COSName.LENGTH, out);
+            writeAscii(" /Length " + data.length + " >>\nstream\r\n", out);
+            out.write(data);
+            writeAscii("\r\nendstream", out);
+        } else if (object instanceof COSDictionary) {
+            writeDictionary((COSDictionary) object, null, out);
+            writeAscii(" >>", out);
+        } else {
+            writeValue(object, out);
+        }
+    }
+
+    /**
+     * Writes the value in place, or a reference to it if it is an indirect object.
+     *
+     * @param value the value to write.
+     * @param out the output stream.
+     * @throws IOException if an I/O error has occurred.
+     */
+    void writeValue(COSBase value, OutputStream out) throws IOException {
+        COSBase indirect = getIndirectObject(value);
+        if (indirect != null) {
+            Integer number = numbers.get(indirect);
+            if (number == null) {
+                throw new IllegalStateException("Object number is not assigned.");
+            }
+            writeAscii(number.toString(), out);
+            out.write(REFERENCE_SUFFIX);
+        } else if (value instanceof COSObject) {
+            COSBase actual = ((COSObject) value).getObject();
+            writeValue((actual != null) ? actual : COSNull.NULL, out);
+        } else if (value instanceof COSDictionary) {
+            writeDictionary((COSDictionary) value, null, out);
+            writeAscii(" >>", out);
+        } else if (value instanceof COSArray) {
+            out.write('[');
+            boolean first = true;
+            for (COSBase item : (COSArray) value) {
+                if (!first) {
+                    out.write(' ');
+                }
+                writeValue((item != null) ? item : COSNull.NULL, out);
+                first = false;
+            }
+            out.write(']');
+        } else if (value instanceof COSString) {
+            COSWriter.writeString((COSString) value, out);
+        } else if (value instanceof COSName) {
+            ((COSName) value).writePDF(out);
+        } else if (value instanceof COSInteger) {
+            ((COSInteger) value).writePDF(out);
+        } else if (value instanceof COSFloat) {
+            ((COSFloat) value).writePDF(out);
+        } else if (value instanceof COSBoolean) {
+            ((COSBoolean) value).writePDF(out);
+        } else {
+            COSNull.NULL.writePDF(out);
+        }
+    }
+
+    static void writeAscii(String s, OutputStream out) throws IOException {
+        out.write(s.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void writeDictionary(COSDictionary dict, COSName excluded, OutputStream out) throws IOException {
+        writeAscii("<<", out);
+        for (Map.Entry<COSName, COSBase> entry : dict.entrySet()) {
+            COSBase value = entry.getValue();
+            if (value == null || entry.getKey().equals(excluded)) {
+                continue;
+            }
+            out.write(' ');
+            entry.getKey().writePDF(out);
+            out.write(' ');
+            writeValue(value, out);
+        }
+    }
+
+    private static void visitValue(COSName key, COSBase value, BiConsumer<COSName, COSBase> consumer) {
+        COSBase indirect = getIndirectObject(value);
+        if (indirect != null) {
+            consumer.accept(key, indirect);
+        } else if (value instanceof COSObject) {
+            visitValue(key, ((COSObject) value).getObject(), consumer);
+        } else if (value instanceof COSDictionary) {
+            for (Map.Entry<COSName, COSBase> entry : ((COSDictionary) value).entrySet()) {
+                visitValue(entry.getKey(), entry.getValue(), consumer);
+            }
+        } else if (value instanceof COSArray) {
+            for (COSBase item : (COSArray) value) {
+                visitValue(key, item, consumer);
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import static org.leadpony.pandora.ObjectSerializer.writeAscii;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * A writer of compact PDF documents using object streams and a cross-reference stream.
+ *
+ * <p>
+ * All dictionaries which are not streams are packed into Flate-compressed
+ * object streams, up to {@value #OBJECTS_PER_STREAM} objects each.
+ * The streams are written as they are, followed by the object streams,
+ * and finally by the cross-reference stream which also serves as the trailer.
+ * The cross-reference stream is compressed with the PNG Up predictor,
+ * which makes the similar rows of offsets highly compressible.
+ * </p>
+ *
+ * @author leadpony
+ */
+class ObjectStreamWriter {
+
+    private static final int OBJECTS_PER_STREAM = 100;
+
+    private static final byte[] HEADER_COMMENT = {
+            '%', (byte) 0xe2, (byte) 0xe3, (byte) 0xcf, (byte) 0xd3, '\n'
+            };
+
+    // The version which introduced object streams.
+    private static final float MIN_VERSION = 1.5f;
+
+    private static final int FREE_ENTRY = 0;
+    private static final int IN_FILE_ENTRY = 1;
+    private static final int COMPRESSED_ENTRY = 2;
+
+    private final PDDocument doc;
+    private final int level;
+
+    /**
+     * Constructs this writer.
+     *
+     * @param doc the document to write.
+     * @param level the level of {@link Deflater} for the object streams.
+     */
+    ObjectStreamWriter(PDDocument doc, int level) {
+        this.doc = doc;
+        this.level = level;
+    }
+
+    /**
+     * Writes the document.
+     *
+     * @param output the output stream.
+     * @throws IOException if an I/O error has occurred.
+     */
+    void write(OutputStream output) throws IOException {
+        COSDictionary trailer = doc.getDocument().getTrailer();
+        COSDictionary catalog = doc.getDocumentCatalog().getCOSObject();
+        COSDictionary info = trailer.getCOSDictionary(COSName.INFO);
+        List<COSBase> objects = ObjectSerializer.collectObjects(Arrays.asList(catalog, info));
+
+        Map<COSBase, Integer> numbers = new IdentityHashMap<>();
+        List<COSBase> streams = new ArrayList<>();
+        List<COSBase> packed = new ArrayList<>();
+        for (COSBase object : objects) {
+            numbers.put(object, numbers.size() + 1);
+            if (object instanceof COSStream) {
+                streams.add(object);
+            } else {
+                packed.add(object);
+            }
+        }
+        final int firstObjectStream = objects.size() + 1;
+        final int objectStreamCount = (packed.size() + OBJECTS_PER_STREAM - 1) / OBJECTS_PER_STREAM;
+        final int xrefNumber = firstObjectStream + objectStreamCount;
+        final int size = xrefNumber + 1;
+
+        ObjectSerializer serializer = new ObjectSerializer(numbers);
+        // The entries of the cross-reference stream, each of which is the type and the two fields.
+        long[][] entries = new long[size][];
+        entries[0] = new long[] {FREE_ENTRY, 0, 65535};
+
+        long offset = 0;
+        byte[] header = createHeader();
+        output.write(header);
+        offset += header.length;
+
+        for (COSBase object : streams) {
+            int number = numbers.get(object);
+            byte[] bytes = serializer.toIndirectObject(number, object);
+            output.write(bytes);
+            entries[number] = new long[] {IN_FILE_ENTRY, offset, 0};
+            offset += bytes.length;
+        }
+
+        for (int i = 0; i < objectStreamCount; i++) {
+            int number = firstObjectStream + i;
+            List<COSBase> members = packed.subList(i * OBJECTS_PER_STREAM,
+                    Math.min((i + 1) * OBJECTS_PER_STREAM, packed.size()));
+            for (int j = 0; j < members.size(); j++) {
+                entries[numbers.get(members.get(j))] = new long[] {COMPRESSED_ENTRY, number, j};
+            }
+            byte[] bytes = createObjectStream(number, members, numbers, serializer);
+            output.write(bytes);
+            entries[number] = new long[] {IN_FILE_ENTRY, offset, 0};
+            offset += bytes.length;
+        }
+
+        entries[xrefNumber] = new long[] {IN_FILE_ENTRY, offset, 0};
+        StringBuilder trailerEntries = new StringBuilder();
+        trailerEntries.append("/Root ").append(numbers.get(catalog)).append(" 0 R");
+        if (info != null) {
+            trailerEntries.append(" /Info ").append(numbers.get(info)).append(" 0 R");
+        }
+        ByteArrayOutputStream id = new ByteArrayOutputStream();
+        serializer.writeValue(ObjectSerializer.getFileIdentifiers(trailer, size), id);
+        trailerEntries.append(" /ID ").append(id.toString(StandardCharsets.ISO_8859_1));
+        output.write(createXrefStream(xrefNumber, entries, trailerEntries.toString()));
+        writeAscii("startxref\n" + offset + "\n%%EOF\n", output);
+    }
+
+    private byte[] createHeader() {
+        float version = Math.max(doc.getVersion(), MIN_VERSION);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(String.format(Locale.ROOT, "%%PDF-%.1f\n", version)
+                .getBytes(StandardCharsets.US_ASCII));
+        out.writeBytes(HEADER_COMMENT);
+        return out.toByteArray();
+    }
+
+    private byte[] createObjectStream(int number, List<COSBase> members,
+            Map<COSBase, Integer> numbers, ObjectSerializer serializer) throws IOException {
+        StringBuilder index = new StringBuilder();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (COSBase member : members) {
+            index.append(numbers.get(member)).append(' ').append(body.size()).append(' ');
+            serializer.writeObject(member, body);
+            body.write('\n');
+        }
+        index.setCharAt(index.length() - 1, '\n');
+        byte[] first = index.toString().getBytes(StandardCharsets.US_ASCII);
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(first);
+        body.writeTo(data);
+        return createStreamObject(number,
+                "/Type /ObjStm /N " + members.size() + " /First " + first.length,
+                data.toByteArray());
+    }
+
+    private byte[] createXrefStream(int number, long[][] entries, String trailerEntries) throws IOException {
+        long maxField = 0;
+        for (long[] entry : entries) {
+            maxField = Math.max(maxField, entry[1]);
+        }
+        final int[] widths = {1, bytesFor(maxField), 2};
+        final int columns = widths[0] + widths[1] + widths[2];
+
+        // Each row is prefixed with the PNG filter type, 2 for Up.
+        byte[] data = new byte[entries.length * (columns + 1)];
+        byte[] previous = new byte[columns];
+        byte[] row = new byte[columns];
+        int position = 0;
+        for (long[] entry : entries) {
+            int column = 0;
+            for (int field = 0; field < widths.length; field++) {
+                for (int shift = (widths[field] - 1) * 8; shift >= 0; shift -= 8) {
+                    row[column++] = (byte) (entry[field] >>> shift);
+                }
+            }
+            data[position++] = 2;
+            for (int i = 0; i < columns; i++) {
+                data[position++] = (byte) (row[i] - previous[i]);
+            }
+            byte[] swap = previous;
+            previous = row;
+            row = swap;
+        }
+
+        StringBuilder dict = new StringBuilder();
+        dict.append("/Type /XRef /Size ").append(entries.length)
+            .append(" /W [").append(widths[0]).append(' ').append(widths[1]).append(' ').append(widths[2])
+            .append("] ").append(trailerEntries)
+            .append(" /DecodeParms << /Predictor 12 /Columns ").append(columns).append(" >>");
+        return createStreamObject(number, dict.toString(), data);
+    }
+
+    private byte[] createStreamObject(int number, String entries, byte[] data) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(level);
+        try (OutputStream out = new DeflaterOutputStream(compressed, deflater)) {
+            out.write(data);
+        } finally {
+            deflater.end();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeAscii(number + " 0 obj\n<< " + entries + " /Filter /FlateDecode /Length "
+                + compressed.size() + " >>\nstream\r\n", out);
+        compressed.writeTo(out);
+        writeAscii("\r\nendstream\nendobj\n", out);
+        return out.toByteArray();
+    }
+
+    private static int bytesFor(long value) {
+        int bits = 64 - Long.numberOfLeadingZeros(value);
+        return Math.max((bits + 7) / 8, 1);
+    }
+}
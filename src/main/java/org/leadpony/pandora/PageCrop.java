@@ -0,0 +1,93 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import java.util.Arrays;
+
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+/**
+ * The crop box calculated for a page, as printed by {@code analyze} command.
+ *
+ * <p>
+ * Each box is given as an array of 4 values in 1/72 inch,
+ * {@code [<lower left x>, <lower left y>, <upper right x>, <upper right y>]}.
+ * </p>
+ *
+ * @author leadpony
+ */
+public final class PageCrop {
+
+    private final int pageNumber;
+    private final float[] mediaBox;
+    private final float[] boundingBox;
+    private final float[] cropBox;
+
+    PageCrop(int pageNumber, PDRectangle mediaBox, PDRectangle boundingBox, PDRectangle cropBox) {
+        this.pageNumber = pageNumber;
+        this.mediaBox = toArray(mediaBox);
+        this.boundingBox = toArray(boundingBox);
+        this.cropBox = toArray(cropBox);
+    }
+
+    /**
+     * Returns the page number.
+     *
+     * @return the page number starting from one.
+     */
+    public int getPageNumber() {
+        return pageNumber;
+    }
+
+    /**
+     * Returns the media box of the page.
+     *
+     * @return newly created array of the media box of the page.
+     */
+    public float[] getMediaBox() {
+        return mediaBox.clone();
+    }
+
+    /**
+     * Returns the box before the aspect ratio is adjusted
+     * and the box is clipped by the media box.
+     *
+     * @return newly created array of the bounding box of the page.
+     */
+    public float[] getBoundingBox() {
+        return boundingBox.clone();
+    }
+
+    /**
+     * Returns the crop box finally calculated for the page.
+     *
+     * @return newly created array of the crop box of the page.
+     */
+    public float[] getCropBox() {
+        return cropBox.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "page " + pageNumber + ": " + Arrays.toString(cropBox);
+    }
+
+    private static float[] toArray(PDRectangle box) {
+        return new float[] {
+            box.getLowerLeftX(), box.getLowerLeftY(), box.getUpperRightX(), box.getUpperRightY()
+        };
+    }
+}
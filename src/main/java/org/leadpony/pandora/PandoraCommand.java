@@ -70,13 +70,14 @@ class PandoraCommand {
         CommandLine commandLine = new CommandLine(this)
                 .addSubcommand(new CommandLine.HelpCommand())
                 .addSubcommand(new CropCommand())
+                .addSubcommand(new AnalyzeCommand())
+                .addSubcommand(new BenchCommand())
                 .setResourceBundle(getResourceBundle())
                 .setDefaultValueProvider(new PropertiesDefaultProvider())
                 .setOut(out)
                 .setErr(err);
 
-        commandLine.registerConverter(Margin.class, Margin::valueOf)
-                   .registerConverter(Pages.class, Pages::valueOf);
+        registerConverters(commandLine);
 
         if (args.length > 0) {
             return commandLine.execute(args);
@@ -86,6 +87,19 @@ class PandoraCommand {
         }
     }
 
+    /**
+     * Registers the type converters for the options of the commands.
+     *
+     * @param commandLine the command line to which the converters will be registered.
+     */
+    static void registerConverters(CommandLine commandLine) {
+        commandLine.registerConverter(Margin.class, Margin::valueOf)
+                   .registerConverter(Pages.class, Pages::valueOf)
+                   .registerConverter(StreamCompressor.Level.class, StreamCompressor.Level::of)
+                   .registerConverter(ProgressReporter.Format.class, ProgressReporter.Format::of)
+                   .registerConverter(CropVariant.class, CropVariant::valueOf);
+    }
+
     private static ResourceBundle getResourceBundle() {
         return ResourceBundle.getBundle(
                 BUNDLE_BASE_NAME,
@@ -99,5 +113,6 @@ class PandoraCommand {
             manager.readConfiguration(in);
         } catch (IOException e) {
         }
+        AggregatingLogHandler.install();
     }
 }
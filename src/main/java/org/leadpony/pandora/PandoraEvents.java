@@ -0,0 +1,175 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder events emitted by this tool.
+ *
+ * <p>
+ * All events are disabled unless a recording enables them,
+ * for example by <code>-XX:StartFlightRecording</code>.
+ * While disabled, beginning and committing an event cost almost nothing,
+ * and the fields are assigned only if {@link Event#shouldCommit()} is {@code true}.
+ * </p>
+ *
+ * @author leadpony
+ */
+final class PandoraEvents {
+
+    static final String CATEGORY = "Pandora";
+
+    private PandoraEvents() {
+    }
+
+    /**
+     * Loading of a PDF document.
+     */
+    @Name("org.leadpony.pandora.DocumentLoad")
+    @Label("Document Load")
+    @Category(CATEGORY)
+    static class DocumentLoadEvent extends Event {
+
+        @Label("Path")
+        String path;
+
+        @Label("Size")
+        @DataAmount
+        long size;
+
+        @Label("Pages")
+        int pages;
+    }
+
+    /**
+     * Calculation of the bounding box of a page by a finder.
+     */
+    @Name("org.leadpony.pandora.PageAnalysis")
+    @Label("Page Analysis")
+    @Category(CATEGORY)
+    static class PageAnalysisEvent extends Event {
+
+        @Label("Finder")
+        @Description("The type of the bounding box finder")
+        String finder;
+
+        @Label("Page Index")
+        @Description("The page index starting from zero, or -1 if unknown")
+        int pageIndex;
+
+        @Label("Operators")
+        @Description("The number of the operators scanned")
+        int operators;
+
+        @Label("Glyphs")
+        @Description("The number of the glyphs shown")
+        int glyphs;
+
+        @Label("Rendered")
+        @Description("Whether the page was rendered to find the bounding box")
+        boolean rendered;
+
+        PageAnalysisEvent(String finder, int pageIndex) {
+            this.finder = finder;
+            this.pageIndex = pageIndex;
+        }
+
+        /**
+         * Records the statistics of the scanner which processed the page.
+         *
+         * @param scanner the scanner.
+         */
+        void setScanned(ContentScanner scanner) {
+            this.operators = scanner.getOperatorCount();
+            this.glyphs = scanner.getGlyphCount();
+        }
+    }
+
+    /**
+     * Rendering of a page into an image.
+     */
+    @Name("org.leadpony.pandora.PageRender")
+    @Label("Page Render")
+    @Category(CATEGORY)
+    static class PageRenderEvent extends Event {
+
+        @Label("Page Index")
+        int pageIndex;
+
+        @Label("Width")
+        @Description("The width of the rendered image in pixels")
+        int width;
+
+        @Label("Height")
+        @Description("The height of the rendered image in pixels")
+        int height;
+
+        @Label("Memory Cost")
+        @Description("The memory estimated for rendering the page, or each tile of it")
+        @DataAmount
+        long memoryCost;
+
+        @Label("Budget Wait")
+        @Description("The time waited for the memory budget")
+        @Timespan
+        long budgetWait;
+
+        @Label("Raster Reused")
+        @Description("Whether any raster was rendered into a buffer reused from the pool")
+        boolean rasterReused;
+
+        @Label("Tiles")
+        @Description("The number of the tiles rendered, or 1 if the page was rendered at once")
+        int tiles;
+    }
+
+    /**
+     * Saving or copying of the output document.
+     */
+    @Name("org.leadpony.pandora.DocumentSave")
+    @Label("Document Save")
+    @Category(CATEGORY)
+    static class DocumentSaveEvent extends Event {
+
+        @Label("Path")
+        String path;
+
+        @Label("Size")
+        @DataAmount
+        long size;
+
+        @Label("Copied")
+        @Description("Whether the original document was copied without rewriting")
+        boolean copied;
+
+        @Label("Linearized")
+        boolean linearized;
+
+        @Label("Compression")
+        String compression;
+
+        @Label("Object Streams")
+        @Description("Whether the objects were written into object streams")
+        boolean objectStreams;
+    }
+}
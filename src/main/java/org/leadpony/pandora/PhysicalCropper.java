@@ -0,0 +1,626 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.pdfbox.contentstream.PDFGraphicsStreamEngine;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdfwriter.ContentStreamWriter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.form.PDTransparencyGroup;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImage;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotation;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationMarkup;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationPopup;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationWidget;
+import org.apache.pdfbox.util.Matrix;
+
+/**
+ * A cropper which removes the contents outside of the crop box from the page.
+ *
+ * <p>
+ * The following contents lying entirely outside of the crop box are removed:
+ * </p>
+ * <ul>
+ * <li>paths painted in the page content stream,</li>
+ * <li>images and form XObjects invoked in the page content stream,</li>
+ * <li>inline images,</li>
+ * <li>annotations other than form fields.</li>
+ * </ul>
+ * <p>
+ * Images partially visible are re-encoded losslessly into the visible region,
+ * except the images encoded lossily such as JPEG, which are kept whole,
+ * and the media box of the page is replaced with the crop box.
+ * Texts are always left as they are, because removing a text showing operator
+ * affects the position of the following texts.
+ * </p>
+ *
+ * @author leadpony
+ */
+class PhysicalCropper {
+
+    /*
+     * Images are not re-encoded unless the visible area is smaller than
+     * this ratio of the original image.
+     */
+    private static final double MAX_VISIBLE_RATIO = 0.75;
+
+    private static final Set<String> PATH_CONSTRUCTION_OPERATORS = Set.of(
+            "m", "l", "c", "v", "y", "h", "re");
+
+    private static final Set<String> PATH_PAINTING_OPERATORS = Set.of(
+            "S", "s", "f", "F", "f*", "B", "B*", "b", "b*", "n");
+
+    private static final Set<String> STROKING_OPERATORS = Set.of(
+            "S", "s", "B", "B*", "b", "b*");
+
+    private final PDDocument doc;
+
+    PhysicalCropper(PDDocument doc) {
+        this.doc = doc;
+    }
+
+    /**
+     * Crops the page physically.
+     *
+     * @param page the page to crop.
+     * @param cropBox the crop box of the page.
+     * @throws IOException if an I/O error occurred while reading or writing the page.
+     */
+    void crop(PDPage page, PDRectangle cropBox) throws IOException {
+        Rectangle2D box = new Rectangle2D.Float(
+                cropBox.getLowerLeftX(),
+                cropBox.getLowerLeftY(),
+                cropBox.getWidth(),
+                cropBox.getHeight());
+
+        if (page.hasContents()) {
+            PDResources resources = copyResources(page.getResources());
+            page.setResources(resources);
+            ContentFilter filter = new ContentFilter(page, resources, box);
+            filter.processPage(page);
+            filter.writeContents(page);
+        }
+
+        removeAnnotations(page, box);
+
+        page.setMediaBox(cropBox);
+        page.setCropBox(null);
+        page.setBleedBox(clipBox(page, COSName.BLEED_BOX, cropBox));
+        page.setTrimBox(clipBox(page, COSName.TRIM_BOX, cropBox));
+        page.setArtBox(clipBox(page, COSName.ART_BOX, cropBox));
+    }
+
+    /**
+     * Copies the resources of the page, which may be shared with other pages,
+     * so that the images in the page can be replaced.
+     */
+    private static PDResources copyResources(PDResources resources) {
+        if (resources == null) {
+            return new PDResources();
+        }
+        COSDictionary copy = new COSDictionary(resources.getCOSObject());
+        COSDictionary xobjects = copy.getCOSDictionary(COSName.XOBJECT);
+        if (xobjects != null) {
+            copy.setItem(COSName.XOBJECT, new COSDictionary(xobjects));
+        }
+        return new PDResources(copy);
+    }
+
+    private static void removeAnnotations(PDPage page, Rectangle2D box) throws IOException {
+        List<PDAnnotation> annotations = page.getAnnotations();
+        if (annotations.isEmpty()) {
+            return;
+        }
+        Set<COSDictionary> removed = new HashSet<>();
+        List<PDAnnotation> remaining = new ArrayList<>();
+        for (PDAnnotation annotation : annotations) {
+            if (isOutside(annotation, box)) {
+                removed.add(annotation.getCOSObject());
+            } else {
+                remaining.add(annotation);
+            }
+        }
+        // Popups are removed along with their parents.
+        remaining.removeIf(annotation -> {
+            if (annotation instanceof PDAnnotationPopup) {
+                PDAnnotationMarkup parent = ((PDAnnotationPopup) annotation).getParent();
+                return parent != null && removed.contains(parent.getCOSObject());
+            }
+            return false;
+        });
+        if (remaining.size() < annotations.size()) {
+            page.setAnnotations(remaining);
+        }
+    }
+
+    private static boolean isOutside(PDAnnotation annotation, Rectangle2D box) {
+        if (annotation instanceof PDAnnotationWidget || annotation instanceof PDAnnotationPopup) {
+            return false;
+        }
+        PDRectangle rect = annotation.getRectangle();
+        if (rect == null) {
+            return false;
+        }
+        return !box.intersects(
+                rect.getLowerLeftX(),
+                rect.getLowerLeftY(),
+                rect.getWidth(),
+                rect.getHeight());
+    }
+
+    private static PDRectangle clipBox(PDPage page, COSName name, PDRectangle cropBox) {
+        if (!page.getCOSObject().containsKey(name)) {
+            return null;
+        }
+        PDRectangle box;
+        if (name == COSName.BLEED_BOX) {
+            box = page.getBleedBox();
+        } else if (name == COSName.TRIM_BOX) {
+            box = page.getTrimBox();
+        } else {
+            box = page.getArtBox();
+        }
+        float minX = Math.max(box.getLowerLeftX(), cropBox.getLowerLeftX());
+        float minY = Math.max(box.getLowerLeftY(), cropBox.getLowerLeftY());
+        float maxX = Math.min(box.getUpperRightX(), cropBox.getUpperRightX());
+        float maxY = Math.min(box.getUpperRightY(), cropBox.getUpperRightY());
+        if (minX >= maxX || minY >= maxY) {
+            return null;
+        }
+        return new PDRectangle(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    /**
+     * A stream engine which filters the operators of the page content stream.
+     *
+     * <p>
+     * Only the operators at the top level of the page content stream are filtered.
+     * The contents of form XObjects are not processed at all,
+     * and their bounding boxes are used instead.
+     * </p>
+     */
+    private class ContentFilter extends PDFGraphicsStreamEngine {
+
+        private final PDResources resources;
+        private final Rectangle2D box;
+
+        private final List<Object> tokens = new ArrayList<>();
+        private final List<Object> pendingPath = new ArrayList<>();
+        private Rectangle2D pathBounds;
+        private boolean clipping;
+
+        private int depth;
+        private Rectangle2D painted;
+        private PDImage paintedImage;
+        private Matrix paintedMatrix;
+
+        private final Map<String, COSName> croppedImages = new HashMap<>();
+        private final Set<COSName> replacedNames = new HashSet<>();
+
+        ContentFilter(PDPage page, PDResources resources, Rectangle2D box) {
+            super(page);
+            this.resources = resources;
+            this.box = box;
+        }
+
+        void writeContents(PDPage page) throws IOException {
+            tokens.addAll(pendingPath);
+            removeUnusedImages();
+            PDStream contents = new PDStream(doc);
+            try (OutputStream out = contents.createOutputStream(COSName.FLATE_DECODE)) {
+                new ContentStreamWriter(out).writeTokens(tokens);
+            }
+            page.setContents(contents);
+        }
+
+        @Override
+        protected void processOperator(Operator operator, List<COSBase> operands) throws IOException {
+            if (depth > 0) {
+                depth++;
+                try {
+                    super.processOperator(operator, operands);
+                } finally {
+                    depth--;
+                }
+                return;
+            }
+
+            painted = null;
+            paintedImage = null;
+            depth++;
+            try {
+                super.processOperator(operator, operands);
+            } finally {
+                depth--;
+            }
+
+            final String name = operator.getName();
+            if (PATH_CONSTRUCTION_OPERATORS.contains(name)) {
+                pendingPath.addAll(operands);
+                pendingPath.add(operator);
+            } else if ("W".equals(name) || "W*".equals(name)) {
+                clipping = true;
+                pendingPath.addAll(operands);
+                pendingPath.add(operator);
+            } else if (PATH_PAINTING_OPERATORS.contains(name)) {
+                finishPath(operator, operands);
+            } else if ("Do".equals(name)) {
+                drawObject(operator, operands);
+            } else if ("BI".equals(name)) {
+                if (isVisible(painted)) {
+                    emit(operator, operands);
+                }
+            } else {
+                emit(operator, operands);
+            }
+        }
+
+        @Override
+        public void showForm(PDFormXObject form) throws IOException {
+            if (depth == 1) {
+                painted = transformBox(form.getBBox(), form.getMatrix());
+            } else {
+                super.showForm(form);
+            }
+        }
+
+        @Override
+        public void showTransparencyGroup(PDTransparencyGroup form) throws IOException {
+            if (depth == 1) {
+                painted = transformBox(form.getBBox(), form.getMatrix());
+            } else {
+                super.showTransparencyGroup(form);
+            }
+        }
+
+        @Override
+        public void drawImage(PDImage pdImage) throws IOException {
+            if (depth == 1) {
+                painted = transformBox(new PDRectangle(1, 1), null);
+                paintedImage = pdImage;
+                paintedMatrix = getGraphicsState().getCurrentTransformationMatrix().clone();
+            }
+        }
+
+        @Override
+        public void appendRectangle(Point2D p0, Point2D p1, Point2D p2, Point2D p3) {
+            addToPath(p0.getX(), p0.getY());
+            addToPath(p1.getX(), p1.getY());
+            addToPath(p2.getX(), p2.getY());
+            addToPath(p3.getX(), p3.getY());
+        }
+
+        @Override
+        public void clip(int windingRule) {
+            // Clipping paths are handled in processOperator().
+        }
+
+        @Override
+        public void moveTo(float x, float y) {
+            addToPath(x, y);
+        }
+
+        @Override
+        public void lineTo(float x, float y) {
+            addToPath(x, y);
+        }
+
+        @Override
+        public void curveTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+            addToPath(x1, y1);
+            addToPath(x2, y2);
+            addToPath(x3, y3);
+        }
+
+        @Override
+        public Point2D getCurrentPoint() {
+            return null;
+        }
+
+        @Override
+        public void closePath() {
+            // Does nothing
+        }
+
+        @Override
+        public void endPath() {
+            // Does nothing
+        }
+
+        @Override
+        public void strokePath() {
+            // Does nothing
+        }
+
+        @Override
+        public void fillPath(int windingRule) {
+            // Does nothing
+        }
+
+        @Override
+        public void fillAndStrokePath(int windingRule) {
+            // Does nothing
+        }
+
+        @Override
+        public void shadingFill(COSName shadingName) {
+            // Does nothing
+        }
+
+        private void emit(Operator operator, List<COSBase> operands) {
+            tokens.addAll(pendingPath);
+            pendingPath.clear();
+            tokens.addAll(operands);
+            tokens.add(operator);
+        }
+
+        private void finishPath(Operator operator, List<COSBase> operands) {
+            Rectangle2D bounds = pathBounds;
+            if (bounds != null && STROKING_OPERATORS.contains(operator.getName())) {
+                double width = Math.max(transformWidth(getGraphicsState().getLineWidth()), 1.0);
+                bounds = new Rectangle2D.Double(
+                        bounds.getX() - width,
+                        bounds.getY() - width,
+                        bounds.getWidth() + 2 * width,
+                        bounds.getHeight() + 2 * width);
+            }
+
+            boolean painting = !"n".equals(operator.getName());
+            if (clipping || (painting && (bounds == null || isVisible(bounds)))) {
+                emit(operator, operands);
+            } else {
+                pendingPath.clear();
+            }
+
+            pathBounds = null;
+            clipping = false;
+        }
+
+        private void drawObject(Operator operator, List<COSBase> operands) throws IOException {
+            if (!isVisible(painted)) {
+                return;
+            }
+            if (paintedImage instanceof PDImageXObject && !operands.isEmpty()
+                    && operands.get(0) instanceof COSName) {
+                COSName name = (COSName) operands.get(0);
+                if (drawCroppedImage(name, (PDImageXObject) paintedImage)) {
+                    return;
+                }
+            }
+            emit(operator, operands);
+        }
+
+        /**
+         * Draws the visible region of the image instead of the whole image.
+         *
+         * @return {@code true} if the cropped image was drawn.
+         */
+        private boolean drawCroppedImage(COSName name, PDImageXObject image) throws IOException {
+            if (!isCroppable(image)) {
+                return false;
+            }
+
+            Rectangle2D visible = getVisibleRegion(paintedMatrix);
+            if (visible == null) {
+                return false;
+            }
+
+            final int w = image.getWidth();
+            final int h = image.getHeight();
+            final int x0 = (int) Math.floor(visible.getMinX() * w);
+            final int x1 = (int) Math.ceil(visible.getMaxX() * w);
+            final int y0 = (int) Math.floor((1.0 - visible.getMaxY()) * h);
+            final int y1 = (int) Math.ceil((1.0 - visible.getMinY()) * h);
+            Rectangle region = new Rectangle(x0, y0, x1 - x0, y1 - y0);
+            if (region.isEmpty() || (double) region.width * region.height > MAX_VISIBLE_RATIO * w * h) {
+                return false;
+            }
+
+            String key = name.getName() + region;
+            COSName newName = croppedImages.get(key);
+            if (newName == null) {
+                newName = resources.add(createCroppedImage(image, region));
+                croppedImages.put(key, newName);
+            }
+            replacedNames.add(name);
+
+            final float u0 = (float) x0 / w;
+            final float u1 = (float) x1 / w;
+            final float v0 = 1.0f - (float) y1 / h;
+            final float v1 = 1.0f - (float) y0 / h;
+
+            tokens.addAll(pendingPath);
+            pendingPath.clear();
+            tokens.add(Operator.getOperator("q"));
+            tokens.add(new COSFloat(u1 - u0));
+            tokens.add(COSInteger.ZERO);
+            tokens.add(COSInteger.ZERO);
+            tokens.add(new COSFloat(v1 - v0));
+            tokens.add(new COSFloat(u0));
+            tokens.add(new COSFloat(v0));
+            tokens.add(Operator.getOperator("cm"));
+            tokens.add(newName);
+            tokens.add(Operator.getOperator("Do"));
+            tokens.add(Operator.getOperator("Q"));
+            return true;
+        }
+
+        private boolean isCroppable(PDImageXObject image) throws IOException {
+            COSDictionary dict = image.getCOSObject();
+            if (image.isStencil()
+                    || image.getBitsPerComponent() != 8
+                    || dict.containsKey(COSName.SMASK)
+                    || dict.containsKey(COSName.MASK)
+                    || dict.containsKey(COSName.DECODE)) {
+                return false;
+            }
+            if (isLossy(dict.getDictionaryObject(COSName.FILTER))) {
+                return false;
+            }
+            COSBase colorSpace = dict.getDictionaryObject(COSName.COLORSPACE);
+            return COSName.DEVICEGRAY.equals(colorSpace) || COSName.DEVICERGB.equals(colorSpace);
+        }
+
+        /**
+         * Checks if the image is encoded lossily.
+         * Such images are kept whole since re-encoding them would degrade them.
+         */
+        private boolean isLossy(COSBase filter) {
+            if (filter instanceof COSArray) {
+                for (COSBase element : (COSArray) filter) {
+                    if (isLossy(element)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return COSName.DCT_DECODE.equals(filter) || COSName.JPX_DECODE.equals(filter);
+        }
+
+        /**
+         * Returns the visible region of the image in the unit square.
+         */
+        private Rectangle2D getVisibleRegion(Matrix ctm) {
+            AffineTransform inverse;
+            try {
+                inverse = ctm.createAffineTransform().createInverse();
+            } catch (NoninvertibleTransformException e) {
+                return null;
+            }
+            Rectangle2D region = inverse.createTransformedShape(box).getBounds2D();
+            Rectangle2D.intersect(region, new Rectangle2D.Double(0, 0, 1, 1), region);
+            return (region.getWidth() > 0 && region.getHeight() > 0) ? region : null;
+        }
+
+        /**
+         * Creates the image of the region, which has the same color space as the original image.
+         * The samples are copied as they are, without being converted into RGB.
+         */
+        private PDImageXObject createCroppedImage(PDImageXObject image, Rectangle region) throws IOException {
+            // Decodes the whole image because the region is not always honored by the reader.
+            WritableRaster raster = image.getRawRaster();
+            int[] samples = raster.getPixels(region.x, region.y, region.width, region.height, (int[]) null);
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            try (DeflaterOutputStream out = new DeflaterOutputStream(encoded)) {
+                byte[] bytes = new byte[samples.length];
+                for (int i = 0; i < samples.length; i++) {
+                    bytes[i] = (byte) samples[i];
+                }
+                out.write(bytes);
+            }
+            PDImageXObject newImage = new PDImageXObject(doc, new ByteArrayInputStream(encoded.toByteArray()),
+                    COSName.FLATE_DECODE, region.width, region.height, image.getBitsPerComponent(),
+                    image.getColorSpace());
+            if (image.getInterpolate()) {
+                newImage.setInterpolate(true);
+            }
+            return newImage;
+        }
+
+        /**
+         * Removes the original images which were replaced with the cropped ones
+         * and are no longer used in the page.
+         */
+        private void removeUnusedImages() {
+            if (replacedNames.isEmpty()) {
+                return;
+            }
+            Set<COSName> used = new HashSet<>();
+            Object last = null;
+            for (Object token : tokens) {
+                if (token instanceof Operator && "Do".equals(((Operator) token).getName())
+                        && last instanceof COSName) {
+                    used.add((COSName) last);
+                }
+                last = token;
+            }
+            COSDictionary xobjects = resources.getCOSObject().getCOSDictionary(COSName.XOBJECT);
+            for (COSName name : replacedNames) {
+                if (!used.contains(name)) {
+                    xobjects.removeItem(name);
+                }
+            }
+        }
+
+        private Rectangle2D transformBox(PDRectangle rect, Matrix matrix) {
+            if (rect == null) {
+                return null;
+            }
+            AffineTransform at = getGraphicsState().getCurrentTransformationMatrix().createAffineTransform();
+            if (matrix != null) {
+                at.concatenate(matrix.createAffineTransform());
+            }
+            Rectangle2D bounds = new Rectangle2D.Float(
+                    rect.getLowerLeftX(), rect.getLowerLeftY(), rect.getWidth(), rect.getHeight());
+            return at.createTransformedShape(bounds).getBounds2D();
+        }
+
+        private void addToPath(double x, double y) {
+            if (depth != 1) {
+                return;
+            }
+            if (pathBounds == null) {
+                pathBounds = new Rectangle2D.Double(x, y, 0, 0);
+            } else {
+                pathBounds.add(x, y);
+            }
+        }
+
+        /**
+         * Checks if the painted area is visible.
+         * The area which is unknown is considered to be visible.
+         */
+        private boolean isVisible(Rectangle2D area) {
+            if (area == null) {
+                return true;
+            }
+            return area.getMaxX() >= box.getMinX()
+                    && area.getMinX() <= box.getMaxX()
+                    && area.getMaxY() >= box.getMinY()
+                    && area.getMinY() <= box.getMaxY();
+        }
+    }
+}
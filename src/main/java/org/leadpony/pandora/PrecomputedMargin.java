@@ -0,0 +1,224 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+/**
+ * A margin given by crop boxes precomputed for each page.
+ *
+ * <p>
+ * The crop boxes are read from a JSON or CSV file.
+ * The JSON file may contain the lines printed by {@code analyze} command,
+ * or an array of objects having the same properties.
+ * Only {@code file}, {@code page} and {@code cropBox} properties are used.
+ * Each line of the CSV file is in the form of
+ * {@code <page>,<lower left x>,<lower left y>,<upper right x>,<upper right y>}.
+ * </p>
+ * <p>
+ * The pages are one-indexed.
+ * The pages not found in the file are not cropped.
+ * The crop boxes having {@code file} property are applied only to the document at the path,
+ * and the others are applied to any document not found in the file.
+ * </p>
+ *
+ * @author leadpony
+ */
+class PrecomputedMargin implements Margin {
+
+    /**
+     * The key of the crop boxes which are applied to any document.
+     */
+    static final String ANY_FILE = "";
+
+    // The crop boxes for any document, can be null.
+    private final Map<Integer, PDRectangle> commonBoxes;
+    // The crop boxes for each document, keyed by the absolute path of the document.
+    private final Map<Path, Map<Integer, PDRectangle>> fileBoxes = new HashMap<>();
+
+    /**
+     * Constructs this margin.
+     *
+     * @param cropBoxes the crop boxes keyed by the path of the document and then by the page,
+     *                  where {@link #ANY_FILE} is the key of the crop boxes for any document.
+     */
+    PrecomputedMargin(Map<String, Map<Integer, PDRectangle>> cropBoxes) {
+        this.commonBoxes = cropBoxes.get(ANY_FILE);
+        cropBoxes.forEach((file, boxes) -> {
+            if (!file.equals(ANY_FILE)) {
+                fileBoxes.put(normalize(Path.of(file)), boxes);
+            }
+        });
+    }
+
+    /**
+     * Checks if the specified option value is a path to the file of crop boxes.
+     *
+     * @param value the value of the option parameter.
+     * @return {@code true} if the value is a path to the file.
+     */
+    static boolean isFile(String value) {
+        String lower = value.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".json")
+                || lower.endsWith(".jsonl")
+                || lower.endsWith(".csv");
+    }
+
+    /**
+     * Creates a margin from the file of crop boxes.
+     *
+     * @param path the path to the file.
+     * @return newly created instance of margin.
+     */
+    static Margin load(Path path) {
+        String content;
+        try {
+            content = Files.readString(path, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (path.toString().toLowerCase(Locale.ROOT).endsWith(".csv")) {
+            return new PrecomputedMargin(Map.of(ANY_FILE, parseCsv(content)));
+        } else {
+            return new PrecomputedMargin(parseJson(content));
+        }
+    }
+
+    /**
+     * Parses the crop boxes in JSON.
+     *
+     * @param content the content of the JSON file.
+     * @return the crop boxes keyed by the path of the document and then by the page,
+     *         where {@link #ANY_FILE} is the key of the objects without {@code file} property.
+     */
+    static Map<String, Map<Integer, PDRectangle>> parseJson(String content) {
+        Map<String, Map<Integer, PDRectangle>> cropBoxes = new HashMap<>();
+        for (Object value : Json.parseAll(content)) {
+            if (value instanceof List) {
+                for (Object element : (List<?>) value) {
+                    addCropBox(cropBoxes, element);
+                }
+            } else {
+                addCropBox(cropBoxes, value);
+            }
+        }
+        return cropBoxes;
+    }
+
+    private static void addCropBox(Map<String, Map<Integer, PDRectangle>> cropBoxes, Object value) {
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("Crop box must be a JSON object: " + value);
+        }
+        Map<?, ?> object = (Map<?, ?>) value;
+        Object file = object.get("file");
+        Object page = object.get("page");
+        Object cropBox = object.get("cropBox");
+        if (object.containsKey("file") && (!(file instanceof String) || ((String) file).isEmpty())) {
+            throw new IllegalArgumentException("\"file\" must be a non-empty string: " + object);
+        }
+        if (!(page instanceof Double) || ((Double) page) < 1 || ((Double) page) != Math.rint((Double) page)) {
+            throw new IllegalArgumentException("\"page\" must be a positive integer: " + object);
+        }
+        if (!(cropBox instanceof List) || ((List<?>) cropBox).size() != 4
+                || !((List<?>) cropBox).stream().allMatch(Double.class::isInstance)) {
+            throw new IllegalArgumentException("\"cropBox\" must be an array of 4 numbers: " + object);
+        }
+        List<?> values = (List<?>) cropBox;
+        float x0 = ((Double) values.get(0)).floatValue();
+        float y0 = ((Double) values.get(1)).floatValue();
+        float x1 = ((Double) values.get(2)).floatValue();
+        float y1 = ((Double) values.get(3)).floatValue();
+        cropBoxes.computeIfAbsent((file != null) ? (String) file : ANY_FILE, k -> new HashMap<>())
+            .put(((Double) page).intValue(), new PDRectangle(x0, y0, x1 - x0, y1 - y0));
+    }
+
+    static Map<Integer, PDRectangle> parseCsv(String content) {
+        Map<Integer, PDRectangle> cropBoxes = new HashMap<>();
+        for (String line : content.split("\\R")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#") || line.startsWith("page")) {
+                continue;
+            }
+            String[] fields = line.split(",", 2);
+            if (fields.length < 2) {
+                throw new IllegalArgumentException("Invalid crop box: " + line);
+            }
+            cropBoxes.put(Integer.valueOf(fields[0].trim()), parseBox(fields[1].split(",")));
+        }
+        return cropBoxes;
+    }
+
+    @Override
+    public CropStrategy createStrategy(PDDocument doc, CroppingContext context) {
+        final Map<Integer, PDRectangle> cropBoxes = findCropBoxes(context.getInput());
+        return (document, pageIndex) -> {
+            PDRectangle cropBox = cropBoxes.get(pageIndex + 1);
+            if (cropBox == null) {
+                return document.getPage(pageIndex).getMediaBox();
+            }
+            return cropBox;
+        };
+    }
+
+    /**
+     * Finds the crop boxes for the document.
+     *
+     * @param input the path of the document, can be {@code null}.
+     * @return the crop boxes keyed by the page.
+     * @throws IllegalArgumentException if no crop boxes are found for the document.
+     */
+    private Map<Integer, PDRectangle> findCropBoxes(Path input) {
+        if (input != null) {
+            Map<Integer, PDRectangle> boxes = fileBoxes.get(normalize(input));
+            if (boxes != null) {
+                return boxes;
+            }
+        } else if (commonBoxes == null && fileBoxes.size() == 1) {
+            return fileBoxes.values().iterator().next();
+        }
+        if (commonBoxes == null && !fileBoxes.isEmpty()) {
+            throw new IllegalArgumentException("No crop boxes found for the document: "
+                    + ((input != null) ? input : "(unnamed)"));
+        }
+        return (commonBoxes != null) ? commonBoxes : Map.of();
+    }
+
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    private static PDRectangle parseBox(String[] values) {
+        if (values.length != 4) {
+            throw new IllegalArgumentException("Crop box must have 4 values.");
+        }
+        float x0 = Float.parseFloat(values[0].trim());
+        float y0 = Float.parseFloat(values[1].trim());
+        float x1 = Float.parseFloat(values[2].trim());
+        float y1 = Float.parseFloat(values[3].trim());
+        return new PDRectangle(x0, y0, x1 - x0, y1 - y0);
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A reporter which periodically prints the progress of processing pages.
+ *
+ * <p>
+ * The page loop updates the counters of this reporter, which are read
+ * by the daemon thread printing the progress. Since only the page loop writes them,
+ * the counters are updated by release stores instead of atomic read-modify-write operations,
+ * which costs the page loop almost nothing.
+ * </p>
+ *
+ * @author leadpony
+ */
+class ProgressReporter {
+
+    /**
+     * The weight of the latest page in the moving average of the latencies.
+     */
+    private static final double SMOOTHING = 0.1;
+
+    /**
+     * Formats of the progress.
+     */
+    enum Format {
+        /**
+         * Human-readable lines.
+         */
+        TEXT,
+        /**
+         * JSON lines.
+         */
+        JSON;
+
+        /**
+         * Returns the format of the specified name.
+         *
+         * @param name the name of the format, case insensitive.
+         * @return the format found.
+         * @throws IllegalArgumentException if the name is unknown.
+         */
+        static Format of(String name) {
+            Objects.requireNonNull(name, "name must not be null.");
+            for (Format format : values()) {
+                if (format.name().equalsIgnoreCase(name)) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unknown progress format: " + name);
+        }
+    }
+
+    private final Format format;
+    private final PrintStream out;
+    private final int totalDocuments;
+    private final long startTime;
+
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong pages = new AtomicLong();
+    private final AtomicLong knownPages = new AtomicLong();
+    // The moving average of the latencies in nanoseconds, stored as the bits of double.
+    private final AtomicLong averageLatency = new AtomicLong(Double.doubleToRawLongBits(Double.NaN));
+
+    private Thread thread;
+
+    /**
+     * Constructs this reporter.
+     *
+     * @param format the format of the progress.
+     * @param out the stream to print the progress.
+     * @param totalDocuments the number of the documents to process.
+     * @param startTime the time when the processing started, in {@link System#nanoTime()}.
+     */
+    ProgressReporter(Format format, PrintStream out, int totalDocuments, long startTime) {
+        this.format = format;
+        this.out = out;
+        this.totalDocuments = totalDocuments;
+        this.startTime = startTime;
+    }
+
+    /**
+     * Starts printing the progress periodically.
+     *
+     * @param intervalMillis the interval in milliseconds.
+     */
+    void start(long intervalMillis) {
+        thread = new Thread(() -> {
+            try {
+                for (;;) {
+                    TimeUnit.MILLISECONDS.sleep(intervalMillis);
+                    report();
+                }
+            } catch (InterruptedException e) {
+                // Stopped
+            }
+        }, "pandora-progress");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops printing and prints the final progress.
+     *
+     * @throws InterruptedException if the current thread was interrupted.
+     */
+    void stop() throws InterruptedException {
+        if (thread != null) {
+            thread.interrupt();
+            thread.join();
+        }
+        report();
+    }
+
+    /**
+     * Notifies that a document begins to be processed.
+     *
+     * @param selectedPages the number of the pages to process in the document.
+     */
+    void beginDocument(int selectedPages) {
+        knownPages.setRelease(knownPages.getPlain() + selectedPages);
+        documents.setRelease(documents.getPlain() + 1);
+    }
+
+    /**
+     * Notifies that a page was processed.
+     *
+     * @param latency the time spent for the page in nanoseconds.
+     */
+    void pageDone(long latency) {
+        double average = Double.longBitsToDouble(averageLatency.getPlain());
+        if (Double.isNaN(average)) {
+            average = latency;
+        } else {
+            average += SMOOTHING * (latency - average);
+        }
+        averageLatency.setRelease(Double.doubleToRawLongBits(average));
+        pages.setRelease(pages.getPlain() + 1);
+    }
+
+    /**
+     * Prints the current progress.
+     */
+    void report() {
+        out.println(format(snapshot(System.nanoTime())));
+        out.flush();
+    }
+
+    /**
+     * Takes the snapshot of the progress.
+     *
+     * @param now the current time in {@link System#nanoTime()}.
+     * @return the snapshot of the progress.
+     */
+    Snapshot snapshot(long now) {
+        long done = pages.getAcquire();
+        long begun = documents.getAcquire();
+        long known = knownPages.getAcquire();
+        double latency = Double.longBitsToDouble(averageLatency.getAcquire());
+        double seconds = (now - startTime) / 1e9;
+
+        // The pages of the documents not loaded yet are estimated from the documents loaded.
+        long total = known;
+        if (begun > 0 && begun < totalDocuments) {
+            total += Math.round((double) known / begun * (totalDocuments - begun));
+        }
+        double pagesPerSecond = (seconds > 0) ? done / seconds : 0;
+        double eta = (pagesPerSecond > 0) ? Math.max(total - done, 0) / pagesPerSecond : Double.NaN;
+        return new Snapshot(done, total, begun, totalDocuments, pagesPerSecond,
+                Double.isNaN(latency) ? Double.NaN : latency / 1e6, eta);
+    }
+
+    /**
+     * Formats the snapshot of the progress.
+     *
+     * @param s the snapshot of the progress.
+     * @return the formatted line.
+     */
+    String format(Snapshot s) {
+        if (format == Format.JSON) {
+            return String.format(Locale.ROOT,
+                    "{\"pages\":%d,\"totalPages\":%d,\"documents\":%d,\"totalDocuments\":%d,"
+                    + "\"pagesPerSecond\":%.3f,\"millisPerPage\":%s,\"etaSeconds\":%s}",
+                    s.pages, s.totalPages, s.documents, s.totalDocuments,
+                    s.pagesPerSecond, toJsonNumber(s.millisPerPage), toJsonNumber(s.etaSeconds));
+        }
+        double percent = (s.totalPages > 0) ? 100.0 * s.pages / s.totalPages : 0;
+        return String.format(Locale.ROOT,
+                "%d/%d pages (%.1f%%), %d/%d documents, %.1f pages/s, %s ms/page, ETA %s",
+                s.pages, s.totalPages, percent, s.documents, s.totalDocuments,
+                s.pagesPerSecond,
+                Double.isNaN(s.millisPerPage) ? "-" : String.format(Locale.ROOT, "%.1f", s.millisPerPage),
+                formatDuration(s.etaSeconds));
+    }
+
+    private static String toJsonNumber(double value) {
+        return Double.isNaN(value) ? "null" : String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String formatDuration(double seconds) {
+        if (Double.isNaN(seconds)) {
+            return "-";
+        }
+        long total = Math.round(seconds);
+        if (total >= 3600) {
+            return String.format(Locale.ROOT, "%d:%02d:%02d", total / 3600, total / 60 % 60, total % 60);
+        }
+        return String.format(Locale.ROOT, "%d:%02d", total / 60, total % 60);
+    }
+
+    /**
+     * The progress at a point of time.
+     */
+    static class Snapshot {
+
+        final long pages;
+        final long totalPages;
+        final long documents;
+        final long totalDocuments;
+        final double pagesPerSecond;
+        final double millisPerPage;
+        final double etaSeconds;
+
+        Snapshot(long pages, long totalPages, long documents, long totalDocuments,
+                double pagesPerSecond, double millisPerPage, double etaSeconds) {
+            this.pages = pages;
+            this.totalPages = totalPages;
+            this.documents = documents;
+            this.totalDocuments = totalDocuments;
+            this.pagesPerSecond = pagesPerSecond;
+            this.millisPerPage = millisPerPage;
+            this.etaSeconds = etaSeconds;
+        }
+    }
+}
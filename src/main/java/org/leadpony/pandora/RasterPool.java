@@ -0,0 +1,178 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pool of the buffers backing the rasters of rendered pages.
+ *
+ * <p>
+ * The raster of a page rendered at a high resolution is large enough
+ * to be allocated directly in the old generation, or as a humongous object by G1,
+ * and becomes garbage as soon as the bounding box is found in it.
+ * Reusing the buffers stops such allocations from repeating page after page.
+ * A buffer is reused for any raster not larger than it, and the pool retains
+ * the largest of the buffers released, up to the specified number.
+ * </p>
+ *
+ * @author leadpony
+ */
+class RasterPool {
+
+    /**
+     * The pool which retains no buffers, allocating a new buffer for each raster.
+     */
+    static final RasterPool NONE = new RasterPool(0);
+
+    // The buffers are allocated in multiples of this size to be reused for slightly larger pages.
+    private static final int GRANULARITY = 64 * 1024;
+
+    private final int maxRetained;
+    private final List<byte[]> retained = new ArrayList<>();
+
+    /**
+     * Constructs this pool.
+     *
+     * @param maxRetained the maximum number of the buffers retained, can be zero.
+     * @throws IllegalArgumentException if the maximum number is negative.
+     */
+    RasterPool(int maxRetained) {
+        if (maxRetained < 0) {
+            throw new IllegalArgumentException("Maximum number of buffers must not be negative: " + maxRetained);
+        }
+        this.maxRetained = maxRetained;
+    }
+
+    /**
+     * Creates a pool which retains as many buffers as the available processors,
+     * enough for the pages rendered at the same time.
+     *
+     * @return newly created pool.
+     */
+    static RasterPool ofProcessors() {
+        return new RasterPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Acquires a buffer which has at least the specified size.
+     * The contents of the buffer are undefined.
+     *
+     * @param size the size of the buffer in bytes.
+     * @return the lease of the buffer, which must be closed when the buffer is no longer used.
+     */
+    Lease acquire(int size) {
+        byte[] buffer = take(size);
+        if (buffer != null) {
+            return new Lease(buffer, true);
+        }
+        int capacity = size;
+        if (maxRetained > 0) {
+            capacity = (int) Math.min((size + GRANULARITY - 1L) / GRANULARITY * GRANULARITY, Integer.MAX_VALUE);
+        }
+        return new Lease(new byte[capacity], false);
+    }
+
+    /**
+     * Returns the number of the buffers retained.
+     *
+     * @return the number of the buffers retained.
+     */
+    synchronized int getRetained() {
+        return retained.size();
+    }
+
+    /*
+     * Takes the smallest buffer which is large enough.
+     */
+    private synchronized byte[] take(int size) {
+        int found = -1;
+        for (int i = 0; i < retained.size(); i++) {
+            int length = retained.get(i).length;
+            if (length >= size && (found < 0 || length < retained.get(found).length)) {
+                found = i;
+            }
+        }
+        return (found >= 0) ? retained.remove(found) : null;
+    }
+
+    /*
+     * Retains the buffer, replacing the smallest one if the pool is full.
+     */
+    private synchronized void release(byte[] buffer) {
+        if (maxRetained == 0) {
+            return;
+        }
+        if (retained.size() < maxRetained) {
+            retained.add(buffer);
+            return;
+        }
+        int smallest = 0;
+        for (int i = 1; i < retained.size(); i++) {
+            if (retained.get(i).length < retained.get(smallest).length) {
+                smallest = i;
+            }
+        }
+        if (retained.get(smallest).length < buffer.length) {
+            retained.set(smallest, buffer);
+        }
+    }
+
+    /**
+     * A buffer acquired from the pool.
+     */
+    class Lease implements AutoCloseable {
+
+        private final byte[] buffer;
+        private final boolean reused;
+        private boolean closed;
+
+        private Lease(byte[] buffer, boolean reused) {
+            this.buffer = buffer;
+            this.reused = reused;
+        }
+
+        /**
+         * Returns the buffer, which may be larger than requested.
+         *
+         * @return the buffer.
+         */
+        byte[] getBuffer() {
+            return buffer;
+        }
+
+        /**
+         * Checks if the buffer was released before and reused.
+         *
+         * @return {@code true} if the buffer was reused.
+         */
+        boolean isReused() {
+            return reused;
+        }
+
+        /**
+         * Returns the buffer to the pool.
+         */
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(buffer);
+            }
+        }
+    }
+}
@@ -18,19 +18,83 @@ package org.leadpony.pandora;
 
 import java.awt.geom.Rectangle2D;
 import java.io.IOException;
+import java.util.Map;
+import java.util.WeakHashMap;
 
+import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 
+/**
+ * A bounding box finder which calculates the bounding box from the content of the page.
+ *
+ * <p>
+ * The content is scanned by {@link ContentScanner}, and {@link BoundingBoxCalculator}
+ * is used only for the pages which the scanner does not support.
+ * </p>
+ *
+ * @author leadpony
+ */
 class SimpleBoundingBoxFinder implements BoundingBoxFinder {
 
+    private final boolean includesAnnotations;
+    private final Map<PDDocument, GlyphBounds> glyphBounds = new WeakHashMap<>();
+
+    SimpleBoundingBoxFinder() {
+        this(true);
+    }
+
+    /**
+     * Constructs this finder.
+     *
+     * @param includesAnnotations {@code true} if the annotations are included in the bounding box.
+     */
+    SimpleBoundingBoxFinder(boolean includesAnnotations) {
+        this.includesAnnotations = includesAnnotations;
+    }
+
+    @Override
+    public Rectangle2D getBoundingBox(PDDocument doc, int pageIndex) throws IOException {
+        GlyphBounds glyphs = glyphBounds.computeIfAbsent(doc, key -> new GlyphBounds());
+        return getBoundingBox(doc.getPage(pageIndex), pageIndex, glyphs);
+    }
+
     @Override
     public Rectangle2D getBoundingBox(PDPage page) throws IOException {
-        var calculator = createCalculator(page);
-        calculator.processPage(page);
-        return calculator.getBoundingBox();
+        return getBoundingBox(page, -1, new GlyphBounds());
+    }
+
+    protected boolean isTextOnly() {
+        return false;
     }
 
     protected BoundingBoxCalculator createCalculator(PDPage page) {
         return new BoundingBoxCalculator(page);
     }
+
+    private Rectangle2D getBoundingBox(PDPage page, int pageIndex, GlyphBounds glyphs) throws IOException {
+        var event = new PandoraEvents.PageAnalysisEvent(isTextOnly() ? "text-bbox" : "fast-bbox", pageIndex);
+        event.begin();
+        var scanner = new ContentScanner(page, glyphs, isTextOnly());
+        try {
+            scanner.scanPage();
+            if (includesAnnotations) {
+                scanner.scanAnnotations();
+            }
+            return scanner.getBoundingBox();
+        } catch (ContentScanner.UnsupportedContentException e) {
+            return calculateBoundingBox(page);
+        } finally {
+            event.setScanned(scanner);
+            event.commit();
+        }
+    }
+
+    private Rectangle2D calculateBoundingBox(PDPage page) throws IOException {
+        var calculator = createCalculator(page);
+        calculator.processPage(page);
+        if (includesAnnotations) {
+            calculator.processAnnotations(page);
+        }
+        return calculator.getBoundingBox();
+    }
 }
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * A compressor of the uncompressed streams in a PDF document.
+ *
+ * <p>
+ * The stream data are read on the calling thread, because the document
+ * cannot be accessed concurrently, then deflated on a pool of worker threads,
+ * and finally written back to the streams on the calling thread again.
+ * The streams are processed in batches to limit the memory in use.
+ * As the deflater is deterministic, the output does not depend on
+ * the number of threads.
+ * </p>
+ *
+ * <p>
+ * Unless the number of threads is specified, the compressors share a pool
+ * sized to the available processors, so that the documents saved at the same time
+ * do not multiply the threads deflating the streams.
+ * </p>
+ *
+ * @author leadpony
+ */
+class StreamCompressor {
+
+    /**
+     * Compression levels.
+     */
+    enum Level {
+        FAST(Deflater.BEST_SPEED),
+        SMALL(Deflater.BEST_COMPRESSION);
+
+        private final int value;
+
+        Level(int value) {
+            this.value = value;
+        }
+
+        /**
+         * Returns the level of the deflater.
+         *
+         * @return the level of {@link Deflater}.
+         */
+        int getValue() {
+            return value;
+        }
+
+        /**
+         * Returns the compression level of the specified name.
+         *
+         * @param name the name of the level, case insensitive.
+         * @return the compression level found.
+         * @throws IllegalArgumentException if the name is unknown.
+         */
+        static Level of(String name) {
+            Objects.requireNonNull(name, "name must not be null.");
+            for (Level level : values()) {
+                if (level.name().equalsIgnoreCase(name)) {
+                    return level;
+                }
+            }
+            throw new IllegalArgumentException("Unknown compression level: " + name);
+        }
+    }
+
+    private static final long BATCH_BYTES = 64L * 1024 * 1024;
+
+    private static final List<COSName> SKIPPED_TYPES = Arrays.asList(
+            COSName.METADATA, COSName.XREF, COSName.OBJ_STM);
+
+    private final Level level;
+    // The number of threads of the dedicated pool, or 0 to use the shared pool.
+    private final int threads;
+
+    StreamCompressor(Level level) {
+        this(level, 0);
+    }
+
+    StreamCompressor(Level level, int threads) {
+        this.level = level;
+        this.threads = threads;
+    }
+
+    /**
+     * Compresses all uncompressed streams in the document with Flate.
+     *
+     * @param doc the PDF document.
+     * @return the number of the streams compressed.
+     * @throws IOException if an I/O error has occurred.
+     */
+    int compress(PDDocument doc) throws IOException {
+        COSDictionary trailer = doc.getDocument().getTrailer();
+        List<COSBase> objects = ObjectSerializer.collectObjects(Arrays.asList(
+                doc.getDocumentCatalog().getCOSObject(),
+                trailer.getCOSDictionary(COSName.INFO)));
+
+        ExecutorService executor = (threads > 0) ? newPool(threads) : SharedPool.EXECUTOR;
+        List<Future<byte[]>> results = new ArrayList<>();
+        try {
+            int compressed = 0;
+            List<COSStream> batch = new ArrayList<>();
+            long batchBytes = 0;
+            for (COSBase object : objects) {
+                if (!isCompressible(object)) {
+                    continue;
+                }
+                COSStream stream = (COSStream) object;
+                byte[] data;
+                try (InputStream in = stream.createRawInputStream()) {
+                    data = in.readAllBytes();
+                }
+                if (data.length == 0) {
+                    continue;
+                }
+                batch.add(stream);
+                results.add(executor.submit(() -> deflate(data)));
+                batchBytes += data.length;
+                if (batchBytes >= BATCH_BYTES) {
+                    compressed += replaceData(batch, results);
+                    batchBytes = 0;
+                }
+            }
+            compressed += replaceData(batch, results);
+            return compressed;
+        } finally {
+            if (executor == SharedPool.EXECUTOR) {
+                results.forEach(result -> result.cancel(true));
+            } else {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private static ExecutorService newPool(int threads) {
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "pandora-compressor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static boolean isCompressible(COSBase object) {
+        if (!(object instanceof COSStream)) {
+            return false;
+        }
+        COSStream stream = (COSStream) object;
+        return stream.getFilters() == null
+                && !SKIPPED_TYPES.contains(stream.getCOSName(COSName.TYPE));
+    }
+
+    private int replaceData(List<COSStream> batch, List<Future<byte[]>> results) throws IOException {
+        int replaced = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            byte[] data = await(results.get(i));
+            if (data == null) {
+                continue;
+            }
+            COSStream stream = batch.get(i);
+            try (OutputStream out = stream.createRawOutputStream()) {
+                out.write(data);
+            }
+            stream.setItem(COSName.FILTER, COSName.FLATE_DECODE);
+            stream.removeItem(COSName.DECODE_PARMS);
+            replaced++;
+        }
+        batch.clear();
+        results.clear();
+        return replaced;
+    }
+
+    /*
+     * Returns the compressed data, or null if it is not smaller than the original.
+     */
+    private byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(level.value);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                out.write(buffer, 0, length);
+                if (out.size() >= data.length) {
+                    return null;
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] await(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * The holder of the pool shared by the compressors, created on first use.
+     */
+    private static class SharedPool {
+
+        static final ExecutorService EXECUTOR = newPool(Runtime.getRuntime().availableProcessors());
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+/**
+ * A generator of synthetic PDF documents for benchmarking.
+ *
+ * <p>
+ * Each page has random margins and is filled with lines of text,
+ * vector drawings or an image, chosen by the pseudo-random generator.
+ * The same seed always produces the same documents.
+ * </p>
+ *
+ * @author leadpony
+ */
+class SyntheticCorpus {
+
+    private static final PDFont[] FONTS = {
+        PDType1Font.TIMES_ROMAN,
+        PDType1Font.HELVETICA,
+        PDType1Font.COURIER
+    };
+
+    private static final String WORDS =
+            "lorem ipsum dolor sit amet consectetur adipiscing elit sed do eiusmod tempor "
+            + "incididunt ut labore et dolore magna aliqua ut enim ad minim veniam quis nostrud";
+
+    private final int documents;
+    private final int pages;
+    private final long seed;
+
+    /**
+     * Constructs this generator.
+     *
+     * @param documents the number of the documents to generate.
+     * @param pages the number of the pages in each document.
+     * @param seed the seed of the pseudo-random generator.
+     */
+    SyntheticCorpus(int documents, int pages, long seed) {
+        this.documents = documents;
+        this.pages = pages;
+        this.seed = seed;
+    }
+
+    /**
+     * Generates the documents into the specified directory.
+     *
+     * @param dir the directory where the documents will be written.
+     * @return the paths of the generated documents.
+     * @throws IOException if an I/O error has occurred.
+     */
+    List<Path> generate(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        Random random = new Random(seed);
+        List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < documents; i++) {
+            Path path = dir.resolve(String.format("synthetic-%03d.pdf", i + 1));
+            try (PDDocument doc = new PDDocument()) {
+                for (int j = 0; j < pages; j++) {
+                    addPage(doc, random);
+                }
+                setDocumentId(doc, random);
+                doc.save(path.toFile());
+            }
+            paths.add(path);
+        }
+        return paths;
+    }
+
+    /*
+     * Replaces the identifier otherwise generated from the current time.
+     */
+    private static void setDocumentId(PDDocument doc, Random random) {
+        byte[] id = new byte[16];
+        random.nextBytes(id);
+        COSArray ids = new COSArray();
+        ids.add(new COSString(id));
+        ids.add(new COSString(id));
+        doc.getDocument().getTrailer().setItem(COSName.ID, ids);
+    }
+
+    private static void addPage(PDDocument doc, Random random) throws IOException {
+        PDRectangle mediaBox = random.nextBoolean() ? PDRectangle.A4 : PDRectangle.LETTER;
+        PDPage page = new PDPage(mediaBox);
+        doc.addPage(page);
+        float left = 36 + random.nextInt(72);
+        float bottom = 36 + random.nextInt(72);
+        float width = mediaBox.getWidth() - left - 36 - random.nextInt(72);
+        float height = mediaBox.getHeight() - bottom - 36 - random.nextInt(72);
+        PDRectangle area = new PDRectangle(left, bottom, width, height);
+        try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+            int kind = random.nextInt(10);
+            if (kind < 6) {
+                writeText(stream, area, random);
+            } else if (kind < 9) {
+                drawShapes(stream, area, random);
+            } else {
+                drawImage(doc, stream, area, random);
+            }
+        }
+    }
+
+    private static void writeText(PDPageContentStream stream, PDRectangle area, Random random)
+            throws IOException {
+        PDFont font = FONTS[random.nextInt(FONTS.length)];
+        float fontSize = 9 + random.nextInt(4);
+        float leading = fontSize * 1.2f;
+        String[] words = WORDS.split(" ");
+        stream.beginText();
+        stream.setFont(font, fontSize);
+        stream.setLeading(leading);
+        stream.newLineAtOffset(area.getLowerLeftX(), area.getUpperRightY() - fontSize);
+        int lines = (int) (area.getHeight() / leading);
+        for (int i = 0; i < lines; i++) {
+            StringBuilder line = new StringBuilder();
+            while (true) {
+                String word = words[random.nextInt(words.length)];
+                float lineWidth = font.getStringWidth(line + " " + word) / 1000 * fontSize;
+                if (lineWidth > area.getWidth()) {
+                    break;
+                }
+                if (line.length() > 0) {
+                    line.append(' ');
+                }
+                line.append(word);
+            }
+            stream.showText(line.toString());
+            stream.newLine();
+        }
+        stream.endText();
+    }
+
+    private static void drawShapes(PDPageContentStream stream, PDRectangle area, Random random)
+            throws IOException {
+        int shapes = 50 + random.nextInt(200);
+        for (int i = 0; i < shapes; i++) {
+            float x = area.getLowerLeftX() + random.nextFloat() * area.getWidth();
+            float y = area.getLowerLeftY() + random.nextFloat() * area.getHeight();
+            float x2 = area.getLowerLeftX() + random.nextFloat() * area.getWidth();
+            float y2 = area.getLowerLeftY() + random.nextFloat() * area.getHeight();
+            stream.setStrokingColor(random.nextFloat(), random.nextFloat(), random.nextFloat());
+            if (random.nextBoolean()) {
+                stream.moveTo(x, y);
+                stream.curveTo(x, y2, x2, y, x2, y2);
+            } else {
+                stream.addRect(Math.min(x, x2), Math.min(y, y2), Math.abs(x2 - x), Math.abs(y2 - y));
+            }
+            stream.stroke();
+        }
+    }
+
+    private static void drawImage(PDDocument doc, PDPageContentStream stream, PDRectangle area, Random random)
+            throws IOException {
+        int w = 200 + random.nextInt(200);
+        int h = 200 + random.nextInt(200);
+        BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, w, h);
+            for (int i = 0; i < 20; i++) {
+                g.setColor(new Color(random.nextInt(0x1000000)));
+                g.fillOval(random.nextInt(w), random.nextInt(h), random.nextInt(w / 2), random.nextInt(h / 2));
+            }
+        } finally {
+            g.dispose();
+        }
+        PDImageXObject xobject = LosslessFactory.createFromImage(doc, image);
+        stream.drawImage(xobject, area.getLowerLeftX(), area.getLowerLeftY(), area.getWidth(), area.getHeight());
+    }
+}
@@ -27,6 +27,18 @@ import org.apache.pdfbox.pdmodel.graphics.image.PDImage;
  */
 class TextBoundingBoxFinder extends SimpleBoundingBoxFinder {
 
+    TextBoundingBoxFinder() {
+    }
+
+    TextBoundingBoxFinder(boolean includesAnnotations) {
+        super(includesAnnotations);
+    }
+
+    @Override
+    protected boolean isTextOnly() {
+        return true;
+    }
+
     @Override
     protected BoundingBoxCalculator createCalculator(PDPage page) {
         return new TextBoundingBoxCalculator(page);
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author leadpony
+ */
+public class AggregatingLogHandlerTest {
+
+    private static final String PARSER = "org.apache.pdfbox.pdfparser.COSParser";
+    private static final String FONT = "org.apache.pdfbox.pdmodel.font.PDType1Font";
+
+    private final CapturingHandler target = new CapturingHandler();
+    private final AggregatingLogHandler handler = new AggregatingLogHandler(target, 3);
+
+    @Test
+    public void publishShouldSuppressRepeatedRecords() {
+        Path document = Path.of("broken.pdf");
+        Object previous = AggregatingLogHandler.enterDocument(document);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                publish(Level.WARNING, PARSER, "Invalid dictionary at offset " + (1000 + i));
+            }
+            publish(Level.WARNING, FONT, "No glyph for code 42");
+        } finally {
+            AggregatingLogHandler.leaveDocument(previous);
+        }
+        assertThat(target.messages()).containsExactly(
+                "Invalid dictionary at offset 1000",
+                "No glyph for code 42");
+
+        handler.summarize(document);
+
+        assertThat(target.records).hasSize(3);
+        LogRecord summary = target.records.get(2);
+        assertThat(summary.getLevel()).isEqualTo(Level.WARNING);
+        assertThat(summary.getMessage())
+            .startsWith("Suppressed 999 repeated log records for broken.pdf")
+            .contains("999 x WARNING " + PARSER + " - Invalid dictionary at offset 1000")
+            .doesNotContain(FONT);
+    }
+
+    @Test
+    public void publishShouldLimitDistinctRecordsPerDocument() {
+        Path document = Path.of("noisy.pdf");
+        Object previous = AggregatingLogHandler.enterDocument(document);
+        try {
+            publish(Level.WARNING, PARSER, "First");
+            publish(Level.WARNING, PARSER, "Second");
+            publish(Level.SEVERE, PARSER, "Third");
+            publish(Level.WARNING, PARSER, "Fourth");
+            publish(Level.WARNING, PARSER, "Fifth");
+        } finally {
+            AggregatingLogHandler.leaveDocument(previous);
+        }
+        handler.summarize(document);
+
+        assertThat(target.messages()).hasSize(4).startsWith("First", "Second", "Third");
+        assertThat(target.records.get(3).getMessage()).startsWith("Suppressed 2 repeated log records");
+    }
+
+    @Test
+    public void publishShouldCountDocumentsSeparately() {
+        Path first = Path.of("first.pdf");
+        Path second = Path.of("second.pdf");
+        Object previous = AggregatingLogHandler.enterDocument(first);
+        try {
+            publish(Level.WARNING, PARSER, "Invalid dictionary");
+            Object outer = AggregatingLogHandler.enterDocument(second);
+            try {
+                publish(Level.WARNING, PARSER, "Invalid dictionary");
+            } finally {
+                AggregatingLogHandler.leaveDocument(outer);
+            }
+            publish(Level.WARNING, PARSER, "Invalid dictionary");
+        } finally {
+            AggregatingLogHandler.leaveDocument(previous);
+        }
+        handler.summarize(second);
+        handler.summarize(first);
+
+        assertThat(target.messages()).containsExactly(
+                "Invalid dictionary",
+                "Invalid dictionary",
+                "Suppressed 1 repeated log records for first.pdf"
+                + System.lineSeparator() + "  1 x WARNING " + PARSER + " - Invalid dictionary");
+    }
+
+    private void publish(Level level, String loggerName, String message) {
+        LogRecord record = new LogRecord(level, message);
+        record.setLoggerName(loggerName);
+        handler.publish(record);
+    }
+
+    private static class CapturingHandler extends Handler {
+
+        final List<LogRecord> records = new ArrayList<>();
+
+        List<String> messages() {
+            List<String> messages = new ArrayList<>();
+            for (LogRecord record : records) {
+                messages.add(record.getMessage());
+            }
+            return messages;
+        }
+
+        @Override
+        public void publish(LogRecord record) {
+            records.add(record);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
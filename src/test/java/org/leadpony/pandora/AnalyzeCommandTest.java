@@ -0,0 +1,150 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author leadpony
+ */
+public class AnalyzeCommandTest {
+
+    @Test
+    public void analyzeShouldPrintBoxesAsJsonLines(@TempDir Path dir) throws IOException {
+        Path input = createDocument(dir.resolve("input.pdf"));
+        StringWriter out = new StringWriter();
+
+        int exitCode = run(out, "analyze", "-m", "fast-bbox", input.toString());
+
+        assertThat(exitCode).isEqualTo(0);
+        assertThat(out.toString().lines()).containsExactly(
+                "{\"page\":1,\"mediaBox\":[0.0,0.0,400.0,600.0],"
+                + "\"boundingBox\":[95.0,95.0,155.0,155.0],\"cropBox\":[95.0,95.0,155.0,155.0]}",
+                "{\"page\":2,\"mediaBox\":[0.0,0.0,400.0,600.0],"
+                + "\"boundingBox\":[195.0,295.0,255.0,455.0],\"cropBox\":[195.0,295.0,255.0,455.0]}");
+    }
+
+    @Test
+    public void analyzeShouldAdjustCropBoxToAspect(@TempDir Path dir) throws IOException {
+        Path input = createDocument(dir.resolve("input.pdf"));
+        Path output = dir.resolve("boxes.jsonl");
+
+        int exitCode = run(new StringWriter(), "analyze", "-m", "fast-bbox", "--pages", "2",
+                "--aspect", "1:1", "-o", output.toString(), input.toString());
+
+        assertThat(exitCode).isEqualTo(0);
+        assertThat(Files.readAllLines(output)).containsExactly(
+                "{\"page\":2,\"mediaBox\":[0.0,0.0,400.0,600.0],"
+                + "\"boundingBox\":[195.0,295.0,255.0,455.0],\"cropBox\":[145.0,295.0,305.0,455.0]}");
+    }
+
+    @Test
+    public void analyzeShouldLeaveDocumentUntouched(@TempDir Path dir) throws IOException {
+        Path input = createDocument(dir.resolve("input.pdf"));
+        byte[] original = Files.readAllBytes(input);
+
+        int exitCode = run(new StringWriter(), "analyze", "-m", "fast-bbox", input.toString());
+
+        assertThat(exitCode).isEqualTo(0);
+        assertThat(Files.readAllBytes(input)).isEqualTo(original);
+        try (var files = Files.list(dir)) {
+            assertThat(files).containsExactly(input);
+        }
+    }
+
+    @Test
+    public void analyzeShouldRejectOptionsForWriting(@TempDir Path dir) throws IOException {
+        Path input = createDocument(dir.resolve("input.pdf"));
+
+        for (String option : new String[] {"--physical", "--linearize", "--object-streams", "--compress=fast",
+                "--variant=tight:padding=0"}) {
+            int exitCode = run(new StringWriter(), "analyze", option, input.toString());
+            assertThat(exitCode).as(option).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void cropShouldApplyBoxesAnalyzedForEachDocument(@TempDir Path dir) throws IOException {
+        Path first = createDocument(dir.resolve("first.pdf"));
+        Path second = dir.resolve("second {2}.pdf");
+        try (PDDocument doc = new PDDocument()) {
+            fillPage(doc, 300, 400, 20, 20);
+            fillPage(doc, 10, 20, 100, 100);
+            doc.save(second.toFile());
+        }
+        Path boxes = dir.resolve("boxes.jsonl");
+        Path outputDir = Files.createDirectory(dir.resolve("output"));
+
+        assertThat(run(new StringWriter(), "analyze", "-m", "fast-bbox", "-o", boxes.toString(),
+                first.toString(), second.toString())).isEqualTo(0);
+        assertThat(run(new StringWriter(), "crop", "-m", boxes.toString(), "-o", outputDir.toString(),
+                first.toString(), second.toString())).isEqualTo(0);
+
+        assertThat(cropBoxesOf(outputDir.resolve("first.pdf"))).containsExactly(
+                "[95.0,95.0,155.0,155.0]", "[195.0,295.0,255.0,455.0]");
+        assertThat(cropBoxesOf(outputDir.resolve(second.getFileName()))).containsExactly(
+                "[295.0,395.0,325.0,425.0]", "[5.0,15.0,115.0,125.0]");
+    }
+
+    private static int run(StringWriter out, String... args) {
+        return new PandoraCommand(new PrintWriter(out), new PrintWriter(new StringWriter())).run(args);
+    }
+
+    private static List<String> cropBoxesOf(Path path) throws IOException {
+        List<String> boxes = new ArrayList<>();
+        try (PDDocument doc = PDDocument.load(path.toFile())) {
+            for (PDPage page : doc.getPages()) {
+                PDRectangle box = page.getCropBox();
+                boxes.add("[" + box.getLowerLeftX() + "," + box.getLowerLeftY()
+                        + "," + box.getUpperRightX() + "," + box.getUpperRightY() + "]");
+            }
+        }
+        return boxes;
+    }
+
+    private static Path createDocument(Path path) throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            fillPage(doc, 100, 100, 50, 50);
+            fillPage(doc, 200, 300, 50, 150);
+            doc.save(path.toFile());
+        }
+        return path;
+    }
+
+    private static void fillPage(PDDocument doc, float x, float y, float width, float height) throws IOException {
+        PDPage page = new PDPage(new PDRectangle(400, 600));
+        doc.addPage(page);
+        try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+            stream.addRect(x, y, width, height);
+            stream.fill();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author leadpony
+ */
+public class BenchCommandTest {
+
+    @Test
+    public void benchShouldReportEachConfiguration(@TempDir Path dir) throws IOException {
+        Path corpus = dir.resolve("corpus");
+        Path json = dir.resolve("results.json");
+        StringWriter out = new StringWriter();
+        StringWriter err = new StringWriter();
+
+        int exitCode = new PandoraCommand(new PrintWriter(out), new PrintWriter(err)).run(
+                "bench",
+                "--generate", "2", "--generate-pages", "3",
+                "-m", "fast-bbox", "-m", "text-bbox",
+                "--threads", "1,2",
+                "--warmup", "0", "--iterations", "1",
+                "--json", json.toString(),
+                corpus.toString());
+
+        assertThat(exitCode).isEqualTo(0);
+        assertThat(out.toString().lines()).hasSize(5);
+        List<String> lines = Files.readAllLines(json);
+        assertThat(lines).hasSize(6);
+        assertThat(lines.get(1)).startsWith("  {\"margin\":\"fast-bbox\",\"padding\":5,\"threads\":1,\"pages\":6,");
+        assertThat(lines.get(4)).startsWith("  {\"margin\":\"text-bbox\",\"padding\":5,\"threads\":2,\"pages\":6,");
+    }
+
+    @Test
+    public void benchShouldCompareScannerWithCalculator(@TempDir Path dir) throws IOException {
+        Path corpus = dir.resolve("corpus");
+        Path json = dir.resolve("results.json");
+        StringWriter out = new StringWriter();
+        StringWriter err = new StringWriter();
+
+        int exitCode = new PandoraCommand(new PrintWriter(out), new PrintWriter(err)).run(
+                "bench",
+                "--generate", "2", "--generate-pages", "3",
+                "--compare-scanner",
+                "--warmup", "0", "--iterations", "2",
+                "--json", json.toString(),
+                corpus.toString());
+
+        assertThat(exitCode).isEqualTo(0);
+        assertThat(out.toString().lines()).hasSize(3);
+        List<String> lines = Files.readAllLines(json);
+        assertThat(lines).hasSize(4);
+        assertThat(lines.get(1)).startsWith("  {\"analyzer\":\"scanner\",\"pages\":12,");
+        assertThat(lines.get(2)).startsWith("  {\"analyzer\":\"calculator\",\"pages\":12,");
+    }
+
+    @Test
+    public void syntheticCorpusShouldBeReproducible(@TempDir Path dir) throws IOException {
+        List<Path> first = new SyntheticCorpus(2, 5, 1).generate(dir.resolve("first"));
+        List<Path> second = new SyntheticCorpus(2, 5, 1).generate(dir.resolve("second"));
+
+        assertThat(first).hasSize(2);
+        for (int i = 0; i < first.size(); i++) {
+            assertThat(Files.readAllBytes(second.get(i))).isEqualTo(Files.readAllBytes(first.get(i)));
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.state.PDExtendedGraphicsState;
+import org.apache.pdfbox.pdmodel.graphics.state.RenderingMode;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author leadpony
+ */
+public class BoundingBoxCalculatorTest {
+
+    private static final Rectangle2D VISIBLE = new Rectangle2D.Double(100, 100, 50, 50);
+
+    @Test
+    public void pathOutsideClipShouldNotGrowBox() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = addPage(doc);
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                fillVisible(stream);
+                stream.saveGraphicsState();
+                stream.addRect(0, 0, 200, 200);
+                stream.clip();
+                stream.addRect(300, 300, 50, 50);
+                stream.fill();
+                stream.restoreGraphicsState();
+            }
+
+            assertThat(calculate(page)).isEqualTo(VISIBLE);
+        }
+    }
+
+    @Test
+    public void pathCrossingClipShouldBeClipped() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = addPage(doc);
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                stream.addRect(0, 0, 200, 200);
+                stream.clip();
+                stream.addRect(100, 100, 300, 300);
+                stream.fill();
+            }
+
+            assertThat(calculate(page)).isEqualTo(new Rectangle2D.Double(100, 100, 100, 100));
+        }
+    }
+
+    @Test
+    public void fillWithZeroAlphaShouldBeSkipped() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = addPage(doc);
+            PDExtendedGraphicsState transparent = new PDExtendedGraphicsState();
+            transparent.setNonStrokingAlphaConstant(0f);
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                fillVisible(stream);
+                stream.saveGraphicsState();
+                stream.setGraphicsStateParameters(transparent);
+                stream.addRect(300, 300, 50, 50);
+                stream.fill();
+                stream.restoreGraphicsState();
+            }
+
+            assertThat(calculate(page)).isEqualTo(VISIBLE);
+        }
+    }
+
+    @Test
+    public void invisibleTextShouldBeSkipped() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = addPage(doc);
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                fillVisible(stream);
+                stream.beginText();
+                stream.setFont(PDType1Font.HELVETICA, 24);
+                stream.setRenderingMode(RenderingMode.NEITHER);
+                stream.newLineAtOffset(300, 500);
+                stream.showText("Invisible");
+                stream.endText();
+            }
+
+            assertThat(calculate(page)).isEqualTo(VISIBLE);
+        }
+    }
+
+    @Test
+    public void visibleTextShouldGrowBox() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = addPage(doc);
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                fillVisible(stream);
+                stream.beginText();
+                stream.setFont(PDType1Font.HELVETICA, 24);
+                stream.newLineAtOffset(300, 500);
+                stream.showText("Visible");
+                stream.endText();
+            }
+
+            Rectangle2D box = calculate(page);
+            assertThat(box.getMinX()).isEqualTo(100);
+            assertThat(box.getMaxY()).isGreaterThan(500);
+        }
+    }
+
+    @Test
+    public void contentOutsideMediaBoxShouldBeSkipped() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = addPage(doc);
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                fillVisible(stream);
+                stream.addRect(-200, -200, 100, 100);
+                stream.fill();
+                stream.addRect(500, 700, 50, 50);
+                stream.fill();
+            }
+
+            assertThat(calculate(page)).isEqualTo(VISIBLE);
+        }
+    }
+
+    @Test
+    public void contentCrossingMediaBoxShouldBeClipped() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = addPage(doc);
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                stream.addRect(-50, -50, 200, 200);
+                stream.fill();
+            }
+
+            assertThat(calculate(page)).isEqualTo(new Rectangle2D.Double(0, 0, 150, 150));
+        }
+    }
+
+    private static PDPage addPage(PDDocument doc) {
+        PDPage page = new PDPage(new PDRectangle(400, 600));
+        doc.addPage(page);
+        return page;
+    }
+
+    private static void fillVisible(PDPageContentStream stream) throws IOException {
+        stream.addRect(
+                (float) VISIBLE.getX(), (float) VISIBLE.getY(),
+                (float) VISIBLE.getWidth(), (float) VISIBLE.getHeight());
+        stream.fill();
+    }
+
+    private static Rectangle2D calculate(PDPage page) throws IOException {
+        BoundingBoxCalculator calculator = new BoundingBoxCalculator(page);
+        calculator.processPage(page);
+        return calculator.getBoundingBox();
+    }
+}
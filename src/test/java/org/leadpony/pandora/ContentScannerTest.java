@@ -0,0 +1,420 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.PDType3Font;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDInlineImage;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.pdmodel.graphics.state.PDExtendedGraphicsState;
+import org.apache.pdfbox.util.Matrix;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * @author leadpony
+ */
+public class ContentScannerTest {
+
+    private static final double TOLERANCE = 0.01;
+
+    public static Stream<Arguments> documents() {
+        List<Arguments> arguments = new ArrayList<>();
+        arguments.add(Arguments.of("numbered pages", (DocumentFactory) dir -> TestDocuments.createNumberedPages(3)));
+        for (long seed = 1; seed <= 5; seed++) {
+            final long corpusSeed = seed;
+            arguments.add(Arguments.of("synthetic corpus with seed " + seed, (DocumentFactory) dir ->
+                    PDDocument.load(new SyntheticCorpus(1, 20, corpusSeed).generate(dir).get(0).toFile())));
+        }
+        return arguments.stream();
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("documents")
+    public void scanShouldMatchCalculatorForDocument(String name, DocumentFactory factory, @TempDir Path dir)
+            throws IOException {
+        try (PDDocument doc = factory.create(dir)) {
+            for (PDPage page : doc.getPages()) {
+                assertScannerMatchesCalculator(doc, page);
+            }
+        }
+    }
+
+    @Test
+    public void scanShouldMatchCalculatorForText() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = new PDPage();
+            doc.addPage(page);
+            PDFont font = loadFont(doc);
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                stream.beginText();
+                stream.setFont(PDType1Font.TIMES_ROMAN, 14);
+                stream.newLineAtOffset(72, 700);
+                stream.setCharacterSpacing(2);
+                stream.setWordSpacing(5);
+                stream.setHorizontalScaling(120);
+                stream.showText("Hello, world");
+                stream.setFont(font, 10);
+                stream.setTextMatrix(Matrix.getRotateInstance(Math.PI / 6, 200, 300));
+                stream.showTextWithPositioning(new Object[] {"Rotated", -500f, "text"});
+                stream.setTextRise(4);
+                stream.setLeading(12);
+                stream.newLine();
+                stream.showText("Next line");
+                stream.endText();
+            }
+
+            assertScannerMatchesCalculator(doc, page);
+        }
+    }
+
+    @Test
+    public void scanShouldMatchCalculatorForGraphics() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = new PDPage();
+            doc.addPage(page);
+            PDImageXObject image = LosslessFactory.createFromImage(doc, new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB));
+            COSDictionary parameters = new COSDictionary();
+            parameters.setInt(COSName.W, 1);
+            parameters.setInt(COSName.H, 1);
+            parameters.setInt(COSName.BPC, 8);
+            parameters.setItem(COSName.CS, COSName.getPDFName("RGB"));
+            PDInlineImage inlineImage = new PDInlineImage(parameters, new byte[] {0, 0, 0}, page.getResources());
+            PDFormXObject form = new PDFormXObject(doc);
+            form.setBBox(new PDRectangle(0, 0, 50, 50));
+            try (PDPageContentStream stream = new PDPageContentStream(doc, form, form.getStream().createOutputStream())) {
+                stream.addRect(-20, -20, 100, 100);
+                stream.fill();
+            }
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                stream.saveGraphicsState();
+                stream.addRect(100, 100, 200, 200);
+                stream.clip();
+                stream.moveTo(50, 50);
+                stream.curveTo(120, 400, 250, 20, 350, 150);
+                stream.stroke();
+                stream.restoreGraphicsState();
+                stream.saveGraphicsState();
+                stream.transform(Matrix.getRotateInstance(Math.PI / 4, 400, 400));
+                stream.drawForm(form);
+                stream.restoreGraphicsState();
+                stream.drawImage(image, 20, 600, 40, 40);
+                stream.drawImage(inlineImage, 500, 20, 30, 30);
+            }
+
+            assertScannerMatchesCalculator(doc, page);
+        }
+    }
+
+    @Test
+    public void scanShouldSkipInlineImageData() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            // The image data looks like operators and contains "EI" not delimited by white-spaces.
+            PDPage page = addPage(doc, new PDResources(),
+                    "q 100 0 0 50 20 30 cm BI /W 15 /H 1 /BPC 8 /CS /G ID 0 0 9 9 re fEIx EI Q\n"
+                    + "200 300 10 10 re f");
+
+            ContentScanner scanner = scan(page);
+
+            assertThat(scanner.getBoundingBox()).isEqualTo(new Rectangle2D.Double(20, 30, 190, 280));
+            assertThat(scanner.hasImages()).isTrue();
+            assertScannerMatchesCalculator(doc, page);
+        }
+    }
+
+    @Test
+    public void scanShouldDecodeHexAndEscapedStrings() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDResources resources = new PDResources();
+            String font = resources.add(PDType1Font.HELVETICA).getName();
+            PDPage encoded = addPage(doc, resources,
+                    "BT /" + font + " 12 Tf 72 700 Td <48 65 6C 6c 6F> Tj\n"
+                    + "0 -20 Td (\\(a\\)\\\\\\101\\\n\\t) Tj\n"
+                    + "0 -20 Td [(A) -2000 <4243>] TJ ET");
+            PDPage plain = addPage(doc, resources,
+                    "BT /" + font + " 12 Tf 72 700 Td (Hello) Tj\n"
+                    + "0 -20 Td (\\(a\\)\\\\A\\t) Tj\n"
+                    + "0 -20 Td [(A) -2000 (BC)] TJ ET");
+
+            assertBoxesEqual(scan(encoded).getBoundingBox(), scan(plain).getBoundingBox());
+            assertThat(scan(encoded).getGlyphCount()).isEqualTo(scan(plain).getGlyphCount());
+            assertScannerMatchesCalculator(doc, encoded);
+        }
+    }
+
+    @Test
+    public void scanShouldIgnoreOperatorsWithMalformedOperands() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = addPage(doc, new PDResources(),
+                    "10 re f\n"
+                    + "/Name 60 l (string) 70 l null 80 l S\n"
+                    + "100 100 200 (x) re f\n"
+                    + "1 0 0 1 cm\n"
+                    + "300 300 10 10 re f\n"
+                    + "[1 2] 0 d 400 400 m 410 420 l S");
+
+            ContentScanner scanner = scan(page);
+
+            assertThat(scanner.getBoundingBox()).isEqualTo(new Rectangle2D.Double(300, 300, 110, 120));
+            assertScannerMatchesCalculator(doc, page);
+        }
+    }
+
+    @Test
+    public void scanShouldIgnoreInvisibleContent() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDResources resources = new PDResources();
+            String font = resources.add(PDType1Font.HELVETICA).getName();
+            PDExtendedGraphicsState noFill = new PDExtendedGraphicsState();
+            noFill.setNonStrokingAlphaConstant(0f);
+            PDExtendedGraphicsState noStroke = new PDExtendedGraphicsState();
+            noStroke.setStrokingAlphaConstant(0f);
+            String noFillName = resources.add(noFill).getName();
+            String noStrokeName = resources.add(noStroke).getName();
+            PDPage page = addPage(doc, resources,
+                    "BT /" + font + " 12 Tf 72 700 Td (Filled) Tj ET\n"
+                    + "BT /" + font + " 12 Tf 3 Tr 300 700 Td (Neither) Tj ET\n"
+                    + "BT /" + font + " 12 Tf 7 Tr 72 20 Td (Clip) Tj ET\n"
+                    + "q /" + noFillName + " gs 10 10 50 50 re f 100 100 m 200 200 l S\n"
+                    + "BT /" + font + " 12 Tf 0 Tr 72 600 Td (Transparent) Tj ET Q\n"
+                    + "q /" + noStrokeName + " gs 300 300 m 400 400 l S 20 400 30 30 re f\n"
+                    + "BT /" + font + " 12 Tf 1 Tr 300 500 Td (Transparent) Tj ET Q");
+            PDPage visible = addPage(doc, resources,
+                    "BT /" + font + " 12 Tf 72 700 Td (Filled) Tj ET\n"
+                    + "100 100 m 200 200 l S 20 400 30 30 re f");
+
+            assertBoxesEqual(scan(page).getBoundingBox(), scan(visible).getBoundingBox());
+            assertScannerMatchesCalculator(doc, page);
+        }
+    }
+
+    @Test
+    public void scanShouldUseGlyphBoundsOfType3Font() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDResources resources = new PDResources();
+            String font = resources.add(createType3Font(doc)).getName();
+            PDPage page = addPage(doc, resources, "BT /" + font + " 20 Tf 100 100 Td (ab) Tj ET");
+
+            ContentScanner scanner = scan(page);
+
+            // The bounds of "b" are clipped by the font bounding box.
+            assertBoxesEqual(scanner.getBoundingBox(), new Rectangle2D.Double(100, 100, 40, 18));
+            assertScannerMatchesCalculator(doc, page);
+        }
+    }
+
+    @Test
+    public void scanShouldTransformAndClipNestedForms() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDFormXObject inner = new PDFormXObject(doc);
+            inner.setBBox(new PDRectangle(0, 0, 100, 100));
+            inner.setMatrix(AffineTransform.getTranslateInstance(10, 10));
+            try (PDPageContentStream stream = new PDPageContentStream(doc, inner, inner.getStream().createOutputStream())) {
+                stream.addRect(0, 0, 100, 100);
+                stream.fill();
+            }
+            PDFormXObject outer = new PDFormXObject(doc);
+            outer.setBBox(new PDRectangle(0, 0, 100, 100));
+            outer.setMatrix(AffineTransform.getScaleInstance(2, 2));
+            outer.setResources(new PDResources());
+            try (PDPageContentStream stream = new PDPageContentStream(doc, outer, outer.getStream().createOutputStream())) {
+                stream.addRect(0, 0, 40, 40);
+                stream.clip();
+                stream.drawForm(inner);
+            }
+            PDPage page = new PDPage();
+            doc.addPage(page);
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                stream.saveGraphicsState();
+                stream.transform(Matrix.getTranslateInstance(50, 50));
+                stream.drawForm(outer);
+                stream.restoreGraphicsState();
+                stream.addRect(500, 500, 10, 10);
+                stream.fill();
+            }
+
+            ContentScanner scanner = scan(page);
+
+            assertBoxesEqual(scanner.getBoundingBox(), new Rectangle2D.Double(70, 70, 440, 440));
+            assertScannerMatchesCalculator(doc, page);
+        }
+    }
+
+    @Test
+    public void scanShouldRejectVerticalFont() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = new PDPage();
+            doc.addPage(page);
+            PDType0Font font;
+            try (InputStream in = PDFont.class.getResourceAsStream(
+                    "/org/apache/pdfbox/resources/ttf/LiberationSans-Regular.ttf")) {
+                font = PDType0Font.loadVertical(doc, in);
+            }
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                stream.beginText();
+                stream.setFont(font, 12);
+                stream.newLineAtOffset(100, 700);
+                stream.showText("Vertical");
+                stream.endText();
+            }
+
+            Throwable thrown = catchThrowable(() -> scan(page));
+
+            assertThat(thrown).isInstanceOf(ContentScanner.UnsupportedContentException.class);
+            BoundingBoxCalculator calculator = new BoundingBoxCalculator(page);
+            calculator.processPage(page);
+            assertThat(calculator.getBoundingBox()).isNotNull();
+            assertBoxesEqual(new SimpleBoundingBoxFinder().getBoundingBox(page), calculator.getBoundingBox());
+        }
+    }
+
+    private static PDFont loadFont(PDDocument doc) throws IOException {
+        try (InputStream in = PDFont.class.getResourceAsStream(
+                "/org/apache/pdfbox/resources/ttf/LiberationSans-Regular.ttf")) {
+            return PDType0Font.load(doc, in);
+        }
+    }
+
+    private static PDPage addPage(PDDocument doc, PDResources resources, String content) throws IOException {
+        PDPage page = new PDPage();
+        page.setResources(resources);
+        page.setContents(new PDStream(doc,
+                new ByteArrayInputStream(content.getBytes(StandardCharsets.ISO_8859_1))));
+        doc.addPage(page);
+        return page;
+    }
+
+    private static ContentScanner scan(PDPage page) throws IOException {
+        ContentScanner scanner = new ContentScanner(page, new GlyphBounds(), false);
+        scanner.scanPage();
+        return scanner;
+    }
+
+    /*
+     * Creates a Type3 font of "a" and "b", the latter declaring the glyph bounding box
+     * which exceeds the font bounding box.
+     */
+    private static PDType3Font createType3Font(PDDocument doc) throws IOException {
+        COSName a = COSName.getPDFName("a");
+        COSName b = COSName.getPDFName("b");
+        COSDictionary charProcs = new COSDictionary();
+        charProcs.setItem(a, createCharProc(doc, "1000 0 0 0 750 750 d1 0 0 750 750 re f"));
+        charProcs.setItem(b, createCharProc(doc, "1000 0 0 -200 1500 900 d1 0 0 1000 900 re f"));
+
+        COSArray differences = new COSArray();
+        differences.add(COSInteger.get('a'));
+        differences.add(a);
+        differences.add(b);
+        COSDictionary encoding = new COSDictionary();
+        encoding.setItem(COSName.TYPE, COSName.ENCODING);
+        encoding.setItem(COSName.DIFFERENCES, differences);
+
+        COSDictionary font = new COSDictionary();
+        font.setItem(COSName.TYPE, COSName.FONT);
+        font.setItem(COSName.SUBTYPE, COSName.TYPE3);
+        font.setItem(COSName.FONT_BBOX, new PDRectangle(0, 0, 1000, 1000));
+        font.setItem(COSName.FONT_MATRIX, new Matrix(0.001f, 0, 0, 0.001f, 0, 0).toCOSArray());
+        font.setItem(COSName.CHAR_PROCS, charProcs);
+        font.setItem(COSName.ENCODING, encoding);
+        font.setInt(COSName.FIRST_CHAR, 'a');
+        font.setInt(COSName.LAST_CHAR, 'b');
+        COSArray widths = new COSArray();
+        widths.add(COSInteger.get(1000));
+        widths.add(COSInteger.get(1000));
+        font.setItem(COSName.WIDTHS, widths);
+        return new PDType3Font(font);
+    }
+
+    private static COSStream createCharProc(PDDocument doc, String content) throws IOException {
+        COSStream stream = doc.getDocument().createCOSStream();
+        try (OutputStream out = stream.createOutputStream()) {
+            out.write(content.getBytes(StandardCharsets.US_ASCII));
+        }
+        return stream;
+    }
+
+    private static void assertScannerMatchesCalculator(PDDocument doc, PDPage page) throws IOException {
+        GlyphBounds glyphBounds = new GlyphBounds();
+
+        BoundingBoxCalculator calculator = new BoundingBoxCalculator(page);
+        calculator.processPage(page);
+        ContentScanner scanner = new ContentScanner(page, glyphBounds, false);
+        scanner.scanPage();
+
+        assertBoxesEqual(scanner.getBoundingBox(), calculator.getBoundingBox());
+        assertThat(scanner.hasImages()).isEqualTo(calculator.hasImages());
+
+        BoundingBoxCalculator textCalculator = new TextBoundingBoxFinder.TextBoundingBoxCalculator(page);
+        textCalculator.processPage(page);
+        ContentScanner textScanner = new ContentScanner(page, glyphBounds, true);
+        textScanner.scanPage();
+
+        assertBoxesEqual(textScanner.getBoundingBox(), textCalculator.getBoundingBox());
+    }
+
+    private static void assertBoxesEqual(Rectangle2D actual, Rectangle2D expected) {
+        if (expected == null) {
+            assertThat(actual).isNull();
+            return;
+        }
+        assertThat(actual).isNotNull();
+        assertThat(actual.getMinX()).isCloseTo(expected.getMinX(), within(TOLERANCE));
+        assertThat(actual.getMinY()).isCloseTo(expected.getMinY(), within(TOLERANCE));
+        assertThat(actual.getMaxX()).isCloseTo(expected.getMaxX(), within(TOLERANCE));
+        assertThat(actual.getMaxY()).isCloseTo(expected.getMaxY(), within(TOLERANCE));
+    }
+
+    /**
+     * The factory of the document to scan.
+     */
+    interface DocumentFactory {
+
+        PDDocument create(Path dir) throws IOException;
+    }
+}
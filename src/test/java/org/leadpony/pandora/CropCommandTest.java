@@ -0,0 +1,141 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import picocli.CommandLine;
+
+/**
+ * @author leadpony
+ */
+public class CropCommandTest {
+
+    private static final Logger LOG = Logger.getLogger(AbstractCommand.class.getName());
+
+    private final List<LogRecord> records = Collections.synchronizedList(new ArrayList<>());
+    private final Handler handler = new Handler() {
+        @Override
+        public void publish(LogRecord record) {
+            records.add(record);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+    private Level originalLevel;
+
+    @BeforeEach
+    public void setUp() {
+        originalLevel = LOG.getLevel();
+        LOG.setLevel(Level.FINE);
+        LOG.addHandler(handler);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        LOG.removeHandler(handler);
+        LOG.setLevel(originalLevel);
+    }
+
+    @Test
+    public void cropShouldCopyItsOwnOutput(@TempDir Path dir) throws IOException {
+        Path input = generate(dir, 1).get(0);
+        Path first = dir.resolve("first.pdf");
+        Path second = dir.resolve("second.pdf");
+
+        assertThat(run("-m", "fast-bbox", "-o", first.toString(), input.toString())).isZero();
+        assertThat(Files.readAllBytes(first)).isNotEqualTo(Files.readAllBytes(input));
+        assertThat(unchangedMessages()).isEmpty();
+
+        assertThat(run("-m", "fast-bbox", "-o", second.toString(), first.toString())).isZero();
+        assertThat(Files.readAllBytes(second)).isEqualTo(Files.readAllBytes(first));
+        assertThat(unchangedMessages()).containsExactly("Nothing changed in " + first + ", copied to " + second);
+    }
+
+    @Test
+    public void cropShouldCopyUnchangedDocumentAfterChangedOne(@TempDir Path dir) throws IOException {
+        List<Path> inputs = generate(dir, 2);
+        Path cropped = dir.resolve("cropped.pdf");
+        assertThat(run("-m", "fast-bbox", "-o", cropped.toString(), inputs.get(1).toString())).isZero();
+        Path outputDir = Files.createDirectory(dir.resolve("output"));
+
+        assertThat(run("-m", "fast-bbox", "-o", outputDir.toString(),
+                inputs.get(0).toString(), cropped.toString())).isZero();
+
+        assertThat(Files.readAllBytes(outputDir.resolve(inputs.get(0).getFileName())))
+            .isNotEqualTo(Files.readAllBytes(inputs.get(0)));
+        assertThat(Files.readAllBytes(outputDir.resolve("cropped.pdf")))
+            .isEqualTo(Files.readAllBytes(cropped));
+        assertThat(unchangedMessages()).containsExactly(
+                "Nothing changed in " + cropped + ", copied to " + outputDir.resolve("cropped.pdf"));
+    }
+
+    @Test
+    public void cropShouldNotLogUnchangedDocumentAtInfo(@TempDir Path dir) throws IOException {
+        Path input = generate(dir, 1).get(0);
+        Path first = dir.resolve("first.pdf");
+        run("-m", "fast-bbox", "-o", first.toString(), input.toString());
+
+        run("-m", "fast-bbox", "-o", dir.resolve("second.pdf").toString(), first.toString());
+
+        assertThat(records).isNotEmpty().allMatch(record -> record.getLevel().intValue() < Level.INFO.intValue());
+    }
+
+    private List<String> unchangedMessages() {
+        List<String> messages = new ArrayList<>();
+        synchronized (records) {
+            for (LogRecord record : records) {
+                if (record.getMessage().startsWith("Nothing changed")) {
+                    messages.add(record.getMessage());
+                }
+            }
+            records.clear();
+        }
+        return messages;
+    }
+
+    private static int run(String... args) {
+        CommandLine commandLine = new CommandLine(new CropCommand());
+        PandoraCommand.registerConverters(commandLine);
+        return commandLine.execute(args);
+    }
+
+    private static List<Path> generate(Path dir, int documents) throws IOException {
+        return new SyntheticCorpus(documents, 3, 1).generate(dir.resolve("corpus"));
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * @author leadpony
+ */
+public class CropVariantTest {
+
+    @Test
+    public void valueOfShouldInheritUnspecifiedSettings() {
+        CropVariant variant = CropVariant.valueOf("wide");
+
+        assertThat(variant.getName()).isEqualTo("wide");
+        assertThat(variant.getPadding(5)).isEqualTo(5);
+        assertThat(variant.getAspect(0.75f)).isEqualTo(0.75f);
+        assertThat(variant.preservesAspect(true)).isTrue();
+    }
+
+    @Test
+    public void valueOfShouldOverrideSettings() {
+        CropVariant variant = CropVariant.valueOf("a4:padding=0,aspect=a4");
+
+        assertThat(variant.getPadding(5)).isZero();
+        assertThat(variant.getAspect(null)).isEqualTo(PaperSize.A4.aspectRatio());
+        assertThat(variant.preservesAspect(true)).isFalse();
+    }
+
+    @Test
+    public void valueOfShouldClearAspect() {
+        CropVariant variant = CropVariant.valueOf("free:aspect=none");
+
+        assertThat(variant.getAspect(0.75f)).isNull();
+        assertThat(CropVariant.valueOf("keep:preserve-aspect").preservesAspect(false)).isTrue();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "a/b", "tight:padding", "tight:margin=0", "tight:padding=x"})
+    public void valueOfShouldRejectInvalidValue(String value) {
+        assertThatThrownBy(() -> CropVariant.valueOf(value))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void withPaddingShouldShareBoundingBoxes() throws IOException {
+        AtomicInteger calls = new AtomicInteger();
+        BoundingBoxFinder finder = new BoundingBoxFinder() {
+            @Override
+            public Rectangle2D getBoundingBox(PDDocument doc, int pageIndex) {
+                calls.incrementAndGet();
+                return new Rectangle2D.Double(100, 100, 200, 300);
+            }
+        };
+        CropStrategy strategy = new BoundsCropStrategy(new FixedPadding(5), finder);
+        CropStrategy tight = strategy.withPadding(0);
+
+        try (PDDocument doc = new PDDocument()) {
+            doc.addPage(new PDPage());
+            doc.addPage(new PDPage());
+            for (int i = 0; i < 2; i++) {
+                assertBox(strategy.getCropBox(doc, i), 95, 95, 305, 405);
+                assertBox(tight.getCropBox(doc, i), 100, 100, 300, 400);
+            }
+        }
+        assertThat(calls).hasValue(2);
+    }
+
+    private static void assertBox(PDRectangle box, float x1, float y1, float x2, float y2) {
+        assertThat(new float[] {
+                box.getLowerLeftX(), box.getLowerLeftY(), box.getUpperRightX(), box.getUpperRightY()
+                }).containsExactly(x1, y1, x2, y2);
+    }
+
+    private static class FixedPadding implements CroppingContext {
+
+        private final int padding;
+
+        FixedPadding(int padding) {
+            this.padding = padding;
+        }
+
+        @Override
+        public Path getInput() {
+            return null;
+        }
+
+        @Override
+        public int getPadding() {
+            return padding;
+        }
+
+        @Override
+        public boolean includesAnnotations() {
+            return true;
+        }
+
+        @Override
+        public int getResolution() {
+            return 72;
+        }
+
+        @Override
+        public boolean rendersDraft() {
+            return false;
+        }
+
+        @Override
+        public MemoryGovernor getMemoryGovernor() {
+            return MemoryGovernor.ofMebibytes(null);
+        }
+
+        @Override
+        public RasterPool getRasterPool() {
+            return RasterPool.NONE;
+        }
+
+        @Override
+        public int getTileSize() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author leadpony
+ */
+public class CropperTest {
+
+    private static final CropOptions OPTIONS = CropOptions.defaults().withMargins("fast-bbox");
+
+    @Test
+    public void cropShouldReturnBoxesOfPages(@TempDir Path dir) throws Exception {
+        Path output = dir.resolve("output.pdf");
+        CropResult result = Cropper.create(OPTIONS).crop(generate(dir), output).get(30, TimeUnit.SECONDS);
+
+        assertThat(result.getPages()).hasSize(3);
+        assertThat(result.getChangedPages()).isEqualTo(3);
+        assertThat(result.getOutput()).isEmpty();
+        try (PDDocument doc = PDDocument.load(output.toFile())) {
+            for (PageCrop page : result.getPages()) {
+                PDPage written = doc.getPage(page.getPageNumber() - 1);
+                assertThat(page.getCropBox()).containsExactly(toArray(written.getCropBox()));
+                assertThat(page.getMediaBox()).containsExactly(toArray(written.getMediaBox()));
+            }
+        }
+    }
+
+    @Test
+    public void pageCropShouldReturnCopyOfBox(@TempDir Path dir) throws Exception {
+        PageCrop page = Cropper.create(OPTIONS).crop(ByteBuffer.wrap(Files.readAllBytes(generate(dir))))
+                .get(30, TimeUnit.SECONDS).getPages().get(0);
+        float[] cropBox = page.getCropBox();
+
+        cropBox[0] = -1f;
+
+        assertThat(page.getCropBox()).hasSize(4).doesNotContain(-1f);
+    }
+
+    @Test
+    public void cropShouldWriteBytes(@TempDir Path dir) throws Exception {
+        byte[] bytes = Files.readAllBytes(generate(dir));
+        CropResult result = Cropper.create(OPTIONS).crop(ByteBuffer.wrap(bytes)).get(30, TimeUnit.SECONDS);
+
+        ByteBuffer output = result.getOutput().orElseThrow();
+        byte[] written = new byte[output.remaining()];
+        output.get(written);
+        try (PDDocument doc = PDDocument.load(written)) {
+            assertThat(result.getPages().get(0).getCropBox()).containsExactly(toArray(doc.getPage(0).getCropBox()));
+        }
+    }
+
+    @Test
+    public void cropShouldWriteFile(@TempDir Path dir) throws Exception {
+        Path output = dir.resolve("output.pdf");
+        CropResult result = Cropper.create(OPTIONS.withPages("2"), Runnable::run)
+                .crop(generate(dir), output).get();
+
+        assertThat(result.getPages()).extracting(PageCrop::getPageNumber).containsExactly(2);
+        try (PDDocument doc = PDDocument.load(output.toFile())) {
+            assertThat(result.getPages().get(0).getCropBox()).containsExactly(toArray(doc.getPage(1).getCropBox()));
+        }
+    }
+
+    @Test
+    public void cropShouldFailWithIOException() {
+        CompletableFuture<CropResult> future = Cropper.create(OPTIONS)
+                .crop(ByteBuffer.wrap(new byte[] {'%', 'P', 'D', 'F'}));
+
+        assertThatThrownBy(() -> future.get(30, TimeUnit.SECONDS))
+            .isInstanceOf(ExecutionException.class)
+            .hasCauseInstanceOf(IOException.class);
+    }
+
+    @Test
+    public void analyzeShouldPublishPagesInOrder(@TempDir Path dir) throws Exception {
+        List<PageCrop> received = new ArrayList<>();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Cropper.create(OPTIONS).analyze(generate(dir)).subscribe(new Flow.Subscriber<PageCrop>() {
+
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(PageCrop item) {
+                received.add(item);
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                done.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                done.complete(null);
+            }
+        });
+        done.get(30, TimeUnit.SECONDS);
+
+        assertThat(received).extracting(PageCrop::getPageNumber).containsExactly(1, 2, 3);
+    }
+
+    private static float[] toArray(PDRectangle box) {
+        return new float[] {
+            box.getLowerLeftX(), box.getLowerLeftY(), box.getUpperRightX(), box.getUpperRightY()
+        };
+    }
+
+    private static Path generate(Path dir) throws IOException {
+        return new SyntheticCorpus(1, 3, 1).generate(dir.resolve("corpus")).get(0);
+    }
+}
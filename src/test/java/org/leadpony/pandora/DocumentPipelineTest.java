@@ -0,0 +1,140 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author leadpony
+ */
+public class DocumentPipelineTest {
+
+    @Test
+    public void runShouldProcessDocumentsInOrder() throws InterruptedException {
+        List<Path> inputs = createInputs(10);
+        List<Path> processed = Collections.synchronizedList(new ArrayList<>());
+        List<Path> saved = Collections.synchronizedList(new ArrayList<>());
+        List<PDDocument> documents = Collections.synchronizedList(new ArrayList<>());
+
+        var pipeline = new DocumentPipeline(
+                input -> {
+                    PDDocument doc = createDocument();
+                    documents.add(doc);
+                    return doc;
+                },
+                (input, doc) -> {
+                    processed.add(input);
+                    return () -> saved.add(input);
+                });
+        int failures = pipeline.run(inputs);
+
+        assertThat(failures).isZero();
+        assertThat(processed).containsExactlyElementsOf(inputs);
+        assertThat(saved).containsExactlyInAnyOrderElementsOf(inputs);
+        assertThat(documents).allMatch(doc -> doc.getDocument().isClosed());
+    }
+
+    @Test
+    public void runShouldContinueAfterFailures() throws InterruptedException {
+        List<Path> inputs = createInputs(6);
+        List<Path> saved = Collections.synchronizedList(new ArrayList<>());
+        List<PDDocument> documents = Collections.synchronizedList(new ArrayList<>());
+
+        var pipeline = new DocumentPipeline(
+                input -> {
+                    if (input.equals(inputs.get(1))) {
+                        throw new IOException("Failed to load");
+                    }
+                    PDDocument doc = createDocument();
+                    documents.add(doc);
+                    return doc;
+                },
+                (input, doc) -> {
+                    if (input.equals(inputs.get(2))) {
+                        throw new IllegalStateException("Failed to process");
+                    } else if (input.equals(inputs.get(3))) {
+                        return () -> {
+                            throw new IOException("Failed to save");
+                        };
+                    } else if (input.equals(inputs.get(4))) {
+                        return null;
+                    }
+                    return () -> saved.add(input);
+                });
+        int failures = pipeline.run(inputs);
+
+        assertThat(failures).isEqualTo(3);
+        assertThat(saved).containsExactlyInAnyOrder(inputs.get(0), inputs.get(5));
+        assertThat(documents).hasSize(5).allMatch(doc -> doc.getDocument().isClosed());
+    }
+
+    @Test
+    public void runShouldLimitDocumentsInFlight() throws InterruptedException {
+        List<Path> inputs = createInputs(20);
+        AtomicInteger open = new AtomicInteger();
+        AtomicInteger maxOpen = new AtomicInteger();
+
+        var pipeline = new DocumentPipeline(
+                input -> {
+                    maxOpen.accumulateAndGet(open.incrementAndGet(), Math::max);
+                    return new PDDocument() {
+                        @Override
+                        public void close() throws IOException {
+                            open.decrementAndGet();
+                            super.close();
+                        }
+                    };
+                },
+                (input, doc) -> () -> {
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                },
+                3);
+        int failures = pipeline.run(inputs);
+
+        assertThat(failures).isZero();
+        assertThat(open).hasValue(0);
+        assertThat(maxOpen.get()).isBetween(1, 3);
+    }
+
+    private static List<Path> createInputs(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> Path.of("doc" + i + ".pdf"))
+                .collect(Collectors.toList());
+    }
+
+    private static PDDocument createDocument() {
+        PDDocument doc = new PDDocument();
+        doc.addPage(new PDPage());
+        return doc;
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.pdmodel.graphics.shading.PDShading;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationLink;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author leadpony
+ */
+public class HybridBoundingBoxFinderTest {
+
+    private static final Rectangle2D RENDERED = new Rectangle2D.Double(1, 2, 3, 4);
+
+    @Test
+    public void getBoundingBoxShouldNotRenderVectorOnlyPage() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = addPage(doc);
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                stream.addRect(100, 200, 50, 60);
+                stream.fill();
+            }
+            CountingFinder renderer = new CountingFinder(doc, true);
+
+            Rectangle2D box = new HybridBoundingBoxFinder(renderer.context, renderer).getBoundingBox(doc, 0);
+
+            assertThat(renderer.count).isZero();
+            assertThat(box).isEqualTo(new Rectangle2D.Double(100, 200, 50, 60));
+        }
+    }
+
+    @Test
+    public void getBoundingBoxShouldRenderImagePage() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = addPage(doc);
+            PDImageXObject image = LosslessFactory.createFromImage(doc,
+                    new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB));
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                stream.drawImage(image, 100, 100, 50, 50);
+            }
+
+            assertRendered(doc, true);
+        }
+    }
+
+    @Test
+    public void getBoundingBoxShouldRenderShadingPage() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = addPage(doc);
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                stream.saveGraphicsState();
+                stream.addRect(100, 100, 50, 50);
+                stream.clip();
+                stream.shadingFill(createAxialShading());
+                stream.restoreGraphicsState();
+            }
+
+            assertRendered(doc, true);
+        }
+    }
+
+    @Test
+    public void getBoundingBoxShouldRenderPageWithAnnotations() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = addPage(doc);
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                stream.addRect(100, 200, 50, 60);
+                stream.fill();
+            }
+            PDAnnotationLink link = new PDAnnotationLink();
+            link.setRectangle(new PDRectangle(10, 10, 20, 20));
+            page.setAnnotations(List.of(link));
+
+            assertRendered(doc, true);
+        }
+    }
+
+    @Test
+    public void getBoundingBoxShouldNotRenderAnnotationsIgnored() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = addPage(doc);
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                stream.addRect(100, 200, 50, 60);
+                stream.fill();
+            }
+            PDAnnotationLink link = new PDAnnotationLink();
+            link.setRectangle(new PDRectangle(10, 10, 20, 20));
+            page.setAnnotations(List.of(link));
+            CountingFinder renderer = new CountingFinder(doc, false);
+
+            Rectangle2D box = new HybridBoundingBoxFinder(renderer.context, renderer).getBoundingBox(doc, 0);
+
+            assertThat(renderer.count).isZero();
+            assertThat(box).isEqualTo(new Rectangle2D.Double(100, 200, 50, 60));
+        }
+    }
+
+    @Test
+    public void getBoundingBoxShouldRenderPageWithUnsupportedContent() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = addPage(doc);
+            PDType0Font font;
+            try (InputStream in = PDDocument.class.getResourceAsStream(
+                    "/org/apache/pdfbox/resources/ttf/LiberationSans-Regular.ttf")) {
+                font = PDType0Font.loadVertical(doc, in);
+            }
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                stream.beginText();
+                stream.setFont(font, 12);
+                stream.newLineAtOffset(100, 700);
+                stream.showText("Vertical");
+                stream.endText();
+            }
+            Throwable thrown = catchThrowable(() -> new ContentScanner(page, new GlyphBounds(), false).scanPage());
+            assertThat(thrown).isInstanceOf(ContentScanner.UnsupportedContentException.class);
+
+            assertRendered(doc, true);
+        }
+    }
+
+    private static void assertRendered(PDDocument doc, boolean includesAnnotations) throws IOException {
+        CountingFinder renderer = new CountingFinder(doc, includesAnnotations);
+
+        Rectangle2D box = new HybridBoundingBoxFinder(renderer.context, renderer).getBoundingBox(doc, 0);
+
+        assertThat(renderer.count).isEqualTo(1);
+        assertThat(box).isEqualTo(RENDERED);
+    }
+
+    private static PDPage addPage(PDDocument doc) {
+        PDPage page = new PDPage(new PDRectangle(400, 600));
+        doc.addPage(page);
+        return page;
+    }
+
+    private static PDShading createAxialShading() throws IOException {
+        COSDictionary function = new COSDictionary();
+        function.setInt(COSName.FUNCTION_TYPE, 2);
+        function.setItem(COSName.DOMAIN, floats(0, 1));
+        function.setItem(COSName.C0, floats(1, 0, 0));
+        function.setItem(COSName.C1, floats(0, 0, 1));
+        function.setInt(COSName.N, 1);
+
+        COSDictionary shading = new COSDictionary();
+        shading.setInt(COSName.SHADING_TYPE, PDShading.SHADING_TYPE2);
+        shading.setItem(COSName.COLORSPACE, COSName.DEVICERGB);
+        shading.setItem(COSName.COORDS, floats(100, 100, 150, 100));
+        shading.setItem(COSName.FUNCTION, function);
+        return PDShading.create(shading);
+    }
+
+    private static COSArray floats(float... values) {
+        COSArray array = new COSArray();
+        for (float value : values) {
+            array.add((value == (int) value) ? COSInteger.get((int) value) : new COSFloat(value));
+        }
+        return array;
+    }
+
+    /**
+     * The rendering finder which counts the renderings instead of rendering pages.
+     */
+    private static class CountingFinder extends ImageBasedBoundingBoxFinder {
+
+        final CroppingContext context;
+        int count;
+
+        CountingFinder(PDDocument doc, boolean includesAnnotations) {
+            this(doc, new Context(includesAnnotations));
+        }
+
+        private CountingFinder(PDDocument doc, CroppingContext context) {
+            super(doc, context);
+            this.context = context;
+        }
+
+        @Override
+        Rectangle2D render(PDDocument doc, int pageIndex) {
+            count++;
+            return RENDERED;
+        }
+    }
+
+    /**
+     * The cropping context which includes or ignores annotations.
+     */
+    private static class Context implements CroppingContext {
+
+        private final boolean includesAnnotations;
+
+        Context(boolean includesAnnotations) {
+            this.includesAnnotations = includesAnnotations;
+        }
+
+        @Override
+        public Path getInput() {
+            return null;
+        }
+
+        @Override
+        public int getPadding() {
+            return 0;
+        }
+
+        @Override
+        public boolean includesAnnotations() {
+            return includesAnnotations;
+        }
+
+        @Override
+        public int getResolution() {
+            return 72;
+        }
+
+        @Override
+        public boolean rendersDraft() {
+            return false;
+        }
+
+        @Override
+        public MemoryGovernor getMemoryGovernor() {
+            return MemoryGovernor.ofMebibytes(null);
+        }
+
+        @Override
+        public RasterPool getRasterPool() {
+            return RasterPool.NONE;
+        }
+
+        @Override
+        public int getTileSize() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.pdmodel.graphics.state.PDExtendedGraphicsState;
+import org.apache.pdfbox.pdmodel.graphics.state.RenderingMode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * @author leadpony
+ */
+public class ImageBasedBoundingBoxFinderTest {
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 7, 63, 64, 65, 130})
+    public void findInkBoundsShouldFindPixelsAtEdges(int width) {
+        BufferedImage image = createBlankImage(width, 5);
+        image.setRGB(0, 1, Color.BLACK.getRGB());
+        image.setRGB(width - 1, 3, Color.BLACK.getRGB());
+
+        Rectangle2D bounds = ImageBasedBoundingBoxFinder.findInkBounds(image);
+
+        assertThat(bounds).isEqualTo(new Rectangle2D.Double(0, 1, width, 3));
+    }
+
+    @Test
+    public void findInkBoundsShouldReturnNullForBlankImage() {
+        BufferedImage image = createBlankImage(100, 10);
+
+        assertThat(ImageBasedBoundingBoxFinder.findInkBounds(image)).isNull();
+    }
+
+    @Test
+    public void getBoundingBoxShouldIgnoreTransparentFills() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = new PDPage(new PDRectangle(100, 200, 400, 500));
+            doc.addPage(page);
+            PDExtendedGraphicsState transparent = new PDExtendedGraphicsState();
+            transparent.setNonStrokingAlphaConstant(0f);
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                stream.saveGraphicsState();
+                stream.setGraphicsStateParameters(transparent);
+                stream.addRect(100, 200, 400, 500);
+                stream.fill();
+                stream.restoreGraphicsState();
+                stream.setNonStrokingColor(0.5f);
+                stream.addRect(200, 300, 100, 50);
+                stream.fill();
+            }
+
+            var finder = new ImageBasedBoundingBoxFinder(doc, new Context(72, false));
+            Rectangle2D box = finder.getBoundingBox(doc, 0);
+
+            assertThat(box.getX()).isCloseTo(200, within(1.0));
+            assertThat(box.getY()).isCloseTo(300, within(1.0));
+            assertThat(box.getWidth()).isCloseTo(100, within(1.0));
+            assertThat(box.getHeight()).isCloseTo(50, within(1.0));
+        }
+    }
+
+    @Test
+    public void getBoundingBoxShouldMapRotatedPages() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = new PDPage(new PDRectangle(300, 400));
+            page.setRotation(90);
+            doc.addPage(page);
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                stream.addRect(50, 100, 20, 200);
+                stream.fill();
+            }
+
+            var finder = new ImageBasedBoundingBoxFinder(doc, new Context(300, false));
+            Rectangle2D box = finder.getBoundingBox(doc, 0);
+
+            assertThat(box.getX()).isCloseTo(50, within(0.5));
+            assertThat(box.getY()).isCloseTo(100, within(0.5));
+            assertThat(box.getWidth()).isCloseTo(20, within(0.5));
+            assertThat(box.getHeight()).isCloseTo(200, within(0.5));
+        }
+    }
+
+    @Test
+    public void getBoundingBoxShouldReuseRasters() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage large = new PDPage(new PDRectangle(500, 600));
+            doc.addPage(large);
+            try (PDPageContentStream stream = new PDPageContentStream(doc, large)) {
+                stream.addRect(0, 0, 500, 600);
+                stream.fill();
+            }
+            PDPage small = new PDPage(new PDRectangle(300, 400));
+            doc.addPage(small);
+            try (PDPageContentStream stream = new PDPageContentStream(doc, small)) {
+                stream.addRect(50, 100, 20, 200);
+                stream.fill();
+            }
+
+            RasterPool pool = new RasterPool(1);
+            var finder = new ImageBasedBoundingBoxFinder(doc, new Context(150, false, pool));
+            finder.getBoundingBox(doc, 0);
+            Rectangle2D reused = finder.getBoundingBox(doc, 1);
+            Rectangle2D allocated = new ImageBasedBoundingBoxFinder(doc, new Context(150, false))
+                    .getBoundingBox(doc, 1);
+
+            assertThat(reused).isEqualTo(allocated);
+            assertThat(pool.getRetained()).isEqualTo(1);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 90})
+    public void getBoundingBoxShouldMergeTiles(int rotation) throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = new PDPage(new PDRectangle(1000, 800));
+            page.setRotation(rotation);
+            doc.addPage(page);
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                stream.addRect(130, 170, 20, 30);
+                stream.addRect(610, 520, 90, 40);
+                stream.fill();
+            }
+
+            AtomicInteger tiles = new AtomicInteger();
+            RasterPool countingPool = new RasterPool(1) {
+                @Override
+                Lease acquire(int size) {
+                    tiles.incrementAndGet();
+                    return super.acquire(size);
+                }
+            };
+            Rectangle2D tiled = new ImageBasedBoundingBoxFinder(doc, new Context(72, false, countingPool, 100))
+                    .getBoundingBox(doc, 0);
+            Rectangle2D whole = new ImageBasedBoundingBoxFinder(doc, new Context(72, false))
+                    .getBoundingBox(doc, 0);
+
+            assertThat(tiled).isEqualTo(whole);
+            assertThat(tiles.get()).isLessThan(80);
+        }
+    }
+
+    @Test
+    public void getBoundingBoxShouldReturnWholeTiledPageIfBlank() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            doc.addPage(new PDPage(new PDRectangle(300, 200)));
+
+            Rectangle2D tiled = new ImageBasedBoundingBoxFinder(doc, new Context(72, false, RasterPool.NONE, 64))
+                    .getBoundingBox(doc, 0);
+
+            assertThat(tiled).isEqualTo(new Rectangle2D.Double(0, 0, 300, 200));
+        }
+    }
+
+    @Test
+    public void getBoundingBoxShouldFillImageBoundsInDraftMode() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = new PDPage(new PDRectangle(400, 400));
+            doc.addPage(page);
+            BufferedImage image = createBlankImage(100, 100);
+            image.setRGB(50, 50, Color.BLACK.getRGB());
+            PDImageXObject xobject = LosslessFactory.createFromImage(doc, image);
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                stream.drawImage(xobject, 100, 100, 200, 200);
+            }
+
+            Rectangle2D full = new ImageBasedBoundingBoxFinder(doc, new Context(72, false)).getBoundingBox(doc, 0);
+            Rectangle2D draft = new ImageBasedBoundingBoxFinder(doc, new Context(72, true)).getBoundingBox(doc, 0);
+
+            assertThat(full.getWidth()).isLessThan(10);
+            assertThat(draft.getX()).isCloseTo(100, within(1.0));
+            assertThat(draft.getY()).isCloseTo(100, within(1.0));
+            assertThat(draft.getWidth()).isCloseTo(200, within(1.0));
+            assertThat(draft.getHeight()).isCloseTo(200, within(1.0));
+        }
+    }
+
+    @Test
+    public void getBoundingBoxShouldFillGlyphBoundsInDraftMode() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = new PDPage();
+            doc.addPage(page);
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                stream.beginText();
+                stream.setFont(PDType1Font.HELVETICA, 24);
+                stream.newLineAtOffset(72, 600);
+                stream.showText("Hello, world");
+                stream.setRenderingMode(RenderingMode.NEITHER);
+                stream.newLineAtOffset(0, -300);
+                stream.showText("Invisible");
+                stream.endText();
+            }
+
+            Rectangle2D full = new ImageBasedBoundingBoxFinder(doc, new Context(300, false)).getBoundingBox(doc, 0);
+            Rectangle2D draft = new ImageBasedBoundingBoxFinder(doc, new Context(300, true)).getBoundingBox(doc, 0);
+
+            assertThat(draft.getMinX()).isCloseTo(full.getMinX(), within(1.0));
+            assertThat(draft.getMinY()).isCloseTo(full.getMinY(), within(1.0));
+            assertThat(draft.getMaxX()).isCloseTo(full.getMaxX(), within(1.0));
+            assertThat(draft.getMaxY()).isCloseTo(full.getMaxY(), within(1.0));
+        }
+    }
+
+    private static BufferedImage createBlankImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * The cropping context with the specified resolution and rendering mode.
+     */
+    private static class Context implements CroppingContext {
+
+        private final int resolution;
+        private final boolean draft;
+        private final MemoryGovernor governor = MemoryGovernor.ofMebibytes(null);
+        private final RasterPool rasterPool;
+        private final int tileSize;
+
+        Context(int resolution, boolean draft) {
+            this(resolution, draft, RasterPool.NONE);
+        }
+
+        Context(int resolution, boolean draft, RasterPool rasterPool) {
+            this(resolution, draft, rasterPool, 0);
+        }
+
+        Context(int resolution, boolean draft, RasterPool rasterPool, int tileSize) {
+            this.resolution = resolution;
+            this.draft = draft;
+            this.rasterPool = rasterPool;
+            this.tileSize = tileSize;
+        }
+
+        @Override
+        public Path getInput() {
+            return null;
+        }
+
+        @Override
+        public int getPadding() {
+            return 0;
+        }
+
+        @Override
+        public boolean includesAnnotations() {
+            return false;
+        }
+
+        @Override
+        public int getResolution() {
+            return resolution;
+        }
+
+        @Override
+        public boolean rendersDraft() {
+            return draft;
+        }
+
+        @Override
+        public MemoryGovernor getMemoryGovernor() {
+            return governor;
+        }
+
+        @Override
+        public RasterPool getRasterPool() {
+            return rasterPool;
+        }
+
+        @Override
+        public int getTileSize() {
+            return tileSize;
+        }
+    }
+}
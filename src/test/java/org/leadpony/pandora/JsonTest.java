@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * @author leadpony
+ */
+public class JsonTest {
+
+    @Test
+    public void parseAllShouldParseJsonLines() {
+        List<Object> actual = Json.parseAll("{\"a\":1}\n{\"a\":-2.5e1}\r\n\n[true,false,null]\n");
+
+        assertThat(actual).containsExactly(
+                Map.of("a", 1.0),
+                Map.of("a", -25.0),
+                Arrays.asList(true, false, null));
+    }
+
+    @Test
+    public void parseAllShouldParseNestedValues() {
+        List<Object> actual = Json.parseAll(
+                "{\"page\":1,\"box\":{\"inner\":{\"x\":[0,[1]]}},\"list\":[{},[]]}");
+
+        assertThat(actual).containsExactly(Map.of(
+                "page", 1.0,
+                "box", Map.of("inner", Map.of("x", List.of(0.0, List.of(1.0)))),
+                "list", List.of(Map.of(), List.of())));
+    }
+
+    @Test
+    public void parseAllShouldDecodeEscapes() {
+        List<Object> actual = Json.parseAll(
+                "\"\\\"\\\\\\/\\b\\f\\n\\r\\t\\u00e9\\u4e2d{}\"");
+
+        assertThat(actual).containsExactly("\"\\/\b\f\n\r\t\u00e9\u4e2d{}");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "{",
+        "{\"a\" 1}",
+        "{\"a\":1,}",
+        "[1,]",
+        "\"unterminated",
+        "\"\\x\"",
+        "\"\\u12\"",
+        "\"\\u-123\"",
+        "\"tab\there\"",
+        "01",
+        "-",
+        "1.",
+        "tru",
+        "{a:1}",
+    })
+    public void parseAllShouldRejectInvalidJson(String text) {
+        Throwable thrown = catchThrowable(() -> Json.parseAll(text));
+
+        assertThat(thrown).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void quoteShouldRoundTripThroughParseAll() {
+        String value = "dir\\{a} \"b\"\n\u00e9\u0001.pdf";
+
+        String quoted = Json.quote(value);
+
+        assertThat(quoted).isEqualTo("\"dir\\\\{a} \\\"b\\\"\\n\u00e9\\u0001.pdf\"");
+        assertThat(Json.parseAll(quoted)).containsExactly(value);
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author leadpony
+ */
+public class LinearizedWriterTest {
+
+    private static final Pattern LINEARIZATION_DICTIONARY = Pattern.compile(
+            "<< /Linearized 1 /L (\\d+) /H \\[ (\\d+) (\\d+) \\] /O (\\d+) /E (\\d+) /N (\\d+) /T (\\d+) >>");
+    private static final Pattern XREF_SECTION = Pattern.compile("xref\n(\\d+) (\\d+)\n");
+    private static final Pattern OBJECT_HEADER = Pattern.compile("(\\d+) 0 obj\n");
+
+    @Test
+    public void writeShouldProduceLinearizedDocument() throws IOException {
+        byte[] bytes = writeLinearized(TestDocuments.createNumberedPages(3));
+        String content = new String(bytes, StandardCharsets.ISO_8859_1);
+
+        Matcher m = LINEARIZATION_DICTIONARY.matcher(content);
+        assertThat(m.find()).isTrue();
+        assertThat(m.start()).isLessThan(1024);
+        assertThat(Long.parseLong(m.group(1))).isEqualTo(bytes.length);
+        int hintOffset = Integer.parseInt(m.group(2));
+        int firstPageNumber = Integer.parseInt(m.group(4));
+        int firstPageEnd = Integer.parseInt(m.group(5));
+        assertThat(Integer.parseInt(m.group(6))).isEqualTo(3);
+        int mainXrefWhitespace = Integer.parseInt(m.group(7));
+        assertThat(content.substring(0, mainXrefWhitespace + 1)).matches("(?s).*xref\n0 \\d+\n");
+
+        int firstPageOffset = -1;
+        Matcher xref = XREF_SECTION.matcher(content);
+        int sections = 0;
+        while (xref.find()) {
+            int first = Integer.parseInt(xref.group(1));
+            int count = Integer.parseInt(xref.group(2));
+            int position = xref.end();
+            for (int i = 0; i < count; i++, position += 20) {
+                String entry = content.substring(position, position + 20);
+                if (entry.charAt(17) != 'n') {
+                    continue;
+                }
+                int offset = Integer.parseInt(entry.substring(0, 10));
+                int number = first + i;
+                assertThat(content.substring(offset)).startsWith(number + " 0 obj\n");
+                if (number == firstPageNumber) {
+                    firstPageOffset = offset;
+                }
+            }
+            sections++;
+        }
+        assertThat(sections).isEqualTo(2);
+        assertThat(content.substring(hintOffset)).matches("(?s)\\d+ 0 obj\n<< /Length \\d+ /S \\d+ >>.*");
+        assertThat(firstPageOffset).isGreaterThan(hintOffset).isLessThan(firstPageEnd);
+    }
+
+    @Test
+    public void writeShouldPreserveContents() throws IOException {
+        byte[] bytes = writeLinearized(TestDocuments.createNumberedPages(3));
+
+        try (PDDocument doc = PDDocument.load(bytes)) {
+            assertThat(doc.getNumberOfPages()).isEqualTo(3);
+            PDFTextStripper stripper = new PDFTextStripper();
+            stripper.setStartPage(2);
+            stripper.setEndPage(2);
+            assertThat(stripper.getText(doc).trim()).isEqualTo("Page 2");
+        }
+    }
+
+    @Test
+    public void writeShouldPlaceInheritedResourcesInFirstPage() throws IOException {
+        byte[] bytes = writeLinearized(createInheritingDocument());
+        String content = new String(bytes, StandardCharsets.ISO_8859_1);
+        Matcher m = LINEARIZATION_DICTIONARY.matcher(content);
+        assertThat(m.find()).isTrue();
+        long firstPageEnd = Long.parseLong(m.group(5));
+
+        try (PDDocument doc = PDDocument.load(bytes)) {
+            COSDictionary firstPage = doc.getPage(0).getCOSObject();
+            assertThat(firstPage.containsKey(COSName.RESOURCES)).isTrue();
+            assertThat(firstPage.containsKey(COSName.MEDIA_BOX)).isTrue();
+            assertThat(firstPage.getInt(COSName.ROTATE)).isEqualTo(90);
+            int fontNumber = getFontNumber(doc.getPage(0));
+            assertThat(offsetOf(content, fontNumber)).isLessThan(firstPageEnd);
+            PDFTextStripper stripper = new PDFTextStripper();
+            stripper.setStartPage(1);
+            stripper.setEndPage(1);
+            assertThat(stripper.getText(doc).replaceAll("\\s", "")).isEqualTo("Page1");
+        }
+    }
+
+    @Test
+    public void hintTablesShouldMatchObjectOffsets() throws IOException {
+        byte[] bytes = writeLinearized(createInheritingDocument());
+        String content = new String(bytes, StandardCharsets.ISO_8859_1);
+        Matcher m = LINEARIZATION_DICTIONARY.matcher(content);
+        assertThat(m.find()).isTrue();
+        final int hintOffset = Integer.parseInt(m.group(2));
+        final int hintLength = Integer.parseInt(m.group(3));
+        final int firstPageNumber = Integer.parseInt(m.group(4));
+
+        Matcher header = Pattern.compile("\\d+ 0 obj\n<< /Length (\\d+) /S (\\d+) >>\nstream\r\n")
+                .matcher(content);
+        assertThat(header.find(hintOffset)).isTrue();
+        assertThat(header.start()).isEqualTo(hintOffset);
+        int dataLength = Integer.parseInt(header.group(1));
+        int sharedTableOffset = Integer.parseInt(header.group(2));
+        byte[] data = new byte[dataLength];
+        System.arraycopy(bytes, header.end(), data, 0, dataLength);
+
+        List<Integer> pageNumbers = new ArrayList<>();
+        int fontNumber;
+        int imageNumber;
+        try (PDDocument doc = PDDocument.load(bytes)) {
+            for (COSBase kid : doc.getPages().getCOSObject().getCOSArray(COSName.KIDS)) {
+                pageNumbers.add((int) ((COSObject) kid).getObjectNumber());
+            }
+            fontNumber = getFontNumber(doc.getPage(0));
+            imageNumber = getObjectNumber(doc.getPage(1).getResources(), COSName.XOBJECT, "Im1");
+        }
+        assertThat(pageNumbers.get(0)).isEqualTo(firstPageNumber);
+
+        // Page offset hint table
+        BitReader bits = new BitReader(data, 0);
+        long minObjects = bits.read(32);
+        long firstPageLocation = bits.read(32);
+        int objectBits = (int) bits.read(16);
+        long minPageLength = bits.read(32);
+        int pageLengthBits = (int) bits.read(16);
+        bits.read(32);
+        bits.read(16);
+        bits.read(32);
+        bits.read(16);
+        int sharedBits = (int) bits.read(16);
+        int sharedIdBits = (int) bits.read(16);
+        bits.read(16);
+        bits.read(16);
+        final int pageCount = pageNumbers.size();
+        long[] objectCounts = new long[pageCount];
+        for (int i = 0; i < pageCount; i++) {
+            objectCounts[i] = minObjects + bits.read(objectBits);
+        }
+        bits.align();
+        long[] pageLengths = new long[pageCount];
+        for (int i = 0; i < pageCount; i++) {
+            pageLengths[i] = minPageLength + bits.read(pageLengthBits);
+        }
+        bits.align();
+        int[] sharedCounts = new int[pageCount];
+        for (int i = 0; i < pageCount; i++) {
+            sharedCounts[i] = (int) bits.read(sharedBits);
+        }
+        bits.align();
+        List<List<Integer>> sharedIds = new ArrayList<>();
+        for (int i = 0; i < pageCount; i++) {
+            List<Integer> ids = new ArrayList<>();
+            for (int j = 0; j < sharedCounts[i]; j++) {
+                ids.add((int) bits.read(sharedIdBits));
+            }
+            sharedIds.add(ids);
+        }
+
+        // Each page starts with its page object, followed by the other objects of the page.
+        long location = firstPageLocation;
+        for (int i = 0; i < pageCount; i++) {
+            long offset = adjust(location, hintOffset, hintLength);
+            for (int j = 0; j < objectCounts[i]; j++) {
+                Matcher object = OBJECT_HEADER.matcher(content);
+                assertThat(object.find((int) offset)).isTrue();
+                assertThat(object.start()).isEqualTo(offset);
+                assertThat(Integer.parseInt(object.group(1))).isEqualTo(pageNumbers.get(i) + j);
+                offset = content.indexOf("endobj\n", (int) offset) + "endobj\n".length();
+            }
+            location += pageLengths[i];
+            assertThat(offset).isEqualTo(adjust(location, hintOffset, hintLength));
+        }
+
+        // Shared object hint table
+        bits = new BitReader(data, sharedTableOffset);
+        long firstSharedNumber = bits.read(32);
+        long firstSharedLocation = bits.read(32);
+        int firstPageGroups = (int) bits.read(32);
+        int groups = (int) bits.read(32);
+        assertThat(bits.read(16)).isZero();
+        long minGroupLength = bits.read(32);
+        int groupLengthBits = (int) bits.read(16);
+        long[] groupLengths = new long[groups];
+        for (int i = 0; i < groups; i++) {
+            groupLengths[i] = minGroupLength + bits.read(groupLengthBits);
+        }
+        assertThat(firstPageGroups).isEqualTo((int) objectCounts[0]);
+        assertThat(groups).isGreaterThan(firstPageGroups);
+
+        int[] groupNumbers = new int[groups];
+        location = firstPageLocation;
+        for (int i = 0; i < groups; i++) {
+            if (i == firstPageGroups) {
+                location = firstSharedLocation;
+            }
+            groupNumbers[i] = (int) ((i < firstPageGroups) ? firstPageNumber + i
+                    : firstSharedNumber + i - firstPageGroups);
+            long offset = adjust(location, hintOffset, hintLength);
+            assertThat(content.substring((int) offset)).startsWith(groupNumbers[i] + " 0 obj\n");
+            assertThat(offsetOf(content, groupNumbers[i])).isEqualTo(offset);
+            location += groupLengths[i];
+            offset = adjust(location - 1, hintOffset, hintLength) + 1;
+            assertThat(content.substring(0, (int) offset)).endsWith("endobj\n");
+        }
+
+        // The font is in the first page and the image is shared by the other pages.
+        assertThat(sharedIds.get(0)).isEmpty();
+        for (int i = 1; i < pageCount; i++) {
+            List<Integer> referenced = new ArrayList<>();
+            for (int id : sharedIds.get(i)) {
+                referenced.add(groupNumbers[id]);
+            }
+            assertThat(referenced).contains(fontNumber, imageNumber);
+        }
+        assertThat(fontNumber - firstPageNumber).isBetween(0, firstPageGroups - 1);
+        assertThat(imageNumber).isGreaterThanOrEqualTo((int) firstSharedNumber);
+    }
+
+    private static long adjust(long offset, long hintOffset, long hintLength) {
+        return (offset >= hintOffset) ? offset + hintLength : offset;
+    }
+
+    private static long offsetOf(String content, int number) {
+        Matcher m = Pattern.compile("(?m)^" + number + " 0 obj\n").matcher(content);
+        assertThat(m.find()).isTrue();
+        return m.start();
+    }
+
+    private static int getFontNumber(PDPage page) {
+        return getObjectNumber(page.getResources(), COSName.FONT, "F1");
+    }
+
+    private static int getObjectNumber(PDResources resources, COSName category, String name) {
+        COSDictionary dict = resources.getCOSObject().getCOSDictionary(category);
+        return (int) ((COSObject) dict.getItem(COSName.getPDFName(name))).getObjectNumber();
+    }
+
+    /*
+     * Creates a document whose first page inherits the resources, the media box and the rotation
+     * from the page tree, while the other pages share their own resources including an image.
+     */
+    private static PDDocument createInheritingDocument() throws IOException {
+        PDDocument doc = new PDDocument();
+        COSDictionary root = doc.getPages().getCOSObject();
+        root.setItem(COSName.RESOURCES, new PDResources());
+        root.setItem(COSName.MEDIA_BOX, PDRectangle.LETTER.getCOSArray());
+        root.setInt(COSName.ROTATE, 90);
+
+        PDPage first = new PDPage();
+        first.getCOSObject().removeItem(COSName.MEDIA_BOX);
+        doc.addPage(first);
+        showText(doc, first, "Page 1", null);
+
+        PDImageXObject image = LosslessFactory.createFromImage(doc,
+                new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB));
+        PDResources resources = new PDResources();
+        for (int i = 2; i <= 3; i++) {
+            PDPage page = new PDPage();
+            page.setResources(resources);
+            doc.addPage(page);
+            showText(doc, page, "Page " + i, image);
+        }
+        return doc;
+    }
+
+    private static void showText(PDDocument doc, PDPage page, String text, PDImageXObject image)
+            throws IOException {
+        try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+            stream.beginText();
+            stream.setFont(PDType1Font.HELVETICA, 12);
+            stream.newLineAtOffset(100, 700);
+            stream.showText(text);
+            stream.endText();
+            if (image != null) {
+                stream.drawImage(image, 100, 100);
+            }
+        }
+    }
+
+    private static byte[] writeLinearized(PDDocument doc) throws IOException {
+        try (doc) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new LinearizedWriter(doc).write(out);
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * A reader of the bit-packed values in the hint tables.
+     */
+    private static class BitReader {
+
+        private final byte[] data;
+        private long position;
+
+        BitReader(byte[] data, int offset) {
+            this.data = data;
+            this.position = offset * 8L;
+        }
+
+        long read(int bits) {
+            long value = 0;
+            for (int i = 0; i < bits; i++, position++) {
+                int bit = (data[(int) (position / 8)] >> (7 - (int) (position % 8))) & 1;
+                value = (value << 1) | bit;
+            }
+            return value;
+        }
+
+        void align() {
+            position = (position + 7) / 8 * 8;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author leadpony
+ */
+public class MemoryGovernorTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Test
+    public void estimateCostShouldCountArgbPixels() {
+        // A0 at 300 dpi
+        assertThat(MemoryGovernor.estimateCost(9933, 14043)).isEqualTo(9933L * 14043 * 4);
+    }
+
+    @Test
+    public void acquireShouldAdmitRequestsWithinBudget() throws Exception {
+        var governor = new MemoryGovernor(100);
+        try (var first = governor.acquire(60); var second = governor.acquire(40)) {
+            var third = acquireAsync(governor, 1);
+            assertBlocked(third);
+            first.close();
+            third.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).close();
+        }
+    }
+
+    @Test
+    public void acquireShouldAdmitOversizedRequestAlone() throws Exception {
+        var governor = new MemoryGovernor(100);
+        var small = governor.acquire(10);
+        var oversized = acquireAsync(governor, 1000);
+        assertBlocked(oversized);
+        small.close();
+        try (var permit = oversized.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            assertBlocked(acquireAsync(governor, 1));
+        }
+    }
+
+    @Test
+    public void acquireShouldNotLetSmallRequestsOvertakeLargeOne() throws Exception {
+        var governor = new MemoryGovernor(100);
+        var held = governor.acquire(50);
+        var large = acquireAsync(governor, 80);
+        assertBlocked(large);
+        var small = acquireAsync(governor, 10);
+        assertBlocked(small);
+        held.close();
+        large.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).close();
+        small.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).close();
+    }
+
+    @Test
+    public void acquireShouldLeaveQueueWhenInterrupted() throws Exception {
+        var governor = new MemoryGovernor(100);
+        var held = governor.acquire(100);
+        var interrupted = new CompletableFuture<Boolean>();
+        Thread thread = new Thread(() -> {
+            try {
+                governor.acquire(50).close();
+                interrupted.complete(false);
+            } catch (InterruptedException e) {
+                interrupted.complete(true);
+            }
+        });
+        thread.start();
+        var next = acquireAsync(governor, 50);
+        thread.interrupt();
+        assertThat(interrupted.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue();
+        held.close();
+        next.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).close();
+    }
+
+    private static CompletableFuture<MemoryGovernor.Permit> acquireAsync(MemoryGovernor governor, long cost) {
+        var future = new CompletableFuture<MemoryGovernor.Permit>();
+        Thread thread = new Thread(() -> {
+            try {
+                future.complete(governor.acquire(cost));
+            } catch (InterruptedException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return future;
+    }
+
+    private static void assertBlocked(CompletableFuture<?> future) {
+        assertThatThrownBy(() -> future.get(200, TimeUnit.MILLISECONDS))
+            .isInstanceOf(TimeoutException.class);
+    }
+}
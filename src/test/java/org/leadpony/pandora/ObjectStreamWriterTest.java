@@ -0,0 +1,80 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author leadpony
+ */
+public class ObjectStreamWriterTest {
+
+    private static final Pattern START_XREF = Pattern.compile("startxref\n(\\d+)\n%%EOF\n$");
+
+    @Test
+    public void writeShouldPackDictionariesIntoObjectStreams() throws IOException {
+        byte[] bytes = write(TestDocuments.createNumberedPages(150));
+        String content = new String(bytes, StandardCharsets.ISO_8859_1);
+
+        assertThat(content).startsWith("%PDF-1.5\n");
+        assertThat(content).doesNotContain("\nxref\n").doesNotContain("trailer");
+        assertThat(Pattern.compile("/Type /ObjStm /N \\d+ /First \\d+").matcher(content).results().count())
+            .isGreaterThanOrEqualTo(2);
+        Matcher m = START_XREF.matcher(content);
+        assertThat(m.find()).isTrue();
+        int xrefOffset = Integer.parseInt(m.group(1));
+        assertThat(content.substring(xrefOffset)).matches("(?s)\\d+ 0 obj\n<< /Type /XRef /Size \\d+ /W \\[1 \\d 2\\].*");
+    }
+
+    @Test
+    public void writeShouldPreserveContents() throws IOException {
+        PDDocument original = TestDocuments.createNumberedPages(150);
+        original.getDocumentInformation().setTitle("Compact");
+        ByteArrayOutputStream classic = new ByteArrayOutputStream();
+        original.save(classic);
+        byte[] bytes = write(original);
+
+        assertThat(bytes.length).isLessThan(classic.size());
+        try (PDDocument doc = PDDocument.load(bytes)) {
+            assertThat(doc.getDocument().isXRefStream()).isTrue();
+            assertThat(doc.getNumberOfPages()).isEqualTo(150);
+            assertThat(doc.getDocumentInformation().getTitle()).isEqualTo("Compact");
+            PDFTextStripper stripper = new PDFTextStripper();
+            stripper.setStartPage(120);
+            stripper.setEndPage(120);
+            assertThat(stripper.getText(doc).trim()).isEqualTo("Page 120");
+        }
+    }
+
+    private static byte[] write(PDDocument doc) throws IOException {
+        try (doc) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new ObjectStreamWriter(doc, Deflater.DEFAULT_COMPRESSION).write(out);
+            return out.toByteArray();
+        }
+    }
+}
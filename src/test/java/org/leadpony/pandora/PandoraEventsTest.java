@@ -0,0 +1,65 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * @author leadpony
+ */
+public class PandoraEventsTest {
+
+    private static final String PAGE_ANALYSIS = "org.leadpony.pandora.PageAnalysis";
+
+    @Test
+    public void fastBoundingBoxShouldEmitPageAnalysisEvents(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("recording.jfr");
+        try (Recording recording = new Recording(); PDDocument doc = TestDocuments.createNumberedPages(2)) {
+            recording.enable(PAGE_ANALYSIS);
+            recording.start();
+            BoundingBoxFinder finder = new SimpleBoundingBoxFinder();
+            for (int i = 0; i < doc.getNumberOfPages(); i++) {
+                finder.getBoundingBox(doc, i);
+            }
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        assertThat(events).hasSize(2);
+        for (int i = 0; i < events.size(); i++) {
+            RecordedEvent event = events.get(i);
+            assertThat(event.getEventType().getName()).isEqualTo(PAGE_ANALYSIS);
+            assertThat(event.getString("finder")).isEqualTo("fast-bbox");
+            assertThat(event.getInt("pageIndex")).isEqualTo(i);
+            assertThat(event.getInt("glyphs")).isEqualTo(6);
+            assertThat(event.getInt("operators")).isEqualTo(5);
+            assertThat(event.getBoolean("rendered")).isFalse();
+        }
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotation;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationLink;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationPopup;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationText;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationWidget;
+import org.apache.pdfbox.util.Matrix;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author leadpony
+ */
+public class PhysicalCropperTest {
+
+    private static final float TOLERANCE = 0.0001f;
+
+    private static final PDRectangle CROP_BOX = new PDRectangle(0, 0, 200, 200);
+
+    @Test
+    public void cropShouldRemovePathsOutsideBox() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = addPage(doc);
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                stream.addRect(10, 10, 50, 50);
+                stream.fill();
+                stream.addRect(300, 300, 50, 50);
+                stream.fill();
+                stream.addRect(150, 150, 100, 100);
+                stream.fill();
+                stream.moveTo(250, 500);
+                stream.lineTo(350, 550);
+                stream.stroke();
+            }
+
+            new PhysicalCropper(doc).crop(page, CROP_BOX);
+
+            List<Object> tokens = parseContents(page);
+            assertThat(operandsOf(tokens, "re")).containsExactly(
+                    List.of(10f, 10f, 50f, 50f),
+                    List.of(150f, 150f, 100f, 100f));
+            assertThat(operandsOf(tokens, "f")).hasSize(2);
+            assertThat(operandsOf(tokens, "m")).isEmpty();
+            assertThat(operandsOf(tokens, "S")).isEmpty();
+        }
+    }
+
+    @Test
+    public void cropShouldKeepClippingPathOutsideBox() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = addPage(doc);
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                stream.addRect(300, 300, 50, 50);
+                stream.clip();
+                stream.addRect(10, 10, 50, 50);
+                stream.fill();
+            }
+
+            new PhysicalCropper(doc).crop(page, CROP_BOX);
+
+            List<Object> tokens = parseContents(page);
+            assertThat(operandsOf(tokens, "re")).hasSize(2);
+            assertThat(operandsOf(tokens, "W")).hasSize(1);
+            assertThat(operandsOf(tokens, "n")).hasSize(1);
+        }
+    }
+
+    @Test
+    public void cropShouldRemoveFormsOutsideBox() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = addPage(doc);
+            PDFormXObject form = new PDFormXObject(doc);
+            form.setBBox(new PDRectangle(0, 0, 100, 100));
+            try (PDPageContentStream stream = new PDPageContentStream(doc, form, form.getStream().createOutputStream())) {
+                stream.addRect(0, 0, 100, 100);
+                stream.fill();
+            }
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                drawForm(stream, form, 300, 300);
+                drawForm(stream, form, 150, 150);
+            }
+
+            new PhysicalCropper(doc).crop(page, CROP_BOX);
+
+            List<Object> tokens = parseContents(page);
+            assertThat(operandsOf(tokens, "Do")).hasSize(1);
+            assertThat(operandsOf(tokens, "cm")).containsExactly(
+                    List.of(1f, 0f, 0f, 1f, 300f, 300f),
+                    List.of(1f, 0f, 0f, 1f, 150f, 150f));
+            assertThat(indexOf(tokens, "Do")).isGreaterThan(lastIndexOf(tokens, "cm"));
+        }
+    }
+
+    @Test
+    public void cropShouldCropImageToVisibleRegion() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = addPage(doc);
+            BufferedImage source = createImage(100, 100);
+            PDImageXObject image = LosslessFactory.createFromImage(doc, source);
+            assertThat(image.getCOSObject().getDictionaryObject(COSName.COLORSPACE)).isEqualTo(COSName.DEVICERGB);
+            assertThat(image.getBitsPerComponent()).isEqualTo(8);
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                stream.drawImage(image, 0, 0, 500, 500);
+            }
+            COSName originalName = page.getResources().getXObjectNames().iterator().next();
+
+            new PhysicalCropper(doc).crop(page, CROP_BOX);
+
+            List<Object> tokens = parseContents(page);
+            List<List<Object>> matrices = operandsOf(tokens, "cm");
+            assertThat(matrices).hasSize(2);
+            assertMatrix(matrices.get(0), 500f, 0f, 0f, 500f, 0f, 0f);
+            assertMatrix(matrices.get(1), 0.4f, 0f, 0f, 0.4f, 0f, 0f);
+            List<List<Object>> drawn = operandsOf(tokens, "Do");
+            assertThat(drawn).hasSize(1);
+            COSName croppedName = (COSName) drawn.get(0).get(0);
+            assertThat(croppedName).isNotEqualTo(originalName);
+
+            PDResources resources = page.getResources();
+            assertThat(resources.getXObjectNames()).containsExactly(croppedName);
+            PDImageXObject cropped = (PDImageXObject) resources.getXObject(croppedName);
+            assertThat(cropped.getWidth()).isEqualTo(40);
+            assertThat(cropped.getHeight()).isEqualTo(40);
+            BufferedImage actual = cropped.getImage();
+            for (int y = 0; y < 40; y++) {
+                for (int x = 0; x < 40; x++) {
+                    assertThat(actual.getRGB(x, y) & 0xffffff).isEqualTo(source.getRGB(x, y + 60) & 0xffffff);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void cropShouldKeepColorSpaceOfGrayImage() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = addPage(doc);
+            PDImageXObject image = LosslessFactory.createFromImage(doc, createGrayImage(100, 100));
+            WritableRaster source = image.getRawRaster();
+            assertThat(image.getCOSObject().getDictionaryObject(COSName.COLORSPACE)).isEqualTo(COSName.DEVICEGRAY);
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                stream.drawImage(image, 0, 0, 500, 500);
+            }
+
+            new PhysicalCropper(doc).crop(page, CROP_BOX);
+
+            COSName croppedName = (COSName) operandsOf(parseContents(page), "Do").get(0).get(0);
+            PDImageXObject cropped = (PDImageXObject) page.getResources().getXObject(croppedName);
+            assertThat(cropped.getCOSObject().getDictionaryObject(COSName.COLORSPACE)).isEqualTo(COSName.DEVICEGRAY);
+            assertThat(cropped.getBitsPerComponent()).isEqualTo(8);
+            assertThat(cropped.getWidth()).isEqualTo(40);
+            assertThat(cropped.getHeight()).isEqualTo(40);
+            assertThat(cropped.getCOSObject().getLength()).isLessThan(image.getCOSObject().getLength());
+            WritableRaster actual = cropped.getRawRaster();
+            assertThat(actual.getNumBands()).isEqualTo(1);
+            for (int y = 0; y < 40; y++) {
+                for (int x = 0; x < 40; x++) {
+                    assertThat(actual.getSample(x, y, 0)).isEqualTo(source.getSample(x, y + 60, 0));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void cropShouldKeepJpegImageWhole() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = addPage(doc);
+            PDImageXObject image = JPEGFactory.createFromImage(doc, createImage(100, 100));
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                stream.drawImage(image, 0, 0, 500, 500);
+            }
+            COSName name = page.getResources().getXObjectNames().iterator().next();
+
+            new PhysicalCropper(doc).crop(page, CROP_BOX);
+
+            List<Object> tokens = parseContents(page);
+            assertThat(operandsOf(tokens, "cm")).hasSize(1);
+            assertThat(operandsOf(tokens, "Do")).containsExactly(List.of(name));
+            assertThat(page.getResources().getXObject(name).getCOSObject()).isSameAs(image.getCOSObject());
+        }
+    }
+
+    @Test
+    public void cropShouldKeepImageSharedWithAnotherPage() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = addPage(doc);
+            PDPage other = addPage(doc);
+            PDResources shared = new PDResources();
+            page.setResources(shared);
+            other.setResources(shared);
+            PDImageXObject image = LosslessFactory.createFromImage(doc, createImage(100, 100));
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page)) {
+                stream.drawImage(image, 0, 0, 500, 500);
+            }
+            try (PDPageContentStream stream = new PDPageContentStream(doc, other)) {
+                stream.drawImage(image, 0, 0, 500, 500);
+            }
+            COSName name = other.getResources().getXObjectNames().iterator().next();
+            assertThat(page.getResources().getCOSObject()).isSameAs(other.getResources().getCOSObject());
+
+            new PhysicalCropper(doc).crop(page, CROP_BOX);
+
+            assertThat(page.getResources().getCOSObject()).isNotSameAs(other.getResources().getCOSObject());
+            assertThat(page.getResources().getXObjectNames()).doesNotContain(name);
+            assertThat(other.getResources().getXObjectNames()).containsExactly(name);
+            PDImageXObject kept = (PDImageXObject) other.getResources().getXObject(name);
+            assertThat(kept.getWidth()).isEqualTo(100);
+            assertThat(kept.getHeight()).isEqualTo(100);
+            assertThat(operandsOf(parseContents(other), "Do")).containsExactly(List.of(name));
+        }
+    }
+
+    @Test
+    public void cropShouldRemoveAnnotationsOutsideBox() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = addPage(doc);
+            PDAnnotationText inside = createText(50, 50);
+            PDAnnotationText outside = createText(300, 300);
+            PDAnnotationLink link = new PDAnnotationLink();
+            link.setRectangle(new PDRectangle(300, 100, 50, 20));
+            PDAnnotationWidget widget = new PDAnnotationWidget();
+            widget.setRectangle(new PDRectangle(300, 500, 50, 20));
+            PDAnnotationPopup insidePopup = createPopup(inside);
+            PDAnnotationPopup outsidePopup = createPopup(outside);
+            List<PDAnnotation> annotations = List.of(inside, outside, link, widget, insidePopup, outsidePopup);
+            page.setAnnotations(annotations);
+
+            new PhysicalCropper(doc).crop(page, CROP_BOX);
+
+            List<COSBase> remaining = new ArrayList<>();
+            for (PDAnnotation annotation : page.getAnnotations()) {
+                remaining.add(annotation.getCOSObject());
+            }
+            assertThat(remaining).containsExactly(
+                    inside.getCOSObject(), widget.getCOSObject(), insidePopup.getCOSObject());
+        }
+    }
+
+    @Test
+    public void cropShouldReplaceMediaBoxWithCropBox() throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = addPage(doc);
+            page.setCropBox(new PDRectangle(20, 20, 300, 300));
+            page.setBleedBox(new PDRectangle(0, 0, 400, 600));
+            page.setTrimBox(new PDRectangle(10, 10, 100, 500));
+            page.setArtBox(new PDRectangle(300, 300, 100, 100));
+            PDRectangle cropBox = new PDRectangle(50, 50, 200, 200);
+
+            new PhysicalCropper(doc).crop(page, cropBox);
+
+            assertThat(page.getMediaBox().toString()).isEqualTo(cropBox.toString());
+            assertThat(page.getCOSObject().containsKey(COSName.CROP_BOX)).isFalse();
+            assertThat(page.getCropBox().toString()).isEqualTo(cropBox.toString());
+            assertThat(page.getBleedBox().toString()).isEqualTo(cropBox.toString());
+            assertThat(page.getTrimBox().toString()).isEqualTo(new PDRectangle(50, 50, 60, 200).toString());
+            assertThat(page.getCOSObject().containsKey(COSName.ART_BOX)).isFalse();
+        }
+    }
+
+    private static PDPage addPage(PDDocument doc) {
+        PDPage page = new PDPage(new PDRectangle(400, 600));
+        doc.addPage(page);
+        return page;
+    }
+
+    private static void drawForm(PDPageContentStream stream, PDFormXObject form, float x, float y)
+            throws IOException {
+        stream.saveGraphicsState();
+        stream.transform(Matrix.getTranslateInstance(x, y));
+        stream.drawForm(form);
+        stream.restoreGraphicsState();
+    }
+
+    private static BufferedImage createImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 2) << 16 | (y * 2) << 8 | 0x80);
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage createGrayImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        WritableRaster raster = image.getRaster();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                raster.setSample(x, y, 0, (x * 7 + y * 13) & 0xff);
+            }
+        }
+        return image;
+    }
+
+    private static PDAnnotationText createText(float x, float y) {
+        PDAnnotationText text = new PDAnnotationText();
+        text.setRectangle(new PDRectangle(x, y, 20, 20));
+        return text;
+    }
+
+    private static PDAnnotationPopup createPopup(PDAnnotationText parent) {
+        PDAnnotationPopup popup = new PDAnnotationPopup();
+        popup.setRectangle(new PDRectangle(300, 400, 80, 60));
+        popup.setParent(parent);
+        parent.setPopup(popup);
+        return popup;
+    }
+
+    private static void assertMatrix(List<Object> actual, float... expected) {
+        assertThat(actual).hasSize(expected.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertThat((Float) actual.get(i)).isCloseTo(expected[i], within(TOLERANCE));
+        }
+    }
+
+    private static List<Object> parseContents(PDPage page) throws IOException {
+        PDFStreamParser parser = new PDFStreamParser(page);
+        parser.parse();
+        return parser.getTokens();
+    }
+
+    /*
+     * Returns the operands of each occurrence of the operator, numbers converted to floats.
+     */
+    private static List<List<Object>> operandsOf(List<Object> tokens, String operator) {
+        List<List<Object>> found = new ArrayList<>();
+        List<Object> operands = new ArrayList<>();
+        for (Object token : tokens) {
+            if (token instanceof Operator) {
+                if (((Operator) token).getName().equals(operator)) {
+                    found.add(operands);
+                }
+                operands = new ArrayList<>();
+            } else if (token instanceof COSNumber) {
+                operands.add(((COSNumber) token).floatValue());
+            } else {
+                operands.add(token);
+            }
+        }
+        return found;
+    }
+
+    private static int indexOf(List<Object> tokens, String operator) {
+        for (int i = 0; i < tokens.size(); i++) {
+            if (tokens.get(i) instanceof Operator && ((Operator) tokens.get(i)).getName().equals(operator)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(List<Object> tokens, String operator) {
+        for (int i = tokens.size() - 1; i >= 0; i--) {
+            if (tokens.get(i) instanceof Operator && ((Operator) tokens.get(i)).getName().equals(operator)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * @author leadpony
+ */
+public class PrecomputedMarginTest {
+
+    @Test
+    public void parseJsonShouldParseJsonLines() {
+        String content = "{\"page\":1,\"mediaBox\":[0.0,0.0,595.0,842.0],"
+                + "\"boundingBox\":[95.0,95.0,454.5,654.5],\"cropBox\":[95.0,95.0,454.5,654.5]}\n"
+                + "{\"page\":3,\"cropBox\":[10,20,30,40]}\n";
+
+        Map<Integer, PDRectangle> actual = PrecomputedMargin.parseJson(content).get(PrecomputedMargin.ANY_FILE);
+
+        assertThat(actual).containsOnlyKeys(1, 3);
+        assertBox(actual.get(1), 95.0f, 95.0f, 454.5f, 654.5f);
+        assertBox(actual.get(3), 10f, 20f, 30f, 40f);
+    }
+
+    @Test
+    public void parseJsonShouldParseArray() {
+        String content = "[ { \"page\": 2, \"cropBox\": [ 1, 2, 3, 4 ] } ]";
+
+        Map<Integer, PDRectangle> actual = PrecomputedMargin.parseJson(content).get(PrecomputedMargin.ANY_FILE);
+
+        assertThat(actual).containsOnlyKeys(2);
+        assertBox(actual.get(2), 1f, 2f, 3f, 4f);
+    }
+
+    @Test
+    public void parseJsonShouldKeepBoxesOfEachFile() {
+        String content = "{\"file\":\"a.pdf\",\"page\":1,\"cropBox\":[1,2,3,4]}\n"
+                + "{\"file\":\"dir\\\\b \\\"1\\\".pdf\",\"page\":1,\"cropBox\":[5,6,7,8]}\n"
+                + "{\"file\":\"a.pdf\",\"page\":2,\"cropBox\":[9,10,11,12]}\n";
+
+        Map<String, Map<Integer, PDRectangle>> actual = PrecomputedMargin.parseJson(content);
+
+        assertThat(actual).containsOnlyKeys("a.pdf", "dir\\b \"1\".pdf");
+        assertThat(actual.get("a.pdf")).containsOnlyKeys(1, 2);
+        assertBox(actual.get("a.pdf").get(1), 1f, 2f, 3f, 4f);
+        assertBox(actual.get("a.pdf").get(2), 9f, 10f, 11f, 12f);
+        assertBox(actual.get("dir\\b \"1\".pdf").get(1), 5f, 6f, 7f, 8f);
+    }
+
+    @Test
+    public void parseJsonShouldIgnoreNestedProperties() {
+        String content = "{\"file\":\"{a}.pdf\",\"page\":1,\"box\":{\"cropBox\":[0,0,0,0]},"
+                + "\"cropBox\":[1,2,3,4],\"extra\":[{\"page\":9}]}\n";
+
+        Map<String, Map<Integer, PDRectangle>> actual = PrecomputedMargin.parseJson(content);
+
+        assertThat(actual).containsOnlyKeys("{a}.pdf");
+        assertThat(actual.get("{a}.pdf")).containsOnlyKeys(1);
+        assertBox(actual.get("{a}.pdf").get(1), 1f, 2f, 3f, 4f);
+    }
+
+    @Test
+    public void parseJsonShouldDecodeEscapesInFile() {
+        String content = "{\"file\":\"caf\\u00e9\\n\\/x.pdf\",\"page\":1,\"cropBox\":[1,2,3,4]}";
+
+        Map<String, Map<Integer, PDRectangle>> actual = PrecomputedMargin.parseJson(content);
+
+        assertThat(actual).containsOnlyKeys("caf\u00e9\n/x.pdf");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "{\"page\":1,\"cropBox\":[1,2,3,4]",
+        "{\"page\":0,\"cropBox\":[1,2,3,4]}",
+        "{\"page\":1.5,\"cropBox\":[1,2,3,4]}",
+        "{\"page\":\"1\",\"cropBox\":[1,2,3,4]}",
+        "{\"page\":1,\"cropBox\":[1,2,3]}",
+        "{\"page\":1,\"cropBox\":[1,2,3,\"4\"]}",
+        "{\"page\":1}",
+        "{\"file\":1,\"page\":1,\"cropBox\":[1,2,3,4]}",
+        "{\"file\":\"\",\"page\":1,\"cropBox\":[1,2,3,4]}",
+        "[1]",
+    })
+    public void parseJsonShouldRejectInvalidCropBox(String content) {
+        Throwable thrown = catchThrowable(() -> PrecomputedMargin.parseJson(content));
+
+        assertThat(thrown).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void createStrategyShouldUseBoxesOfDocument() throws IOException {
+        PrecomputedMargin margin = new PrecomputedMargin(Map.of(
+                "a.pdf", Map.of(1, new PDRectangle(1, 2, 3, 4)),
+                "b.pdf", Map.of(1, new PDRectangle(5, 6, 7, 8))));
+
+        try (PDDocument doc = new PDDocument()) {
+            doc.addPage(new PDPage());
+            assertBox(margin.createStrategy(doc, new Input(Path.of("b.pdf"))).getCropBox(doc, 0), 5f, 6f, 12f, 14f);
+            assertBox(margin.createStrategy(doc, new Input(Path.of("a.pdf").toAbsolutePath()))
+                    .getCropBox(doc, 0), 1f, 2f, 4f, 6f);
+        }
+    }
+
+    @Test
+    public void createStrategyShouldRejectDocumentNotFound() throws IOException {
+        PrecomputedMargin margin = new PrecomputedMargin(Map.of(
+                "a.pdf", Map.of(1, new PDRectangle(1, 2, 3, 4)),
+                "b.pdf", Map.of(1, new PDRectangle(5, 6, 7, 8))));
+
+        try (PDDocument doc = new PDDocument()) {
+            Throwable thrown = catchThrowable(() -> margin.createStrategy(doc, new Input(Path.of("c.pdf"))));
+            assertThat(thrown).isInstanceOf(IllegalArgumentException.class);
+            thrown = catchThrowable(() -> margin.createStrategy(doc, new Input(null)));
+            assertThat(thrown).isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    public void createStrategyShouldUseCommonBoxesForOtherDocument() throws IOException {
+        PrecomputedMargin margin = new PrecomputedMargin(Map.of(
+                "a.pdf", Map.of(1, new PDRectangle(1, 2, 3, 4)),
+                PrecomputedMargin.ANY_FILE, Map.of(1, new PDRectangle(5, 6, 7, 8))));
+
+        try (PDDocument doc = new PDDocument()) {
+            doc.addPage(new PDPage());
+            assertBox(margin.createStrategy(doc, new Input(Path.of("c.pdf"))).getCropBox(doc, 0), 5f, 6f, 12f, 14f);
+            assertBox(margin.createStrategy(doc, new Input(null)).getCropBox(doc, 0), 5f, 6f, 12f, 14f);
+        }
+    }
+
+    @Test
+    public void parseCsvShouldSkipHeaderAndComments() {
+        String content = "page,llx,lly,urx,ury\n"
+                + "# comment\n"
+                + "1, 10, 20, 30, 40\n"
+                + "\n"
+                + "2,0.5,1.5,100.5,200.5\n";
+
+        Map<Integer, PDRectangle> actual = PrecomputedMargin.parseCsv(content);
+
+        assertThat(actual).containsOnlyKeys(1, 2);
+        assertBox(actual.get(1), 10f, 20f, 30f, 40f);
+        assertBox(actual.get(2), 0.5f, 1.5f, 100.5f, 200.5f);
+    }
+
+    @Test
+    public void parseCsvShouldRejectIncompleteBox() {
+        Throwable thrown = catchThrowable(() -> PrecomputedMargin.parseCsv("1,10,20,30\n"));
+
+        assertThat(thrown).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * The cropping context which has only the path of the document.
+     */
+    private static class Input implements CroppingContext {
+
+        private final Path path;
+
+        Input(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        public Path getInput() {
+            return path;
+        }
+
+        @Override
+        public int getPadding() {
+            return 0;
+        }
+
+        @Override
+        public boolean includesAnnotations() {
+            return true;
+        }
+
+        @Override
+        public int getResolution() {
+            return 72;
+        }
+
+        @Override
+        public boolean rendersDraft() {
+            return false;
+        }
+
+        @Override
+        public MemoryGovernor getMemoryGovernor() {
+            return MemoryGovernor.ofMebibytes(null);
+        }
+
+        @Override
+        public RasterPool getRasterPool() {
+            return RasterPool.NONE;
+        }
+
+        @Override
+        public int getTileSize() {
+            return 0;
+        }
+    }
+
+    private static void assertBox(PDRectangle box, float x0, float y0, float x1, float y1) {
+        assertThat(box.getLowerLeftX()).isEqualTo(x0);
+        assertThat(box.getLowerLeftY()).isEqualTo(y0);
+        assertThat(box.getUpperRightX()).isEqualTo(x1);
+        assertThat(box.getUpperRightY()).isEqualTo(y1);
+    }
+}
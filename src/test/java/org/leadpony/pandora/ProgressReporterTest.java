@@ -0,0 +1,96 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author leadpony
+ */
+public class ProgressReporterTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void snapshotShouldEstimatePagesOfDocumentsNotLoaded() {
+        var reporter = new ProgressReporter(ProgressReporter.Format.TEXT, System.err, 4, 0);
+        reporter.beginDocument(10);
+        for (int i = 0; i < 5; i++) {
+            reporter.pageDone(100_000_000L);
+        }
+
+        var snapshot = reporter.snapshot(2 * SECOND);
+
+        assertThat(snapshot.pages).isEqualTo(5);
+        assertThat(snapshot.totalPages).isEqualTo(40);
+        assertThat(snapshot.documents).isEqualTo(1);
+        assertThat(snapshot.pagesPerSecond).isEqualTo(2.5);
+        assertThat(snapshot.millisPerPage).isEqualTo(100.0);
+        assertThat(snapshot.etaSeconds).isEqualTo(14.0);
+    }
+
+    @Test
+    public void snapshotShouldWeightRecentLatencies() {
+        var reporter = new ProgressReporter(ProgressReporter.Format.TEXT, System.err, 1, 0);
+        reporter.beginDocument(2);
+        reporter.pageDone(10_000_000L);
+        reporter.pageDone(110_000_000L);
+
+        assertThat(reporter.snapshot(SECOND).millisPerPage).isCloseTo(20.0, within(1e-9));
+    }
+
+    @Test
+    public void formatShouldPrintTextLine() {
+        var reporter = new ProgressReporter(ProgressReporter.Format.TEXT, System.err, 2, 0);
+        var snapshot = new ProgressReporter.Snapshot(30, 120, 1, 2, 7.5, 133.3, 3725);
+
+        assertThat(reporter.format(snapshot))
+            .isEqualTo("30/120 pages (25.0%), 1/2 documents, 7.5 pages/s, 133.3 ms/page, ETA 1:02:05");
+    }
+
+    @Test
+    public void formatShouldPrintJsonLine() {
+        var reporter = new ProgressReporter(ProgressReporter.Format.JSON, System.err, 2, 0);
+        var snapshot = new ProgressReporter.Snapshot(0, 0, 0, 2, 0, Double.NaN, Double.NaN);
+
+        assertThat(reporter.format(snapshot))
+            .isEqualTo("{\"pages\":0,\"totalPages\":0,\"documents\":0,\"totalDocuments\":2,"
+                    + "\"pagesPerSecond\":0.000,\"millisPerPage\":null,\"etaSeconds\":null}");
+    }
+
+    @Test
+    public void stopShouldPrintFinalProgress() throws InterruptedException {
+        var bytes = new ByteArrayOutputStream();
+        var reporter = new ProgressReporter(ProgressReporter.Format.JSON,
+                new PrintStream(bytes, true, StandardCharsets.UTF_8), 1, System.nanoTime());
+        reporter.start(60_000);
+        reporter.beginDocument(3);
+        for (int i = 0; i < 3; i++) {
+            reporter.pageDone(1_000_000L);
+        }
+        reporter.stop();
+
+        assertThat(bytes.toString(StandardCharsets.UTF_8))
+            .startsWith("{\"pages\":3,\"totalPages\":3,\"documents\":1,\"totalDocuments\":1,")
+            .endsWith("\"etaSeconds\":0.000}" + System.lineSeparator());
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import static org.assertj.core.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author leadpony
+ */
+public class RasterPoolTest {
+
+    @Test
+    public void acquireShouldReuseReleasedBuffer() {
+        var pool = new RasterPool(2);
+        byte[] buffer;
+        try (var lease = pool.acquire(1000)) {
+            buffer = lease.getBuffer();
+            assertThat(lease.isReused()).isFalse();
+            assertThat(buffer.length).isGreaterThanOrEqualTo(1000);
+        }
+        try (var lease = pool.acquire(900)) {
+            assertThat(lease.isReused()).isTrue();
+            assertThat(lease.getBuffer()).isSameAs(buffer);
+        }
+    }
+
+    @Test
+    public void acquireShouldTakeSmallestBufferLargeEnough() {
+        var pool = new RasterPool(2);
+        var small = pool.acquire(100_000);
+        var large = pool.acquire(1_000_000);
+        small.close();
+        large.close();
+
+        try (var lease = pool.acquire(50_000)) {
+            assertThat(lease.getBuffer()).isSameAs(small.getBuffer());
+        }
+        try (var lease = pool.acquire(2_000_000)) {
+            assertThat(lease.isReused()).isFalse();
+        }
+    }
+
+    @Test
+    public void releaseShouldRetainLargestBuffers() {
+        var pool = new RasterPool(1);
+        var small = pool.acquire(100_000);
+        var large = pool.acquire(1_000_000);
+        large.close();
+        small.close();
+
+        assertThat(pool.getRetained()).isEqualTo(1);
+        try (var lease = pool.acquire(10)) {
+            assertThat(lease.getBuffer()).isSameAs(large.getBuffer());
+        }
+    }
+
+    @Test
+    public void noneShouldNotRetainBuffers() {
+        byte[] buffer;
+        try (var lease = RasterPool.NONE.acquire(100)) {
+            buffer = lease.getBuffer();
+            assertThat(buffer).hasSize(100);
+        }
+        try (var lease = RasterPool.NONE.acquire(100)) {
+            assertThat(lease.getBuffer()).isNotSameAs(buffer);
+        }
+        assertThat(RasterPool.NONE.getRetained()).isZero();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.leadpony.pandora;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDPageContentStream.AppendMode;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author leadpony
+ */
+public class StreamCompressorTest {
+
+    @Test
+    public void compressShouldProduceSameOutputRegardlessOfThreads() throws IOException {
+        byte[] serial = compressAndRead(1);
+        byte[] parallel = compressAndRead(4);
+
+        assertThat(parallel).isEqualTo(serial);
+    }
+
+    @Test
+    public void compressShouldPreserveStreamContents() throws IOException {
+        try (PDDocument doc = createDocument()) {
+            byte[] original = readContents(doc);
+
+            int compressed = new StreamCompressor(StreamCompressor.Level.SMALL, 2).compress(doc);
+
+            assertThat(compressed).isEqualTo(doc.getNumberOfPages());
+            COSStream stream = (COSStream) doc.getPage(0).getCOSObject().getDictionaryObject(COSName.CONTENTS);
+            assertThat(stream.getFilters()).isEqualTo(COSName.FLATE_DECODE);
+            assertThat(readContents(doc)).isEqualTo(original);
+        }
+    }
+
+    @Test
+    public void levelOfShouldIgnoreCase() {
+        assertThat(StreamCompressor.Level.of("fast")).isEqualTo(StreamCompressor.Level.FAST);
+        assertThat(StreamCompressor.Level.of("Small")).isEqualTo(StreamCompressor.Level.SMALL);
+        assertThatThrownBy(() -> StreamCompressor.Level.of("best"))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static byte[] compressAndRead(int threads) throws IOException {
+        try (PDDocument doc = createDocument()) {
+            new StreamCompressor(StreamCompressor.Level.FAST, threads).compress(doc);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (PDPage page : doc.getPages()) {
+                COSStream stream = (COSStream) page.getCOSObject().getDictionaryObject(COSName.CONTENTS);
+                try (InputStream in = stream.createRawInputStream()) {
+                    in.transferTo(out);
+                }
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static PDDocument createDocument() throws IOException {
+        PDDocument doc = new PDDocument();
+        for (int i = 0; i < 5; i++) {
+            PDPage page = new PDPage();
+            doc.addPage(page);
+            try (PDPageContentStream stream = new PDPageContentStream(doc, page, AppendMode.OVERWRITE, false)) {
+                for (int j = 0; j < 100; j++) {
+                    stream.addRect(10 + j, 20 + i, 30, 40);
+                    stream.fill();
+                }
+            }
+        }
+        return doc;
+    }
+
+    private static byte[] readContents(PDDocument doc) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (PDPage page : doc.getPages()) {
+            try (InputStream in = page.getContents()) {
+                in.transferTo(out);
+            }
+        }
+        return out.toByteArray();
+    }
+}